@@ -0,0 +1,123 @@
+package api;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Deduplicates concurrent lookups for the same key. The first caller for a key (the leader) runs the lookup, while any
+ * caller arriving before it completes (a follower) waits for, and shares, the leader's result instead of issuing its
+ * own lookup. Nothing is cached once the lookup completes, so the next burst for the same key runs a fresh lookup.
+ *
+ * @param <K> Type of the keys lookups are deduplicated by
+ * @param <V> Type of the values returned by lookups
+ */
+public class SingleFlight<K, V> {
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Applied to the leader's result before handing it to each follower, so that mutable values are not shared
+	 * between callers.
+	 */
+	private final UnaryOperator<V> followerCopier;
+
+	private final LongAdder executedCalls = new LongAdder(), coalescedCalls = new LongAdder();
+
+	/**
+	 * @param followerCopier Function used to copy the leader's result for each follower. Use UnaryOperator.identity()
+	 *                       if values are immutable, or never modified by callers
+	 */
+	public SingleFlight(UnaryOperator<V> followerCopier) {
+		this.followerCopier = followerCopier;
+	}
+
+	/**
+	 * Runs the given lookup, unless a lookup for the same key is already in flight, in which case its result is
+	 * awaited and returned instead. Exceptions thrown by the lookup are rethrown to the leader and all its followers.
+	 *
+	 * @param key    Key identifying the lookup
+	 * @param lookup Lookup to run if no other lookup for the same key is in flight
+	 * @return Result of the lookup, which may be null
+	 */
+	public V execute(K key, Supplier<V> lookup) {
+		CompletableFuture<V> call = new CompletableFuture<>();
+		CompletableFuture<V> inFlightCall = inFlight.putIfAbsent(key, call);
+
+		if (inFlightCall != null) {
+			coalescedCalls.increment();
+			return awaitResult(inFlightCall);
+		}
+
+		executedCalls.increment();
+		try {
+			V result = lookup.get();
+			call.complete(result);
+			return result;
+		} catch (RuntimeException | Error e) {
+			call.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, call);
+		}
+	}
+
+	/**
+	 * Waits for a lookup run by another caller to complete, and returns a copy of its result.
+	 *
+	 * @param call Lookup in flight
+	 * @return Copy of the lookup result, or null if the lookup returned null
+	 */
+	private V awaitResult(CompletableFuture<V> call) {
+		V result;
+		try {
+			result = call.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+
+		return result == null ? null : followerCopier.apply(result);
+	}
+
+	/**
+	 * @return Number of lookups that were actually run
+	 */
+	public long getExecutedCalls() {
+		return executedCalls.sum();
+	}
+
+	/**
+	 * @return Number of calls that shared the result of a lookup already in flight, instead of running their own
+	 */
+	public long getCoalescedCalls() {
+		return coalescedCalls.sum();
+	}
+
+	/**
+	 * Registers the executed and coalesced call counters in the given registry, as the 'dao.lookups' metric, tagged
+	 * with the given entity name and the call outcome.
+	 *
+	 * @param registry Registry to bind the counters to
+	 * @param entity   Name of the entity being looked up, used to tell counters of different DAOs apart
+	 */
+	public void bindTo(MeterRegistry registry, String entity) {
+		FunctionCounter.builder("dao.lookups", this, SingleFlight::getExecutedCalls)
+					   .description("Lookups issued to the database")
+					   .tags("entity", entity, "outcome", "executed")
+					   .register(registry);
+		FunctionCounter.builder("dao.lookups", this, SingleFlight::getCoalescedCalls)
+					   .description("Lookups that shared the result of an identical lookup already in flight")
+					   .tags("entity", entity, "outcome", "coalesced")
+					   .register(registry);
+	}
+}
@@ -0,0 +1,74 @@
+package api;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Fields of a resource that clients can select with a 'fields' request parameter, such as '?fields=id,purchaserName',
+ * so that only the selected fields are serialized. Selected fields are written in the order they are declared in, not
+ * the order they were requested in, so that responses for the same selection are identical.
+ *
+ * @param <T> Type of the resource
+ */
+public class SparseFieldset<T> {
+	private final Map<String, Function<T, Object>> fields = new LinkedHashMap<>();
+
+	/**
+	 * Declares a field that can be selected.
+	 *
+	 * @param name   Name of the field, as serialized
+	 * @param getter Reads the field from a resource
+	 * @return This fieldset
+	 */
+	public SparseFieldset<T> field(String name, Function<T, Object> getter) {
+		fields.put(name, getter);
+		return this;
+	}
+
+	/**
+	 * @return Names of the fields that can be selected, in declaration order
+	 */
+	public Set<String> getFields() {
+		return Collections.unmodifiableSet(fields.keySet());
+	}
+
+	/**
+	 * Parses the value of a 'fields' request parameter.
+	 *
+	 * @param fieldList Comma separated names of the selected fields
+	 * @return Names of the selected fields, in declaration order
+	 * @throws IllegalArgumentException If no field is selected, or a selected field does not exist
+	 */
+	public Set<String> parse(String fieldList) {
+		Set<String> requested = new HashSet<>();
+		for (String field : fieldList.split(",")) {
+			String name = field.trim();
+			if (name.isEmpty())
+				continue;
+			if (!fields.containsKey(name))
+				throw new IllegalArgumentException("Unknown field '" + name + "', fields are " + fields.keySet());
+			requested.add(name);
+		}
+
+		if (requested.isEmpty())
+			throw new IllegalArgumentException("No fields selected, fields are " + fields.keySet());
+
+		Set<String> selected = new LinkedHashSet<>(fields.keySet());
+		selected.retainAll(requested);
+		return selected;
+	}
+
+	/**
+	 * Reads the selected fields of a resource.
+	 *
+	 * @param resource Resource to read
+	 * @param selected Names of the selected fields, as returned by parse()
+	 * @return Selected fields by name, in declaration order, to be serialized in place of the resource
+	 */
+	public Map<String, Object> select(T resource, Set<String> selected) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		for (String name : selected)
+			values.put(name, fields.get(name).apply(resource));
+		return values;
+	}
+}
@@ -0,0 +1,15 @@
+package api;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Media types the API is able to consume and produce. JSON remains the default, while CBOR and Smile are compact binary
+ * encodings of the same documents, which are cheaper to parse for orders with a large number of items.
+ */
+public class WireFormats {
+	public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+	public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+	public static final MediaType APPLICATION_CBOR = MediaType.valueOf(APPLICATION_CBOR_VALUE);
+	public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+}
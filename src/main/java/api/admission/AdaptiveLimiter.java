@@ -0,0 +1,106 @@
+package api.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit that adapts to the latency of the requests it admits, using additive increase, multiplicative
+ * decrease (AIMD). While requests complete within the latency threshold and the limit is being used, the limit grows by
+ * one for each completed request. When a request exceeds the threshold, the limit is scaled down by the backoff ratio,
+ * so that the server sheds load before requests pile up waiting for database connections.
+ */
+public class AdaptiveLimiter {
+	private final String name;
+
+	private final int minLimit, maxLimit;
+
+	private final long latencyThresholdNanos;
+
+	private final double backoffRatio;
+
+	/**
+	 * Share of the limit that normal priority requests are allowed to use, leaving the rest as headroom for high
+	 * priority requests.
+	 */
+	private final double normalPriorityShare;
+
+	private volatile double limit;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * @param name       Name of the limiter, used to identify it in metrics
+	 * @param properties Limits, latency threshold and ratios the limiter will use
+	 */
+	public AdaptiveLimiter(String name, AdmissionProperties.Limiter properties) {
+		this.name = name;
+		this.minLimit = properties.getMinLimit();
+		this.maxLimit = properties.getMaxLimit();
+		this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(properties.getLatencyThresholdMs());
+		this.backoffRatio = properties.getBackoffRatio();
+		this.normalPriorityShare = properties.getNormalPriorityShare();
+		this.limit = Math.max(minLimit, Math.min(maxLimit, properties.getInitialLimit()));
+	}
+
+	/**
+	 * Attempts to admit a request. If it is admitted, release() must be called once the request completes.
+	 *
+	 * @param priority Priority of the request, which determines how much of the limit it is allowed to use
+	 * @return True if the request was admitted, false if the limit has been reached and the request must be rejected
+	 */
+	public boolean tryAcquire(Priority priority) {
+		double usableLimit = priority == Priority.HIGH ? limit : limit * normalPriorityShare;
+		int allowed = Math.max(1, (int) usableLimit);
+
+		for (int current = inFlight.get(); current < allowed; current = inFlight.get())
+			if (inFlight.compareAndSet(current, current + 1))
+				return true;
+
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Releases a previously admitted request, and adjusts the limit according to how long the request took.
+	 *
+	 * @param latencyNanos Time taken to serve the request, in nanoseconds
+	 */
+	public void release(long latencyNanos) {
+		int inFlightBeforeRelease = inFlight.getAndDecrement();
+
+		synchronized (this) {
+			if (latencyNanos > latencyThresholdNanos)
+				limit = Math.max(minLimit, limit * backoffRatio);
+			else if (inFlightBeforeRelease * 2 >= limit) // Only grow the limit if it is actually being used
+				limit = Math.min(maxLimit, limit + 1);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Current concurrency limit
+	 */
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return Number of admitted requests that have not been released yet
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return Number of requests rejected since the limiter was created
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+}
@@ -0,0 +1,23 @@
+package api.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the admission control interceptor for all API endpoints.
+ */
+@Configuration
+@EnableConfigurationProperties(AdmissionProperties.class)
+public class AdmissionConfig implements WebMvcConfigurer {
+
+	@Autowired
+	private AdmissionInterceptor admissionInterceptor;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(admissionInterceptor).addPathPatterns("/api/**");
+	}
+}
@@ -0,0 +1,24 @@
+package api.admission;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller method as subject to admission control. Requests are admitted through the named limiter, and
+ * rejected with a 503 Service Unavailable response if its concurrency limit has been reached.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AdmissionControlled {
+	/**
+	 * @return Name of the limiter requests are admitted through. Methods sharing a name share the same limit
+	 */
+	String value();
+
+	/**
+	 * @return Priority of the requests when competing for admission
+	 */
+	Priority priority() default Priority.NORMAL;
+}
@@ -0,0 +1,125 @@
+package api.admission;
+
+import api.JSONBuilder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Applies admission control to controller methods annotated with AdmissionControlled. Requests over the limit of their
+ * limiter are rejected straight away with a 503 Service Unavailable response and a 'Retry-After' header, instead of
+ * queueing for a database connection.
+ */
+@Component
+public class AdmissionInterceptor extends HandlerInterceptorAdapter implements MeterBinder {
+	private static final String LIMITER_ATTRIBUTE = AdmissionInterceptor.class.getName() + ".limiter";
+	private static final String START_ATTRIBUTE = AdmissionInterceptor.class.getName() + ".start";
+
+	@Autowired
+	private AdmissionProperties properties;
+
+	private final ConcurrentMap<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+	/**
+	 * Registry limiter metrics are bound to, which will be null until bindTo() is called.
+	 */
+	private volatile MeterRegistry meterRegistry;
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+			throws IOException {
+		if (!properties.isEnabled() || !(handler instanceof HandlerMethod))
+			return true;
+
+		AdmissionControlled admissionControlled =
+				((HandlerMethod) handler).getMethodAnnotation(AdmissionControlled.class);
+		if (admissionControlled == null)
+			return true;
+
+		AdaptiveLimiter limiter = getLimiter(admissionControlled.value());
+		if (!limiter.tryAcquire(admissionControlled.priority())) {
+			response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+			response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(properties.getRetryAfterSeconds()));
+			response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+			response.getWriter().write(JSONBuilder.apiErrorBuilder(
+					HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable",
+					"Server is overloaded, please retry later", request.getRequestURI()
+			));
+			return false;
+		}
+
+		request.setAttribute(LIMITER_ATTRIBUTE, limiter);
+		request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+								Exception ex) {
+		AdaptiveLimiter limiter = (AdaptiveLimiter) request.getAttribute(LIMITER_ATTRIBUTE);
+		if (limiter == null)
+			return;
+
+		request.removeAttribute(LIMITER_ATTRIBUTE);
+		limiter.release(System.nanoTime() - (Long) request.getAttribute(START_ATTRIBUTE));
+	}
+
+	/**
+	 * Returns the limiter with the given name, creating it from its configured settings (or the default settings, if
+	 * it has none) the first time it is requested.
+	 *
+	 * @param name Name of the limiter
+	 * @return Limiter with the given name
+	 */
+	AdaptiveLimiter getLimiter(String name) {
+		return limiters.computeIfAbsent(name, n -> {
+			AdaptiveLimiter limiter = new AdaptiveLimiter(
+					n, properties.getLimiters().getOrDefault(n, new AdmissionProperties.Limiter())
+			);
+			if (meterRegistry != null)
+				bindLimiter(limiter, meterRegistry);
+			return limiter;
+		});
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		meterRegistry = registry;
+		limiters.values().forEach(limiter -> bindLimiter(limiter, registry));
+	}
+
+	/**
+	 * Exports the state of a limiter as 'admission.*' metrics, tagged with the limiter name.
+	 *
+	 * @param limiter  Limiter to export
+	 * @param registry Registry to export the limiter metrics to
+	 */
+	private static void bindLimiter(AdaptiveLimiter limiter, MeterRegistry registry) {
+		Gauge.builder("admission.limit", limiter, AdaptiveLimiter::getLimit)
+			 .description("Current concurrency limit")
+			 .tag("limiter", limiter.getName())
+			 .register(registry);
+		Gauge.builder("admission.in.flight", limiter, AdaptiveLimiter::getInFlight)
+			 .description("Admitted requests currently being served")
+			 .tag("limiter", limiter.getName())
+			 .register(registry);
+		FunctionCounter.builder("admission.rejected", limiter, AdaptiveLimiter::getRejected)
+					   .description("Requests rejected because the concurrency limit was reached")
+					   .tag("limiter", limiter.getName())
+					   .register(registry);
+	}
+}
@@ -0,0 +1,110 @@
+package api.admission;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Admission control settings, read from the 'admission' properties. Each limiter can be configured individually under
+ * 'admission.limiters.[name]', and limiters without their own settings use the defaults below.
+ */
+@ConfigurationProperties(prefix = "admission")
+public class AdmissionProperties {
+	private boolean enabled = true;
+
+	/**
+	 * Value of the 'Retry-After' header sent with rejected requests, in seconds.
+	 */
+	private int retryAfterSeconds = 1;
+
+	private Map<String, Limiter> limiters = new HashMap<>();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	public void setRetryAfterSeconds(int retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public Map<String, Limiter> getLimiters() {
+		return limiters;
+	}
+
+	public void setLimiters(Map<String, Limiter> limiters) {
+		this.limiters = limiters;
+	}
+
+	/**
+	 * Settings of a single limiter.
+	 */
+	public static class Limiter {
+		private int initialLimit = 20, minLimit = 1, maxLimit = 200;
+
+		/**
+		 * Requests slower than this cause the limit to be scaled down.
+		 */
+		private long latencyThresholdMs = 250;
+
+		private double backoffRatio = 0.9;
+
+		private double normalPriorityShare = 0.8;
+
+		public int getInitialLimit() {
+			return initialLimit;
+		}
+
+		public void setInitialLimit(int initialLimit) {
+			this.initialLimit = initialLimit;
+		}
+
+		public int getMinLimit() {
+			return minLimit;
+		}
+
+		public void setMinLimit(int minLimit) {
+			this.minLimit = minLimit;
+		}
+
+		public int getMaxLimit() {
+			return maxLimit;
+		}
+
+		public void setMaxLimit(int maxLimit) {
+			this.maxLimit = maxLimit;
+		}
+
+		public long getLatencyThresholdMs() {
+			return latencyThresholdMs;
+		}
+
+		public void setLatencyThresholdMs(long latencyThresholdMs) {
+			this.latencyThresholdMs = latencyThresholdMs;
+		}
+
+		public double getBackoffRatio() {
+			return backoffRatio;
+		}
+
+		public void setBackoffRatio(double backoffRatio) {
+			this.backoffRatio = backoffRatio;
+		}
+
+		public double getNormalPriorityShare() {
+			return normalPriorityShare;
+		}
+
+		public void setNormalPriorityShare(double normalPriorityShare) {
+			this.normalPriorityShare = normalPriorityShare;
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package api.admission;
+
+/**
+ * Priority of a request when competing for admission. High priority requests may use the whole concurrency limit,
+ * while normal priority requests are only allowed a share of it, so that they are shed first under load.
+ */
+public enum Priority {
+	HIGH, NORMAL
+}
@@ -0,0 +1,209 @@
+package api.catalog.cache;
+
+import api.catalog.model.CatalogEntry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jdk.internal.jline.internal.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of serialized catalog entries, keyed by entry ID and media type. Catalog entries never change through the API,
+ * so once an entry has been encoded, its bytes are written as is to every following response, skipping both the
+ * database and object mapping. Entries are encoded with the same object mappers as the message converters, so cached
+ * bodies are identical to the ones Spring would have written.
+ * <p>
+ * The total size of the cached bodies is capped by the 'catalog.response-cache.max-bytes' property. When the cap is
+ * exceeded, the least recently used entries are evicted until the cache fits again.
+ */
+@Component
+public class CatalogResponseCache implements MeterBinder {
+	@Autowired
+	private HttpMessageConverters messageConverters;
+
+	@Value("${catalog.response-cache.max-bytes:16777216}")
+	private long maxBytes;
+
+	/**
+	 * Encoded bodies of each entry, by media type, from the least to the most recently used entry. Only accessed while
+	 * holding its lock, along with the size and invalidation counters. The lock is only held for map operations, while
+	 * entries are loaded and encoded without it.
+	 */
+	private final LinkedHashMap<Long, Map<MediaType, EncodedResponse>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final ConcurrentMap<MediaType, ObjectMapper> objectMappers = new ConcurrentHashMap<>();
+
+	private long cachedBytes;
+
+	/**
+	 * Incremented by every invalidation, so that bodies encoded from an entry loaded before an invalidation are not
+	 * cached.
+	 */
+	private long invalidations;
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+	/**
+	 * Finds the object mapper the message converters use to write catalog entries in the given media type.
+	 *
+	 * @param mediaType Media type to encode catalog entries in
+	 * @return Object mapper writing the given media type
+	 */
+	private ObjectMapper objectMapperFor(MediaType mediaType) {
+		return objectMappers.computeIfAbsent(mediaType, type -> messageConverters.getConverters().stream()
+				.filter(converter -> converter instanceof AbstractJackson2HttpMessageConverter)
+				.map(converter -> (AbstractJackson2HttpMessageConverter) converter)
+				.filter(converter -> converter.canWrite(CatalogEntry.class, type))
+				.findFirst()
+				.map(AbstractJackson2HttpMessageConverter::getObjectMapper)
+				.orElseThrow(() -> new IllegalArgumentException("No message converter writes " + type)));
+	}
+
+	private static long sizeOf(Map<MediaType, EncodedResponse> responses) {
+		return responses.values().stream().mapToLong(EncodedResponse::getContentLength).sum();
+	}
+
+	/**
+	 * Returns the encoded body of a catalog entry, encoding and caching it first if needed.
+	 *
+	 * @param id        ID of the catalog entry
+	 * @param mediaType Media type to encode the entry in
+	 * @param loader    Loads the entry if it has not been cached in the given media type yet
+	 * @return Encoded catalog entry, or null if the loader did not find it
+	 * @throws JsonProcessingException If the entry cannot be encoded
+	 */
+	@Nullable
+	public EncodedResponse get(Long id, MediaType mediaType, Supplier<CatalogEntry> loader)
+			throws JsonProcessingException {
+		long invalidationsBeforeLoad;
+		synchronized (entries) {
+			Map<MediaType, EncodedResponse> responses = entries.get(id);
+			EncodedResponse response = responses == null ? null : responses.get(mediaType);
+			if (response != null) {
+				hits.increment();
+				return response;
+			}
+			invalidationsBeforeLoad = invalidations;
+		}
+
+		misses.increment();
+		CatalogEntry catalogEntry = loader.get();
+		if (catalogEntry == null)
+			return null;
+
+		byte[] body = objectMapperFor(mediaType).writeValueAsBytes(catalogEntry);
+		EncodedResponse encoded = new EncodedResponse(mediaType, body, "\"" + DigestUtils.md5DigestAsHex(body) + "\"");
+
+		if (body.length <= maxBytes) {
+			synchronized (entries) {
+				if (invalidations == invalidationsBeforeLoad) {
+					Map<MediaType, EncodedResponse> responses = entries.computeIfAbsent(id, key -> new HashMap<>());
+					EncodedResponse replaced = responses.put(mediaType, encoded);
+					cachedBytes += body.length - (replaced == null ? 0 : replaced.getContentLength());
+					evictIfFull();
+				}
+			}
+		}
+
+		return encoded;
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cached bodies fit within the size cap again. Must be called
+	 * while holding the lock on the entries.
+	 */
+	private void evictIfFull() {
+		Iterator<Map<MediaType, EncodedResponse>> leastRecentlyUsed = entries.values().iterator();
+		while (cachedBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+			cachedBytes -= sizeOf(leastRecentlyUsed.next());
+			leastRecentlyUsed.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Removes all encoded bodies of a catalog entry. Must be called whenever the entry is changed or removed.
+	 *
+	 * @param id ID of the catalog entry
+	 */
+	public void invalidate(Long id) {
+		synchronized (entries) {
+			invalidations++;
+			Map<MediaType, EncodedResponse> responses = entries.remove(id);
+			if (responses != null)
+				cachedBytes -= sizeOf(responses);
+		}
+	}
+
+	/**
+	 * Removes all encoded bodies from the cache. Must be called whenever the catalog is changed in bulk.
+	 */
+	public void invalidateAll() {
+		synchronized (entries) {
+			invalidations++;
+			entries.clear();
+			cachedBytes = 0;
+		}
+	}
+
+	/**
+	 * @return Total size of the cached bodies, in bytes
+	 */
+	public long getCachedBytes() {
+		synchronized (entries) {
+			return cachedBytes;
+		}
+	}
+
+	/**
+	 * @return Number of catalog entries with at least one cached body
+	 */
+	public int getCachedEntries() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+					   .tags("cache", "catalogResponses", "result", "hit")
+					   .register(registry);
+		FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+					   .tags("cache", "catalogResponses", "result", "miss")
+					   .register(registry);
+		FunctionCounter.builder("cache.evictions", evictions, LongAdder::sum)
+					   .tags("cache", "catalogResponses")
+					   .register(registry);
+		Gauge.builder("cache.size", this, CatalogResponseCache::getCachedEntries)
+			 .tags("cache", "catalogResponses")
+			 .register(registry);
+		Gauge.builder("catalog.response.cache.bytes", this, CatalogResponseCache::getCachedBytes)
+			 .description("Total size of the cached catalog response bodies")
+			 .baseUnit("bytes")
+			 .register(registry);
+	}
+}
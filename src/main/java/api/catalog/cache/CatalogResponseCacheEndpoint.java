@@ -0,0 +1,45 @@
+package api.catalog.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.jmx.annotation.JmxEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Catalog response cache management, exposed as the 'catalogcache' actuator endpoint. Since the catalog can only be
+ * changed directly in the database, whoever changes it must invalidate the changed entries through this endpoint
+ * (writing an ID invalidates that entry, deleting invalidates all entries), or their old bodies will keep being served.
+ * <p>
+ * The endpoint is only exposed over JMX, so that web clients can never invalidate the cache.
+ */
+@Component
+@JmxEndpoint(id = "catalogcache")
+public class CatalogResponseCacheEndpoint {
+	@Autowired
+	private CatalogResponseCache responseCache;
+
+	@ReadOperation
+	public Map<String, Object> statistics() {
+		Map<String, Object> result = new TreeMap<>();
+		result.put("entries", responseCache.getCachedEntries());
+		result.put("bytes", responseCache.getCachedBytes());
+		result.put("hits", responseCache.getHits());
+		result.put("misses", responseCache.getMisses());
+		return result;
+	}
+
+	@WriteOperation
+	public void invalidate(long id) {
+		responseCache.invalidate(id);
+	}
+
+	@DeleteOperation
+	public void invalidateAll() {
+		responseCache.invalidateAll();
+	}
+}
@@ -0,0 +1,42 @@
+package api.catalog.cache;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Response body that has already been serialized, along with the headers describing it. Instances are shared between
+ * requests, so the body must never be modified.
+ */
+public class EncodedResponse {
+	private final MediaType contentType;
+
+	private final byte[] body;
+
+	private final String eTag;
+
+	/**
+	 * @param contentType Media type the body is encoded in
+	 * @param body        Serialized body
+	 * @param eTag        Strong entity tag identifying the body, including its quotes
+	 */
+	public EncodedResponse(MediaType contentType, byte[] body, String eTag) {
+		this.contentType = contentType;
+		this.body = body;
+		this.eTag = eTag;
+	}
+
+	public MediaType getContentType() {
+		return contentType;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	public int getContentLength() {
+		return body.length;
+	}
+}
@@ -1,39 +1,144 @@
 package api.catalog.controller;
 
+import api.JSONBuilder;
+import api.SparseFieldset;
+import api.WireFormats;
+import api.admission.AdmissionControlled;
+import api.catalog.cache.CatalogResponseCache;
+import api.catalog.cache.EncodedResponse;
 import api.catalog.dao.CatalogDAO;
 import api.catalog.model.CatalogEntry;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static api.WireFormats.APPLICATION_CBOR_VALUE;
+import static api.WireFormats.APPLICATION_SMILE_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
 /**
  * Handles client-server interactions, and specifies what the client can request from the server. Since the catalog is
- * ready only, specific catalog requests are the only operation allowed.
+ * ready only, specific catalog requests are the only operation allowed. Catalog entries can be returned as JSON, CBOR or
+ * Smile, depending on what the client accepts. Encoded entries are cached, so that repeated reads of the same entry
+ * write the same bytes without querying the database or mapping the entry again. Reads with a 'fields' parameter, such
+ * as '?fields=itemName,price', only return the selected fields, and bypass the cache.
  */
 @RestController
-@RequestMapping("/api")
+@RequestMapping(value = "/api", produces = {APPLICATION_JSON_VALUE, APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
 public class CatalogController {
+	/**
+	 * Media types catalog entries can be encoded in, in order of preference when the client accepts several.
+	 */
+	private static final List<MediaType> PRODUCIBLE_MEDIA_TYPES = Arrays.asList(
+			MediaType.APPLICATION_JSON_UTF8, WireFormats.APPLICATION_CBOR, WireFormats.APPLICATION_SMILE
+	);
+
+	private static final SparseFieldset<CatalogEntry> CATALOG_ENTRY_FIELDS = new SparseFieldset<CatalogEntry>()
+			.field("itemName", CatalogEntry::getItemName)
+			.field("brand", CatalogEntry::getBrand)
+			.field("starRating", CatalogEntry::getStarRating)
+			.field("price", CatalogEntry::getPrice);
 
 	@Autowired
 	private CatalogDAO catalogDAO;
 
+	@Autowired
+	private CatalogResponseCache responseCache;
+
+	@Autowired
+	private ContentNegotiationManager contentNegotiationManager;
+
+	/**
+	 * Selects the media type to encode a catalog entry in, from those accepted by the client.
+	 *
+	 * @param webRequest Request for the catalog entry
+	 * @return Most preferred media type accepted by the client, or JSON if the client accepts any media type
+	 * @throws HttpMediaTypeNotAcceptableException If the 'Accept' header cannot be parsed
+	 */
+	private MediaType negotiateMediaType(NativeWebRequest webRequest) throws HttpMediaTypeNotAcceptableException {
+		List<MediaType> acceptedMediaTypes = new ArrayList<>(contentNegotiationManager.resolveMediaTypes(webRequest));
+		MediaType.sortBySpecificityAndQuality(acceptedMediaTypes);
+
+		for (MediaType acceptedMediaType : acceptedMediaTypes)
+			for (MediaType producibleMediaType : PRODUCIBLE_MEDIA_TYPES)
+				if (acceptedMediaType.isCompatibleWith(producibleMediaType))
+					return producibleMediaType;
+		return MediaType.APPLICATION_JSON_UTF8;
+	}
+
 	/**
 	 * Returns a catalog entry given an ID, if it exists. If there is no catalog entry associated with the given ID,
-	 * a 404 Not Found response will be returned.
+	 * a 404 Not Found response will be returned. If too many catalog reads are already being served, a 503 Service
+	 * Unavailable response will be returned instead. Responses carry an ETag, so that clients sending it back in an
+	 * 'If-None-Match' header receive a 304 Not Modified response with no body, and vary by the 'Accept' header, since
+	 * the same URL is encoded differently for each media type.
 	 *
-	 * @param id ID of catalog entry to search for
+	 * @param id         ID of catalog entry to search for
+	 * @param webRequest Request for the catalog entry, used to negotiate the media type of the response
 	 * @return 200 OK response with a Catalog entry in its body if it existed in the database, or a 404 Not Found
 	 * response with no body otherwise
+	 * @throws HttpMediaTypeNotAcceptableException If the 'Accept' header cannot be parsed
+	 * @throws JsonProcessingException             If the catalog entry cannot be encoded
 	 */
 	@GetMapping("/catalog/{id}")
-	public ResponseEntity<CatalogEntry> getCatalogEntryById(@PathVariable(value = "id") Long id) {
-		CatalogEntry catalogEntry = catalogDAO.findById(id);
+	@AdmissionControlled("catalog")
+	public ResponseEntity<byte[]> getCatalogEntryById(@PathVariable(value = "id") Long id, NativeWebRequest webRequest)
+			throws HttpMediaTypeNotAcceptableException, JsonProcessingException {
+		EncodedResponse response = responseCache.get(id, negotiateMediaType(webRequest), () -> catalogDAO.findById(id));
+
+		if (response == null)
+			return ResponseEntity.notFound().build();
+		return ResponseEntity.ok()
+							 .contentType(response.getContentType())
+							 .contentLength(response.getContentLength())
+							 .eTag(response.getETag())
+							 .varyBy(HttpHeaders.ACCEPT)
+							 .body(response.getBody());
+	}
+
+	/**
+	 * Returns the selected fields of a catalog entry given an ID, if it exists. Only the selected fields are
+	 * serialized, but since catalog entries are small, and lookups for the same entry are coalesced, the whole entry is
+	 * read from the database.
+	 *
+	 * @param id        ID of catalog entry to search for
+	 * @param fieldList Comma separated names of the fields to return
+	 * @return 200 OK response with the selected fields of the catalog entry in its body if it existed in the database,
+	 * a 404 Not Found response with no body otherwise, or 400 Bad Request if a selected field does not exist
+	 */
+	@GetMapping(value = "/catalog/{id}", params = "fields")
+	@AdmissionControlled("catalog")
+	public ResponseEntity<Object> getCatalogEntryFieldsById(@PathVariable(value = "id") Long id,
+															@RequestParam(value = "fields") String fieldList) {
+		Set<String> fields;
+		try {
+			fields = CATALOG_ENTRY_FIELDS.parse(fieldList);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(
+					JSONBuilder.apiErrorBuilder(HttpStatus.BAD_REQUEST.value(), "Bad Request", e.getMessage(),
+												"/api/catalog/")
+			);
+		}
 
+		CatalogEntry catalogEntry = catalogDAO.findById(id);
 		if (catalogEntry == null)
 			return ResponseEntity.notFound().build();
-		return ResponseEntity.ok().body(catalogEntry);
+		return ResponseEntity.ok().body(CATALOG_ENTRY_FIELDS.select(catalogEntry, fields));
 	}
 }
@@ -1,29 +1,65 @@
 package api.catalog.dao;
 
+import api.SingleFlight;
 import api.catalog.model.CatalogEntry;
 import api.catalog.repository.CatalogEntryRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import jdk.internal.jline.internal.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
 /**
- * Constrains server side data access, to limit what the controller is able to do.
+ * Constrains server side data access, to limit what the controller is able to do. Concurrent lookups for the same
+ * catalog entry are coalesced into a single database query.
  */
 @Service
-public class CatalogDAO {
+public class CatalogDAO implements MeterBinder {
 
 	@Autowired
 	private CatalogEntryRepository catalogEntryRepository;
 
+	/**
+	 * Catalog entries are read only, so the same instance can be handed to all callers of a coalesced lookup.
+	 */
+	private final SingleFlight<Long, CatalogEntry> findByIdFlight = new SingleFlight<>(UnaryOperator.identity());
+
 	/**
 	 * Searches for a catalog entry given an ID. If it is found, it will return the catalog entry, otherwise it will
-	 * return null.
+	 * return null. If a lookup for the same ID is already in flight, its result is shared instead of querying the
+	 * database again.
 	 *
 	 * @param id ID of catalog entry to return
 	 * @return The requested catalog entry, if it exists in the database, or null, if it does not exist
 	 */
 	@Nullable
 	public CatalogEntry findById(Long id) {
-		return catalogEntryRepository.findById(id).orElse(null);
+		return findByIdFlight.execute(id, () -> catalogEntryRepository.findById(id).orElse(null));
+	}
+
+	/**
+	 * Determines if all the given IDs belong to an existing catalog entry. All IDs are checked with a single query,
+	 * regardless of how many there are.
+	 *
+	 * @param ids IDs of the catalog entries to check, which may contain duplicates
+	 * @return True if every ID belongs to an existing catalog entry, false if at least one does not, or is null
+	 */
+	public boolean existAllById(Long[] ids) {
+		if (Arrays.stream(ids).anyMatch(Objects::isNull))
+			return false;
+
+		Set<Long> distinctIDs = Arrays.stream(ids).collect(Collectors.toSet());
+		return distinctIDs.isEmpty() || catalogEntryRepository.countByIdIn(distinctIDs) == distinctIDs.size();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		findByIdFlight.bindTo(registry, "catalog");
 	}
 }
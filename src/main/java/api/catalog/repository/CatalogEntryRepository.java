@@ -3,8 +3,17 @@ package api.catalog.repository;
 import api.catalog.model.CatalogEntry;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+
 /**
  * Handles database operations relating to CatalogEntries, and more specifically, the 'catalog' table in the database.
  */
 public interface CatalogEntryRepository extends JpaRepository<CatalogEntry, Long> {
+	/**
+	 * Counts how many of the given IDs belong to an existing catalog entry, using a single query.
+	 *
+	 * @param ids IDs of the catalog entries to count
+	 * @return Number of catalog entries whose ID is in the given collection
+	 */
+	long countByIdIn(Collection<Long> ids);
 }
@@ -0,0 +1,233 @@
+package api.order.archive;
+
+import api.order.model.Order;
+import api.order.model.OrderArchiveCommit;
+import api.order.sharding.ShardedOrderIds;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jdk.internal.jline.internal.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cold storage for orders that are no longer expected to change. Archived orders are kept in append-only segment files,
+ * which are never modified once written, and can be looked up by ID after they have been removed from the database.
+ * <p>
+ * The archive directory is shared by all instances, and segments written by other instances are picked up when a
+ * lookup misses, so that every instance finds orders archived by any of them.
+ * <p>
+ * Orders are written to a segment before they are deleted from the database, and the orders of each logical shard are
+ * only served from the segment once their deletion has been committed, as recorded in the database in the same
+ * transaction (see OrderArchiveCommit). Until then, and forever if the deletion was rolled back because some of the
+ * orders were modified or deleted by clients in the meantime, they are invisible in that segment.
+ */
+public class OrderArchive implements MeterBinder {
+	private static final Logger logger = LoggerFactory.getLogger(OrderArchive.class);
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	/**
+	 * Coarsest resolution of directory modification times among common file systems, in milliseconds. A segment added
+	 * within this long of the last scan may not change the modification time of the directory, so the directory is
+	 * scanned again on every miss until this long has passed since it was last modified.
+	 */
+	private static final long MODIFIED_TIME_RESOLUTION_MS = 2000;
+
+	private final Path directory;
+
+	/**
+	 * Segments sorted by file name, which is the order they were written in. Lookups search the newest segments first,
+	 * since an order archived twice (if it was modified while its batch was being archived) is up to date in the
+	 * newest segment. Replaced as a whole when the directory is scanned, so that lookups always see consistent
+	 * segments.
+	 */
+	private volatile List<OrderSegment> segments = Collections.emptyList();
+
+	/**
+	 * Modification time of the directory at the last scan, and time of the last scan, in milliseconds.
+	 */
+	private FileTime scannedModifiedTime;
+
+	private long scannedAt;
+
+	/**
+	 * IDs of the commits found so far, as returned by OrderArchiveCommit.idOf(). Commits are never undone, so each is
+	 * only looked up in the database until it is found.
+	 */
+	private final Set<String> commits = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Opens the archive directory, creating it if needed, and maps all segments already in it.
+	 *
+	 * @param properties Archive settings
+	 * @throws IOException If the directory or one of its segments cannot be read
+	 */
+	public OrderArchive(OrderArchiveProperties properties) throws IOException {
+		this.directory = Paths.get(properties.getDirectory());
+		Files.createDirectories(directory);
+		scan();
+	}
+
+	/**
+	 * Maps the segments added to the directory since it was last scanned, by this instance or any other.
+	 *
+	 * @throws IOException If the directory or one of its new segments cannot be read
+	 */
+	private synchronized void scan() throws IOException {
+		FileTime modifiedTime = Files.getLastModifiedTime(directory);
+		long startedAt = System.currentTimeMillis();
+
+		List<Path> files;
+		try (Stream<Path> listing = Files.list(directory)) {
+			files = listing.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+						   .sorted(Comparator.comparing(Path::getFileName))
+						   .collect(Collectors.toList());
+		}
+
+		Map<Path, OrderSegment> mapped = new HashMap<>();
+		for (OrderSegment segment : segments)
+			mapped.put(segment.getFile(), segment);
+
+		List<OrderSegment> scanned = new ArrayList<>();
+		for (Path file : files) {
+			OrderSegment segment = mapped.get(file);
+			scanned.add(segment != null ? segment : OrderSegment.open(file));
+		}
+
+		segments = Collections.unmodifiableList(scanned);
+		scannedModifiedTime = modifiedTime;
+		scannedAt = startedAt;
+	}
+
+	/**
+	 * Scans the directory again, unless it has not been modified since it was last scanned.
+	 *
+	 * @return True if the directory was scanned again
+	 */
+	private synchronized boolean scanIfModified() {
+		try {
+			FileTime modifiedTime = Files.getLastModifiedTime(directory);
+			if (modifiedTime.equals(scannedModifiedTime) &&
+				scannedAt - modifiedTime.toMillis() > MODIFIED_TIME_RESOLUTION_MS)
+				return false;
+
+			scan();
+			return true;
+		} catch (IOException e) {
+			logger.warn("Could not scan the order archive for new segments", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes orders to a new segment, whose orders are not served until their deletion from the database has been
+	 * committed. The segment is written to a temporary file, which is only renamed into place once
+	 * it has been forced to disk, so that a crash never leaves a partial segment behind. Segment names are made unique
+	 * with a random UUID, so that instances sharing the directory never overwrite each other's segments.
+	 *
+	 * @param orders Orders to archive, each with a creation time
+	 * @return Segment the orders were written to
+	 * @throws IOException If the segment cannot be written
+	 */
+	public synchronized OrderSegment append(List<Order> orders) throws IOException {
+		List<Order> sorted = new ArrayList<>(orders);
+		sorted.sort(Comparator.comparing(Order::getId));
+
+		// Zero padded, so that sorting file names sorts segments in the order they were written
+		String name = String.format("orders-%013d-%s", System.currentTimeMillis(), UUID.randomUUID());
+		Path temporary = directory.resolve(name + ".tmp"), file = directory.resolve(name + SEGMENT_SUFFIX);
+
+		OrderSegment.write(temporary, sorted);
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+
+		scan();
+		return segments.stream()
+					   .filter(segment -> segment.getFile().equals(file))
+					   .findFirst()
+					   .orElseThrow(() -> new NoSuchFileException(file.toString()));
+	}
+
+	/**
+	 * Looks up an order in the archive, among the segments its deletion from the database was committed for. If it is
+	 * not found, the directory is scanned again for segments written by other instances, if it has been modified since
+	 * it was last scanned, and the order looked up again. Commits not found yet are looked up every time an order is
+	 * found in their segment, so lookups of orders deleted after being written to a segment query the database.
+	 *
+	 * @param id          ID of the order to search for
+	 * @param isCommitted Determines, from the database, if the deletion of the orders of a logical shard written to a
+	 *                    segment was committed, given the name of the segment and the logical shard
+	 * @return Archived order, or null if the order has not been archived
+	 */
+	@Nullable
+	public Order findById(long id, BiPredicate<String, Integer> isCommitted) {
+		Order order = findInSegments(id, isCommitted);
+		if (order == null && scanIfModified())
+			order = findInSegments(id, isCommitted);
+		return order;
+	}
+
+	@Nullable
+	private Order findInSegments(long id, BiPredicate<String, Integer> isCommitted) {
+		List<OrderSegment> current = segments;
+		for (int i = current.size() - 1; i >= 0; i--) {
+			OrderSegment segment = current.get(i);
+			Order order = segment.findById(id);
+			if (order != null && isCommitted(segment, ShardedOrderIds.logicalShardOf(id), isCommitted))
+				return order;
+		}
+		return null;
+	}
+
+	private boolean isCommitted(OrderSegment segment, int logicalShard, BiPredicate<String, Integer> isCommitted) {
+		String commit = OrderArchiveCommit.idOf(segment.getName(), logicalShard);
+		if (commits.contains(commit))
+			return true;
+
+		if (!isCommitted.test(segment.getName(), logicalShard))
+			return false;
+		commits.add(commit);
+		return true;
+	}
+
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return Total size of all segment files, in bytes
+	 */
+	public long getSize() {
+		return segments.stream().mapToLong(OrderSegment::getSize).sum();
+	}
+
+	/**
+	 * @return Total number of orders in all segments
+	 */
+	public long getOrderCount() {
+		return segments.stream().mapToLong(OrderSegment::getOrderCount).sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("orders.archive.segments", this, OrderArchive::getSegmentCount)
+			 .description("Number of order archive segment files")
+			 .register(registry);
+		Gauge.builder("orders.archive.orders", this, OrderArchive::getOrderCount)
+			 .description("Number of orders moved to the archive")
+			 .register(registry);
+		Gauge.builder("orders.archive.size", this, OrderArchive::getSize)
+			 .description("Size of all order archive segment files")
+			 .baseUnit("bytes")
+			 .register(registry);
+	}
+}
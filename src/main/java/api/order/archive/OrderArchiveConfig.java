@@ -0,0 +1,29 @@
+package api.order.archive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.io.IOException;
+
+/**
+ * Sets up the order archive, if enabled through the 'orders.archive.enabled' property.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "orders.archive", name = "enabled")
+@EnableScheduling
+@EnableConfigurationProperties(OrderArchiveProperties.class)
+public class OrderArchiveConfig {
+
+	@Bean
+	public OrderArchive orderArchive(OrderArchiveProperties properties) throws IOException {
+		return new OrderArchive(properties);
+	}
+
+	@Bean
+	public OrderArchiver orderArchiver() {
+		return new OrderArchiver();
+	}
+}
@@ -0,0 +1,89 @@
+package api.order.archive;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Order archive settings, read from the 'orders.archive' properties. When archiving is enabled, orders older than the
+ * maximum age are periodically moved from the database to segment files in the archive directory.
+ */
+@ConfigurationProperties(prefix = "orders.archive")
+public class OrderArchiveProperties {
+	private boolean enabled = false;
+
+	/**
+	 * Directory segment files are stored in. It must be shared by all instances sharing a database, such as on a
+	 * network file system, and by no other instance.
+	 */
+	private String directory = "archive/orders";
+
+	/**
+	 * Orders created longer ago than this are archived.
+	 */
+	private Duration maxAge = Duration.ofDays(90);
+
+	/**
+	 * Time between two archival runs, in milliseconds.
+	 */
+	private long intervalMs = 3600000;
+
+	/**
+	 * Maximum number of orders moved to a single segment file.
+	 */
+	private int batchSize = 10000;
+
+	/**
+	 * Time the lease on archiving orders is held for after each batch, which must be longer than archiving a batch
+	 * takes. If the instance holding it stops, another instance takes it over once it has expired.
+	 */
+	private Duration leaseDuration = Duration.ofMinutes(10);
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	public Duration getMaxAge() {
+		return maxAge;
+	}
+
+	public void setMaxAge(Duration maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public long getIntervalMs() {
+		return intervalMs;
+	}
+
+	public void setIntervalMs(long intervalMs) {
+		this.intervalMs = intervalMs;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public Duration getLeaseDuration() {
+		return leaseDuration;
+	}
+
+	public void setLeaseDuration(Duration leaseDuration) {
+		this.leaseDuration = leaseDuration;
+	}
+}
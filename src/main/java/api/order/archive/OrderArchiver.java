@@ -0,0 +1,122 @@
+package api.order.archive;
+
+import api.order.archive.model.ArchiverLease;
+import api.order.dao.OrderDAO;
+import api.order.model.Order;
+import api.order.repository.ArchiverLeaseRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Periodically moves orders older than the maximum age from the database to the archive. Each batch is written to a
+ * segment before being deleted from the database, so an order is never lost if the archiver is interrupted. At worst,
+ * it is archived again by the next run, and lookups keep finding it in the database until then.
+ * <p>
+ * The orders of each logical shard of a batch are deleted in their own transaction, which also records the deletion,
+ * and only if all of them are still at the version they were read at. The archive only serves them once that
+ * transaction has committed. If any of them was modified or deleted while the batch was being archived, the
+ * transaction is rolled back: modified orders stay in the database, where lookups keep finding them up to date, and
+ * are archived again by the next run, to a newer segment, while deleted orders stay deleted.
+ * <p>
+ * Only one instance archives orders at a time, as the holder of a lease stored in the main database. Other instances
+ * skip their runs until the lease is released, or expires.
+ */
+public class OrderArchiver {
+	private static final Logger logger = LoggerFactory.getLogger(OrderArchiver.class);
+
+	private static final String LEASE_NAME = "orders";
+
+	/**
+	 * Identifies this instance as the holder of the lease.
+	 */
+	private final String leaseOwner = UUID.randomUUID().toString();
+
+	@Autowired
+	private OrderArchiveProperties properties;
+
+	@Autowired
+	private OrderArchive orderArchive;
+
+	@Autowired
+	private OrderDAO orderDAO;
+
+	@Autowired
+	private ArchiverLeaseRepository leaseRepository;
+
+	/**
+	 * Takes the lease on archiving orders, or renews it if already held by this instance.
+	 *
+	 * @return True if this instance holds the lease, false if another instance does
+	 */
+	private boolean acquireLease() {
+		Instant now = Instant.now(), expiresAt = now.plus(properties.getLeaseDuration());
+		if (leaseRepository.acquire(LEASE_NAME, leaseOwner, now, expiresAt) > 0)
+			return true;
+		if (leaseRepository.existsById(LEASE_NAME))
+			return false;
+
+		try {
+			leaseRepository.saveAndFlush(new ArchiverLease(LEASE_NAME, leaseOwner, expiresAt));
+			return true;
+		} catch (DataIntegrityViolationException e) {
+			return false; // Stored by another instance in the meantime
+		}
+	}
+
+	/**
+	 * Archives all orders created before the maximum age, one segment per batch, unless another instance is archiving
+	 * orders already. The lease is renewed before every batch, and the run stops if it has been lost.
+	 *
+	 * @return Number of orders archived and deleted from the database
+	 * @throws IOException If a segment cannot be written, in which case the orders of its batch stay in the database
+	 */
+	public int archiveOldOrders() throws IOException {
+		if (!acquireLease()) {
+			logger.info("Orders are being archived by another instance");
+			return 0;
+		}
+
+		try {
+			Instant cutoff = Instant.now().minus(properties.getMaxAge());
+			int archived = 0;
+			long afterID = -1;
+
+			do {
+				List<Order> batch = orderDAO.findCreatedBefore(cutoff, afterID, properties.getBatchSize());
+				if (batch.isEmpty())
+					break;
+
+				OrderSegment segment = orderArchive.append(batch);
+				int deleted = orderDAO.deleteArchived(segment.getName(), batch);
+				afterID = batch.get(batch.size() - 1).getId();
+
+				archived += deleted;
+				logger.info("Archived {} orders to {} ({} bytes), leaving {} orders of logical shards with modified " +
+							"orders for the next run",
+							deleted, segment.getFile(), segment.getSize(), batch.size() - deleted);
+			} while (acquireLease());
+
+			return archived;
+		} finally {
+			leaseRepository.release(LEASE_NAME, leaseOwner, Instant.now());
+		}
+	}
+
+	@Scheduled(initialDelayString = "${orders.archive.interval-ms:3600000}",
+			   fixedDelayString = "${orders.archive.interval-ms:3600000}")
+	public void scheduledArchive() {
+		try {
+			archiveOldOrders();
+		} catch (IOException e) {
+			logger.error("Could not archive orders", e);
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package api.order.archive;
+
+import api.order.model.Order;
+import jdk.internal.jline.internal.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Immutable file holding archived orders, sorted by ID. Orders are grouped in blocks, each compressed separately, so
+ * that looking up an order only inflates the block containing it. The file is laid out as follows:
+ * <pre>
+ * block*   Deflate compressed: order count (int), then each order: ID (long), creation time (long), version (long),
+ *          purchaser name, item IDs and item quantities
+ * index    For each block: ID of its first order (long), offset (long) and compressed length (int)
+ * footer   Block count (int), order count (int), minimum ID (long), maximum ID (long), MAGIC (int)
+ * </pre>
+ * Segments are memory-mapped when opened, so lookups read from the page cache without any system call.
+ */
+public class OrderSegment {
+	private static final int MAGIC = 0x4F524432; // "ORD2", since versions are stored
+
+	/**
+	 * Number of orders per block. Larger blocks compress better, but take longer to inflate on lookup.
+	 */
+	public static final int ORDERS_PER_BLOCK = 64;
+
+	private static final int INDEX_ENTRY_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+	private static final int FOOTER_SIZE = Integer.BYTES * 3 + Long.BYTES * 2;
+
+	private final Path file;
+
+	private final MappedByteBuffer buffer;
+
+	private final int blockCount, orderCount, indexOffset;
+
+	private final long minId, maxId;
+
+	private OrderSegment(Path file, MappedByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.buffer = buffer;
+
+		int footerOffset = buffer.capacity() - FOOTER_SIZE;
+		if (footerOffset < 0 || buffer.getInt(footerOffset + FOOTER_SIZE - Integer.BYTES) != MAGIC)
+			throw new IOException("Not an order segment: " + file);
+
+		this.blockCount = buffer.getInt(footerOffset);
+		this.orderCount = buffer.getInt(footerOffset + Integer.BYTES);
+		this.minId = buffer.getLong(footerOffset + Integer.BYTES * 2);
+		this.maxId = buffer.getLong(footerOffset + Integer.BYTES * 2 + Long.BYTES);
+		this.indexOffset = footerOffset - blockCount * INDEX_ENTRY_SIZE;
+	}
+
+	/**
+	 * Memory-maps an existing segment file.
+	 *
+	 * @param file Segment file to open
+	 * @return Segment backed by the given file
+	 * @throws IOException If the file cannot be read, or is not a segment file
+	 */
+	public static OrderSegment open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new OrderSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Writes orders to a new segment file, and forces it to disk before returning.
+	 *
+	 * @param file   File to write, which must not exist yet
+	 * @param orders Orders to write, sorted by ID, and each with a creation time
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(Path file, List<Order> orders) throws IOException {
+		int blockCount = (orders.size() + ORDERS_PER_BLOCK - 1) / ORDERS_PER_BLOCK;
+		long[] blockFirstIds = new long[blockCount], blockOffsets = new long[blockCount];
+		int[] blockLengths = new int[blockCount];
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			long offset = 0;
+			for (int block = 0; block < blockCount; block++) {
+				List<Order> blockOrders = orders.subList(
+						block * ORDERS_PER_BLOCK, Math.min(orders.size(), (block + 1) * ORDERS_PER_BLOCK)
+				);
+				byte[] compressed = compressBlock(blockOrders);
+
+				blockFirstIds[block] = blockOrders.get(0).getId();
+				blockOffsets[block] = offset;
+				blockLengths[block] = compressed.length;
+				offset += writeFully(channel, ByteBuffer.wrap(compressed));
+			}
+
+			ByteBuffer trailer = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE + FOOTER_SIZE);
+			for (int block = 0; block < blockCount; block++)
+				trailer.putLong(blockFirstIds[block]).putLong(blockOffsets[block]).putInt(blockLengths[block]);
+			trailer.putInt(blockCount).putInt(orders.size())
+				   .putLong(orders.isEmpty() ? 0 : orders.get(0).getId())
+				   .putLong(orders.isEmpty() ? 0 : orders.get(orders.size() - 1).getId())
+				   .putInt(MAGIC);
+			trailer.flip();
+			writeFully(channel, trailer);
+
+			channel.force(true);
+		}
+	}
+
+	private static long writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		long written = 0;
+		while (buffer.hasRemaining())
+			written += channel.write(buffer);
+		return written;
+	}
+
+	private static byte[] compressBlock(List<Order> orders) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(compressed, deflater))) {
+			out.writeInt(orders.size());
+			for (Order order : orders) {
+				out.writeLong(order.getId());
+				out.writeLong(order.getCreatedAt().toEpochMilli());
+				out.writeLong(order.getVersion());
+				writeString(out, order.getPurchaserName());
+				writeArray(out, order.getItemIDs());
+				writeArray(out, order.getItemQuantities());
+			}
+		} finally {
+			deflater.end();
+		}
+		return compressed.toByteArray();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeArray(DataOutputStream out, Long[] values) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(values.length);
+		for (Long value : values) {
+			out.writeBoolean(value != null);
+			if (value != null)
+				out.writeLong(value);
+		}
+	}
+
+	private static Long[] readArray(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+
+		Long[] values = new Long[length];
+		for (int i = 0; i < length; i++)
+			values[i] = in.readBoolean() ? in.readLong() : null;
+		return values;
+	}
+
+	/**
+	 * Finds the block that would contain an order, by binary searching the ID of the first order of each block.
+	 *
+	 * @param id ID of the order
+	 * @return Index of the block, or -1 if the ID is lower than that of any order in the segment
+	 */
+	private int findBlock(long id) {
+		int low = 0, high = blockCount - 1, found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (buffer.getLong(indexOffset + middle * INDEX_ENTRY_SIZE) <= id) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Looks up an order in the segment. Only the block that could contain the order is inflated.
+	 *
+	 * @param id ID of the order to search for
+	 * @return Archived order, or null if the segment does not contain it
+	 * @throws UncheckedIOException If the segment file is corrupt
+	 */
+	@Nullable
+	public Order findById(long id) {
+		if (id < minId || id > maxId)
+			return null;
+
+		int block = findBlock(id);
+		if (block < 0)
+			return null;
+
+		int entryOffset = indexOffset + block * INDEX_ENTRY_SIZE;
+		int blockOffset = (int) buffer.getLong(entryOffset + Long.BYTES);
+		byte[] compressed = new byte[buffer.getInt(entryOffset + Long.BYTES * 2)];
+
+		// The mapped buffer is shared between threads, so each lookup reads through its own view of it
+		ByteBuffer view = buffer.duplicate();
+		view.position(blockOffset);
+		view.get(compressed);
+
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+			for (int remaining = in.readInt(); remaining > 0; remaining--) {
+				long orderId = in.readLong();
+				Instant createdAt = Instant.ofEpochMilli(in.readLong());
+				long version = in.readLong();
+				String purchaserName = readString(in);
+				Long[] itemIDs = readArray(in), itemQuantities = readArray(in);
+
+				if (orderId == id)
+					return Order.archived(orderId, createdAt, version, purchaserName, itemIDs, itemQuantities);
+				else if (orderId > id)
+					return null;
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Corrupt order segment: " + file, e);
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return Name of the segment file, which identifies the segment among all instances sharing the archive
+	 */
+	public String getName() {
+		return file.getFileName().toString();
+	}
+
+	/**
+	 * @return Size of the segment file, in bytes
+	 */
+	public long getSize() {
+		return buffer.capacity();
+	}
+
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	public long getMinId() {
+		return minId;
+	}
+
+	public long getMaxId() {
+		return maxId;
+	}
+}
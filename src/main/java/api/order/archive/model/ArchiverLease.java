@@ -0,0 +1,51 @@
+package api.order.archive.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Version;
+import java.time.Instant;
+
+/**
+ * Lease on archiving orders, stored in the main database, so that only one of the instances sharing it archives orders
+ * at a time. The instance holding the lease renews it before every batch, and other instances may only take it over
+ * once it has expired.
+ */
+@Entity
+@Table(name = "OrderArchiverLease")
+public class ArchiverLease {
+	@Id
+	private String name;
+
+	private String owner;
+
+	private Instant expiresAt;
+
+	/*
+	 * Only null until the lease is first stored, so that storing a new lease always inserts it, and fails if another
+	 * instance stored it first, instead of overwriting it.
+	 */
+	@Version
+	private Long version;
+
+	public ArchiverLease() {
+	}
+
+	public ArchiverLease(String name, String owner, Instant expiresAt) {
+		this.name = name;
+		this.owner = owner;
+		this.expiresAt = expiresAt;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public Instant getExpiresAt() {
+		return expiresAt;
+	}
+}
@@ -0,0 +1,61 @@
+package api.order.changes;
+
+import api.order.model.Order;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Instant;
+
+/**
+ * Change made to an order, as published to the order change feed. Changes are immutable, and shared between all
+ * subscribers.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class OrderChange {
+	private final long sequence;
+
+	private final OrderChangeType type;
+
+	private final Long orderID;
+
+	/*
+	 * State of the order after the change, or null if it was deleted.
+	 */
+	private final Order order;
+
+	private final Instant timestamp;
+
+	/**
+	 * @param sequence Position of the change in the feed
+	 * @param type     Kind of change
+	 * @param orderID  ID of the changed order
+	 * @param order    State of the order after the change, which must not be modified afterwards, or null if it was
+	 *                 deleted
+	 */
+	OrderChange(long sequence, OrderChangeType type, Long orderID, Order order) {
+		this.sequence = sequence;
+		this.type = type;
+		this.orderID = orderID;
+		this.order = order;
+		this.timestamp = Instant.now();
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public OrderChangeType getType() {
+		return type;
+	}
+
+	public Long getOrderID() {
+		return orderID;
+	}
+
+	public Order getOrder() {
+		return order;
+	}
+
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+}
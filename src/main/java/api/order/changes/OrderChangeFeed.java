@@ -0,0 +1,385 @@
+package api.order.changes;
+
+import api.order.model.Order;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jdk.internal.jline.internal.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feed of order changes, streamed to subscribers as server-sent events. Changes are numbered by a sequence starting at
+ * 1, which is sent as the event ID, so that subscribers can resume from the last change they received through the
+ * 'Last-Event-ID' header when reconnecting. The sequence only lives as long as the feed, and every instance has its
+ * own, so event IDs are prefixed with an epoch chosen at random when the feed is created, as in 'epoch-sequence'. A
+ * subscriber reconnecting with the ID of an event from another epoch, because the instance restarted or because it
+ * reconnected to another instance, may have missed changes, and receives an 'overrun' event.
+ * <p>
+ * The most recent changes are kept in a fixed size ring buffer. Publishing a change only claims a sequence number and
+ * stores the change in its slot, so writers never wait for subscribers. Each subscriber reads the buffer from its own
+ * position, on a small pool of sender threads. A subscriber falling so far behind that the changes it has not received
+ * yet have been overwritten receives an 'overrun' event, and then continues from the oldest change still in the
+ * buffer. It should then fetch the orders it cares about again.
+ * <p>
+ * Sending an event blocks its sender thread until the client has read enough of the stream, so a subscriber whose
+ * client stops reading could hold a sender thread until the connection times out. Subscribers whose sends take longer
+ * than the send timeout are therefore dropped, and the sender thread stuck in the send is replaced until the send
+ * fails, so that stalled subscribers delay the others by at most the send timeout.
+ */
+@Component
+public class OrderChangeFeed implements MeterBinder, DisposableBean {
+	private static final int SENDER_THREADS = 4;
+
+	private final AtomicReferenceArray<OrderChange> ringBuffer;
+
+	/**
+	 * Prefix of the IDs of the events sent by this feed, which never contains '-'.
+	 */
+	private final String epoch = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+
+	/**
+	 * Sequence number of the last change published.
+	 */
+	private final AtomicLong lastSequence = new AtomicLong();
+
+	private final long subscriptionTimeoutMs, sendTimeoutNanos;
+
+	private final Set<Subscriber> subscribers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	/**
+	 * Runs SENDER_THREADS threads, plus one for every thread stuck in a send to a dropped subscriber. Since tasks are
+	 * queued without bound, the pool never grows beyond its core size on its own.
+	 */
+	private final ThreadPoolExecutor senders = new ThreadPoolExecutor(
+			SENDER_THREADS, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+		Thread thread = new Thread(runnable, "order-change-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "order-change-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final LongAdder overruns = new LongAdder(), dropped = new LongAdder();
+
+	/**
+	 * @param capacity              Number of changes kept in the ring buffer, which is how far behind a subscriber can
+	 *                              fall, or how long it can be disconnected, before missing changes
+	 * @param subscriptionTimeoutMs Time after which subscriptions are closed, in milliseconds. Clients reconnect with
+	 *                              the ID of the last event they received, so this only bounds how long connections of
+	 *                              clients that silently went away are kept open
+	 * @param sendTimeoutMs         Time after which a subscriber still waiting for an event to be sent is dropped, in
+	 *                              milliseconds
+	 */
+	@Autowired
+	public OrderChangeFeed(@Value("${orders.changes.capacity:4096}") int capacity,
+						   @Value("${orders.changes.subscription-timeout-ms:300000}") long subscriptionTimeoutMs,
+						   @Value("${orders.changes.send-timeout-ms:10000}") long sendTimeoutMs) {
+		this.ringBuffer = new AtomicReferenceArray<>(capacity);
+		this.subscriptionTimeoutMs = subscriptionTimeoutMs;
+		this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+
+		long checkIntervalMs = Math.max(1, sendTimeoutMs / 4);
+		watchdog.scheduleWithFixedDelay(this::dropStalledSubscribers, checkIntervalMs, checkIntervalMs,
+										TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Publishes a change to all subscribers, without waiting for any of them.
+	 *
+	 * @param type    Kind of change
+	 * @param orderID ID of the changed order
+	 * @param order   State of the order after the change, or null if it was deleted. The feed keeps its own copy
+	 * @return Published change
+	 */
+	public OrderChange publish(OrderChangeType type, Long orderID, @Nullable Order order) {
+		long sequence = lastSequence.incrementAndGet();
+		OrderChange change = new OrderChange(sequence, type, orderID, order == null ? null : new Order(order));
+		ringBuffer.set(slotOf(sequence), change);
+
+		for (Subscriber subscriber : subscribers)
+			subscriber.schedule();
+		return change;
+	}
+
+	/**
+	 * Subscribes to the feed.
+	 *
+	 * @param lastEventID ID of the last event the subscriber received, or null to only receive changes published from
+	 *                    now on
+	 * @return Emitter streaming changes to the subscriber
+	 */
+	public SseEmitter subscribe(@Nullable String lastEventID) {
+		SseEmitter emitter = new SseEmitter(subscriptionTimeoutMs);
+		long nextSequence = lastEventID == null ? lastSequence.get() + 1 : sequenceOf(lastEventID) + 1;
+
+		Subscriber subscriber = new Subscriber(emitter, nextSequence);
+
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		subscribers.add(subscriber);
+
+		// Sends any change published since the last one the subscriber received
+		subscriber.schedule();
+		return emitter;
+	}
+
+	/**
+	 * Drops the subscribers whose current send has taken longer than the send timeout, and replaces the sender threads
+	 * stuck in their sends. Their emitters are completed by their sender threads once the sends return, since
+	 * emitters cannot be completed while a send is in progress.
+	 */
+	private void dropStalledSubscribers() {
+		long now = System.nanoTime();
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.markStalled(now)) {
+				subscribers.remove(subscriber);
+				dropped.increment();
+				resizeSenders(1);
+			}
+		}
+	}
+
+	/**
+	 * @param delta Number of sender threads to add, or remove if negative
+	 */
+	private synchronized void resizeSenders(int delta) {
+		senders.setCorePoolSize(senders.getCorePoolSize() + delta);
+	}
+
+	/**
+	 * @param sequence Sequence number of a change
+	 * @return ID of the event of the change
+	 */
+	private String eventIDOf(long sequence) {
+		return epoch + "-" + sequence;
+	}
+
+	/**
+	 * Parses the ID of an event sent by this feed.
+	 *
+	 * @param eventID ID of an event
+	 * @return Sequence number of the change of the event, or -1 if the event was not sent by this feed, which makes
+	 * subscribers resuming from it receive an overrun
+	 */
+	private long sequenceOf(String eventID) {
+		int separator = eventID.lastIndexOf('-');
+		if (separator < 0 || !eventID.substring(0, separator).equals(epoch))
+			return -1;
+
+		try {
+			long sequence = Long.parseLong(eventID.substring(separator + 1));
+			return sequence <= lastSequence.get() ? sequence : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private int slotOf(long sequence) {
+		return (int) (sequence % ringBuffer.length());
+	}
+
+	/**
+	 * @return Sequence number of the oldest change still in the ring buffer
+	 */
+	private long oldestSequence() {
+		return Math.max(1, lastSequence.get() - ringBuffer.length() + 1);
+	}
+
+	/**
+	 * Looks up a change in the ring buffer.
+	 *
+	 * @param sequence Sequence number of the change
+	 * @return The change, or null if it has been overwritten, or its sequence number has been claimed but the change
+	 * not stored yet
+	 */
+	@Nullable
+	private OrderChange changeAt(long sequence) {
+		OrderChange change = ringBuffer.get(slotOf(sequence));
+		return change != null && change.getSequence() == sequence ? change : null;
+	}
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	public long getLastSequence() {
+		return lastSequence.get();
+	}
+
+	public String getEpoch() {
+		return epoch;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("orders.changes.subscribers", this, OrderChangeFeed::getSubscriberCount)
+			 .description("Number of clients subscribed to the order change feed")
+			 .register(registry);
+		FunctionCounter.builder("orders.changes.published", lastSequence, AtomicLong::get)
+					   .description("Number of order changes published")
+					   .register(registry);
+		FunctionCounter.builder("orders.changes.overruns", overruns, LongAdder::sum)
+					   .description("Number of times a subscriber fell too far behind and missed changes")
+					   .register(registry);
+		FunctionCounter.builder("orders.changes.dropped", dropped, LongAdder::sum)
+					   .description("Number of subscribers dropped because an event took too long to send")
+					   .register(registry);
+	}
+
+	@Override
+	public void destroy() {
+		watchdog.shutdownNow();
+		senders.shutdownNow();
+		subscribers.forEach(subscriber -> subscriber.emitter.complete());
+	}
+
+	/**
+	 * Position of a subscriber in the feed. At most one sender thread drains a subscriber at a time, so events are
+	 * always sent in order.
+	 */
+	private class Subscriber {
+		private static final int IDLE = 0, SENDING = 1, STALLED = 2;
+
+		private final SseEmitter emitter;
+
+		/**
+		 * Whether an event is being sent, or the subscriber was dropped because a send took too long, in which case it
+		 * stays STALLED.
+		 */
+		private final AtomicInteger sendState = new AtomicInteger(IDLE);
+
+		/**
+		 * Start of the current send, as returned by System.nanoTime().
+		 */
+		private volatile long sendStartedAt;
+
+		/**
+		 * Sequence number of the next change to send, only accessed by the thread draining the subscriber.
+		 */
+		private long nextSequence;
+
+		private final AtomicBoolean draining = new AtomicBoolean();
+
+		private final AtomicInteger pendingWakeups = new AtomicInteger();
+
+		Subscriber(SseEmitter emitter, long nextSequence) {
+			this.emitter = emitter;
+			this.nextSequence = nextSequence;
+		}
+
+		/**
+		 * Marks the subscriber as stalled, if its current send has taken longer than the send timeout.
+		 *
+		 * @param now Current time, as returned by System.nanoTime()
+		 * @return True if the subscriber was marked as stalled by this call
+		 */
+		boolean markStalled(long now) {
+			return sendState.get() == SENDING && now - sendStartedAt > sendTimeoutNanos &&
+				   sendState.compareAndSet(SENDING, STALLED);
+		}
+
+		/**
+		 * Sends an event, keeping track of how long the send takes.
+		 *
+		 * @param event Event to send
+		 * @throws IOException           If the client went away
+		 * @throws IllegalStateException If the subscriber was dropped
+		 */
+		private void send(SseEmitter.SseEventBuilder event) throws IOException {
+			sendStartedAt = System.nanoTime();
+			if (!sendState.compareAndSet(IDLE, SENDING))
+				throw new IllegalStateException("Subscriber was dropped, since an event took too long to send");
+
+			try {
+				emitter.send(event);
+			} finally {
+				// The sender thread was replaced while this send was stuck, so the pool shrinks back now that it is over
+				if (!sendState.compareAndSet(SENDING, IDLE))
+					resizeSenders(-1);
+			}
+
+			// Its client accepted the event in the end, but the subscriber is closed like any other dropped one
+			if (sendState.get() == STALLED)
+				throw new IllegalStateException("Subscriber was dropped, since an event took too long to send");
+		}
+
+		/**
+		 * Makes sure a sender thread will send the changes published so far, without waiting for it.
+		 */
+		void schedule() {
+			pendingWakeups.incrementAndGet();
+			if (draining.compareAndSet(false, true))
+				senders.execute(this::drain);
+		}
+
+		private void drain() {
+			try {
+				do {
+					pendingWakeups.set(0);
+					sendPublishedChanges();
+				} while (pendingWakeups.get() > 0);
+			} catch (IOException | IllegalStateException e) {
+				// The client went away, or the emitter has already completed
+				subscribers.remove(this);
+				emitter.completeWithError(e);
+			} finally {
+				draining.set(false);
+			}
+
+			// A change published after the last check, but before the flag was cleared, must not be left unsent
+			if (pendingWakeups.get() > 0 && subscribers.contains(this))
+				schedule();
+		}
+
+		private void sendPublishedChanges() throws IOException {
+			long oldestSequence = oldestSequence();
+			if (nextSequence < oldestSequence) {
+				overruns.increment();
+				// Identified as the change before the oldest one, so that reconnecting after it does not report it again
+				send(SseEmitter.event()
+								   .id(eventIDOf(oldestSequence - 1))
+								   .name("overrun")
+								   .data("{\"oldestSequence\":" + oldestSequence + "}", MediaType.APPLICATION_JSON));
+				nextSequence = oldestSequence;
+			}
+
+			for (long last = lastSequence.get(); nextSequence <= last; nextSequence++) {
+				OrderChange change = changeAt(nextSequence);
+				if (change == null) {
+					// Overwritten while sending, in which case the next pass reports the overrun
+					if (nextSequence < oldestSequence())
+						pendingWakeups.incrementAndGet();
+
+					// Otherwise, claimed but not stored yet, and its publisher will wake the subscriber up again
+					return;
+				}
+
+				send(SseEmitter.event()
+								   .id(eventIDOf(change.getSequence()))
+								   .name(change.getType().name().toLowerCase())
+								   .data(change, MediaType.APPLICATION_JSON));
+			}
+		}
+	}
+}
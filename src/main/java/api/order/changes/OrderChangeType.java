@@ -0,0 +1,8 @@
+package api.order.changes;
+
+/**
+ * Kinds of changes published to the order change feed.
+ */
+public enum OrderChangeType {
+	CREATED, UPDATED, DELETED
+}
@@ -1,43 +1,92 @@
 package api.order.controller;
 
 import api.JSONBuilder;
+import api.SparseFieldset;
+import api.admission.AdmissionControlled;
+import api.admission.AdmissionProperties;
+import api.admission.Priority;
+import api.order.changes.OrderChangeFeed;
 import api.catalog.dao.CatalogDAO;
 import api.order.dao.OrderDAO;
 import api.order.model.Order;
+import api.order.model.OrderSummary;
+import api.order.sharding.LogicalShardMovingException;
+import api.timing.RequestTimer;
 import jdk.internal.jline.internal.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static api.WireFormats.APPLICATION_CBOR_VALUE;
+import static api.WireFormats.APPLICATION_SMILE_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
 /**
  * Handles client-server interactions, and specifies what the client can request from the server. Also sanitizes input,
- * to avoid invalid orders.
+ * to avoid invalid orders. Orders can be sent and received as JSON, CBOR or Smile, as negotiated through the
+ * 'Content-Type' and 'Accept' headers. Error bodies are always JSON.
+ * <p>
+ * All order requests share the 'orders' admission limit. Writes have high priority, while reads may only use part of
+ * the limit, so that reads are shed first when the database slows down.
+ * <p>
+ * Order reads accept a 'fields' parameter selecting the fields to return, such as '?fields=id,purchaserName'. When
+ * only the ID and purchaser name are selected, the items of the orders are not even fetched from the database.
+ * <p>
+ * Each order is versioned, and its version is returned as the ETag of the order. Updates and deletions sent with an
+ * 'If-Match' header are only applied if the order is still at the version it names, with a single conditional
+ * statement, and are otherwise rejected with a 412 Precondition Failed response, so that concurrent writers never lose
+ * each other's changes, nor hold locks on the order while their requests are processed.
  */
 @RestController
-@RequestMapping("/api")
+@RequestMapping(value = "/api", produces = {APPLICATION_JSON_VALUE, APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
 public class OrderContoller {
+	private static final SparseFieldset<Order> ORDER_FIELDS = new SparseFieldset<Order>()
+			.field("id", Order::getId)
+			.field("purchaserName", Order::getPurchaserName)
+			.field("itemIDs", Order::getItemIDs)
+			.field("itemQuantities", Order::getItemQuantities);
+
+	/**
+	 * Fields held by order summaries, which can be served without fetching the items of orders.
+	 */
+	private static final SparseFieldset<OrderSummary> SUMMARY_FIELDS = new SparseFieldset<OrderSummary>()
+			.field("id", OrderSummary::getId)
+			.field("purchaserName", OrderSummary::getPurchaserName);
+
 	@Autowired
 	private OrderDAO orderDAO = new OrderDAO();
 
 	@Autowired
 	private CatalogDAO catalogDAO = new CatalogDAO();
 
+	@Autowired
+	private OrderChangeFeed orderChangeFeed;
+
+	@Autowired
+	private AdmissionProperties admissionProperties;
+
 	/**
-	 * Determines if an order contains items that are not listed in the catalog. If any invalid item is detected, the
-	 * method will immediately return false.
+	 * Determines if an order contains items that are not listed in the catalog. All items are checked with a single
+	 * query, regardless of how many items the order contains.
 	 *
 	 * @param order Order to verify
 	 * @return True is the order is valid, false if it contains at least one item not listed in the catalog
 	 */
 	private boolean areOrderItemsValid(Order order) {
-		for (Long l : order.getItemIDs())
-			if (catalogDAO.findById(l) == null)
-				return false;
-		return true;
+		return catalogDAO.existAllById(order.getItemIDs());
 	}
 
 	/**
@@ -53,17 +102,17 @@ public class OrderContoller {
 		final String errorPath = "/api/orders/";
 
 		if (order.getPurchaserName() == null || order.getItemIDs() == null || order.getItemQuantities() == null) {
-			return ResponseEntity.badRequest().body(
+			return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(
 					JSONBuilder.apiErrorBuilder(HttpStatus.BAD_REQUEST.value(), "Bad Request",
 												"Missing parameters in order", errorPath)
 			);
 		} else if (order.getItemIDs().length != order.getItemQuantities().length) {
-			return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(
+			return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).contentType(MediaType.APPLICATION_JSON).body(
 					JSONBuilder.apiErrorBuilder(HttpStatus.UNPROCESSABLE_ENTITY.value(), "Unprocessable Entity",
 												"Number of items and item quantities in order do not match", errorPath
 					));
 		} else if (!areOrderItemsValid(order)) {
-			return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(
+			return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).contentType(MediaType.APPLICATION_JSON).body(
 					JSONBuilder.apiErrorBuilder(HttpStatus.UNPROCESSABLE_ENTITY.value(), "Unprocessable Entity",
 												"Order contained an item that does not exist in the catalog", errorPath
 					));
@@ -72,6 +121,102 @@ public class OrderContoller {
 		return null;
 	}
 
+	/**
+	 * @return 409 Conflict response, issued when attempting to modify an order that has been archived
+	 */
+	private ResponseEntity<Object> archivedOrderConflict() {
+		return ResponseEntity.status(HttpStatus.CONFLICT).contentType(MediaType.APPLICATION_JSON).body(
+				JSONBuilder.apiErrorBuilder(HttpStatus.CONFLICT.value(), "Conflict",
+											"Order has been archived, and can no longer be modified", "/api/orders/")
+		);
+	}
+
+	/**
+	 * @return 412 Precondition Failed response, issued when an 'If-Match' header does not name the current version of
+	 * the order being modified
+	 */
+	private ResponseEntity<Object> preconditionFailed() {
+		return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).contentType(MediaType.APPLICATION_JSON).body(
+				JSONBuilder.apiErrorBuilder(HttpStatus.PRECONDITION_FAILED.value(), "Precondition Failed",
+											"Order has been modified since it was read", "/api/orders/")
+		);
+	}
+
+	/**
+	 * @param version Current version of an order, whole or summarized
+	 * @return Entity tag of the version of the order
+	 */
+	private static String eTagOf(long version) {
+		return "\"" + version + "\"";
+	}
+
+	/**
+	 * Parses the entity tags listed in an 'If-Match' header into the order versions they name. Weak entity tags, and
+	 * entity tags that were not issued by this controller, are ignored, since they can never match.
+	 *
+	 * @param ifMatch Value of the 'If-Match' header
+	 * @return Versions named by the header, or null if the header is '*', which matches any version of an order that
+	 * exists
+	 */
+	@Nullable
+	private static List<Long> versionsOf(String ifMatch) {
+		if (ifMatch.trim().equals("*"))
+			return null;
+
+		List<Long> versions = new ArrayList<>();
+		for (String eTag : ifMatch.split(",")) {
+			eTag = eTag.trim();
+			if (eTag.length() < 2 || !eTag.startsWith("\"") || !eTag.endsWith("\""))
+				continue;
+			try {
+				versions.add(Long.parseLong(eTag.substring(1, eTag.length() - 1)));
+			} catch (NumberFormatException e) {
+				// Not issued by this controller
+			}
+		}
+		return versions;
+	}
+
+	/**
+	 * Determines why a conditional modification of an order did not apply. Entity tags only match an order that
+	 * exists, so the precondition also fails if there is none.
+	 *
+	 * @param id ID of the order that was to be modified
+	 * @return 409 Conflict if the order has been archived, or 412 Precondition Failed if it is at another version, or
+	 * does not exist
+	 */
+	private ResponseEntity<Object> conditionalModificationFailure(Long id) {
+		OrderSummary summary = orderDAO.findSummaryById(id);
+
+		if (summary != null && summary.isArchived())
+			return archivedOrderConflict();
+		return preconditionFailed();
+	}
+
+	/**
+	 * @param e Exception thrown when writing to an order whose logical shard is being moved to another physical shard
+	 * @return 503 Service Unavailable response, asking the client to retry once the move has completed
+	 */
+	@ExceptionHandler(LogicalShardMovingException.class)
+	public ResponseEntity<Object> logicalShardMoving(LogicalShardMovingException e) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+							 .header(HttpHeaders.RETRY_AFTER, String.valueOf(admissionProperties.getRetryAfterSeconds()))
+							 .contentType(MediaType.APPLICATION_JSON)
+							 .body(JSONBuilder.apiErrorBuilder(HttpStatus.SERVICE_UNAVAILABLE.value(),
+															   "Service Unavailable", e.getMessage(), "/api/orders/"));
+	}
+
+	/**
+	 * @param e Exception thrown when parsing the 'fields' parameter
+	 * @return 400 Bad Request response, issued when the 'fields' parameter selects fields that do not exist
+	 */
+	private ResponseEntity<Object> invalidFields(IllegalArgumentException e) {
+		return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(
+				JSONBuilder.apiErrorBuilder(HttpStatus.BAD_REQUEST.value(), "Bad Request", e.getMessage(),
+											"/api/orders/")
+		);
+	}
+
 	/**
 	 * Stores an order in the database, if it is valid, as determined by isOrderValid(). If it is valid, it will return
 	 * the stored object in the body of the response, otherwise it will return a response with a relevant error code
@@ -81,9 +226,10 @@ public class OrderContoller {
 	 * @return 200 OK response with the stored order in the body, or a response with relevant error code and
 	 * information, contained in the body of the response
 	 */
-	@PostMapping("/orders")
+	@PostMapping(value = "/orders", consumes = {APPLICATION_JSON_VALUE, APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
+	@AdmissionControlled(value = "orders", priority = Priority.HIGH)
 	public ResponseEntity<Object> createOrder(@Valid @RequestBody Order order) {
-		ResponseEntity<Object> response = isOrderValid(order);
+		ResponseEntity<Object> response = RequestTimer.time("validate", () -> isOrderValid(order));
 		if (response != null)
 			return response;
 
@@ -95,15 +241,111 @@ public class OrderContoller {
 	 * with the requested order in the body of the response. Otherwise, a 404 Not Found response will be issued.
 	 *
 	 * @param id ID of order to retrieve from the databse
-	 * @return 200 OK response with order in the body if it exists, 404 Not Found response otherwise
+	 * @return 200 OK response with order in the body, and its version as ETag, if it exists, 404 Not Found response
+	 * otherwise
 	 */
 	@GetMapping("/orders/{id}")
+	@AdmissionControlled("orders")
 	public ResponseEntity<Order> getCatalogEntryById(@PathVariable(value = "id") Long id) {
 		Order order = orderDAO.findById(id);
 
 		if (order == null)
 			return ResponseEntity.notFound().build();
-		return ResponseEntity.ok().body(order);
+		return ResponseEntity.ok().eTag(eTagOf(order.getVersion())).body(order);
+	}
+
+	/**
+	 * Attempts to retrieve the selected fields of an order. Only the ID and purchaser name are fetched from the
+	 * database if nothing else is selected.
+	 *
+	 * @param id        ID of order to retrieve
+	 * @param fieldList Comma separated names of the fields to return
+	 * @return 200 OK response with the selected fields of the order in the body, and its version as ETag, if it exists,
+	 * 404 Not Found response otherwise, or 400 Bad Request if a selected field does not exist
+	 */
+	@GetMapping(value = "/orders/{id}", params = "fields")
+	@AdmissionControlled("orders")
+	public ResponseEntity<Object> getOrderFieldsById(@PathVariable(value = "id") Long id,
+													 @RequestParam(value = "fields") String fieldList) {
+		Set<String> fields;
+		try {
+			fields = ORDER_FIELDS.parse(fieldList);
+		} catch (IllegalArgumentException e) {
+			return invalidFields(e);
+		}
+
+		if (SUMMARY_FIELDS.getFields().containsAll(fields)) {
+			OrderSummary summary = orderDAO.findSummaryById(id);
+			if (summary == null)
+				return ResponseEntity.notFound().build();
+			return ResponseEntity.ok().eTag(eTagOf(summary.getVersion())).body(SUMMARY_FIELDS.select(summary, fields));
+		}
+
+		Order order = orderDAO.findById(id);
+		if (order == null)
+			return ResponseEntity.notFound().build();
+		return ResponseEntity.ok().eTag(eTagOf(order.getVersion())).body(ORDER_FIELDS.select(order, fields));
+	}
+
+	/**
+	 * Retrieves all orders placed by a purchaser. If orders are sharded, all shards are searched.
+	 *
+	 * @param purchaserName Name of the purchaser whose orders to retrieve
+	 * @return 200 OK response with the orders of the purchaser in the body, which will be empty if there are none
+	 */
+	@GetMapping(value = "/orders", params = "purchaserName")
+	@AdmissionControlled("orders")
+	public ResponseEntity<List<Order>> getOrdersByPurchaser(@RequestParam(value = "purchaserName") String
+																	purchaserName) {
+		return ResponseEntity.ok().body(orderDAO.findByPurchaserName(purchaserName));
+	}
+
+	/**
+	 * Retrieves the selected fields of all orders placed by a purchaser. Only the ID and purchaser name of the orders
+	 * are fetched from the database if nothing else is selected.
+	 *
+	 * @param purchaserName Name of the purchaser whose orders to retrieve
+	 * @param fieldList     Comma separated names of the fields to return
+	 * @return 200 OK response with the selected fields of each order of the purchaser in the body, which will be empty
+	 * if there are none, or 400 Bad Request if a selected field does not exist
+	 */
+	@GetMapping(value = "/orders", params = {"purchaserName", "fields"})
+	@AdmissionControlled("orders")
+	public ResponseEntity<Object> getOrderFieldsByPurchaser(@RequestParam(value = "purchaserName") String purchaserName,
+															@RequestParam(value = "fields") String fieldList) {
+		Set<String> fields;
+		try {
+			fields = ORDER_FIELDS.parse(fieldList);
+		} catch (IllegalArgumentException e) {
+			return invalidFields(e);
+		}
+
+		List<Map<String, Object>> body;
+		if (SUMMARY_FIELDS.getFields().containsAll(fields))
+			body = orderDAO.findSummariesByPurchaserName(purchaserName).stream()
+						   .map(summary -> SUMMARY_FIELDS.select(summary, fields))
+						   .collect(Collectors.toList());
+		else
+			body = orderDAO.findByPurchaserName(purchaserName).stream()
+						   .map(order -> ORDER_FIELDS.select(order, fields))
+						   .collect(Collectors.toList());
+		return ResponseEntity.ok().body(body);
+	}
+
+	/**
+	 * Streams order changes as server-sent events, so that clients can follow changes instead of polling orders. Each
+	 * event is named after the kind of change (created, updated or deleted), has the epoch of the feed and the sequence
+	 * number of the change as its ID, and the change as its JSON data. Clients reconnecting with a 'Last-Event-ID'
+	 * header receive the changes they missed, as long as these are still in the feed, or an 'overrun' event otherwise,
+	 * including when the ID is from another epoch, sent before the instance restarted or by another instance. The
+	 * stream is not subject to admission control, since it stays open for as long as the client follows changes.
+	 *
+	 * @param lastEventID ID of the last event received by the client, if it is reconnecting
+	 * @return Stream of order changes
+	 */
+	@GetMapping(value = "/orders/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamOrderChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventID) {
+		return orderChangeFeed.subscribe(lastEventID);
 	}
 
 	/**
@@ -112,21 +354,49 @@ public class OrderContoller {
 	 * a response with a relevant error code and information in the body will be issued. If the order exists, and the
 	 * new order is valid, the old order will be overwritten, and a 200 OK response will be issued with the updated
 	 * order in the body of the response.
+	 * <p>
+	 * If an 'If-Match' header is sent, the order is only overwritten if it is still at one of the versions it names,
+	 * with a single conditional UPDATE, and a 412 Precondition Failed response is issued otherwise. Without it, or
+	 * with 'If-Match: *', the order is read from the database, bypassing coalesced lookups that may have started
+	 * before its latest update, and then overwritten, and a 409 Conflict response is issued if another request
+	 * modified it in between. As an 'If-Match' header only matches an order that exists, it fails with 412
+	 * Precondition Failed rather than 404 Not Found if there is none.
 	 *
 	 * @param id       ID of order to replace
+	 * @param ifMatch  Entity tags of the versions of the order that may be replaced, if the update is conditional
 	 * @param newOrder New order, which will overwrite the one with the specified ID
-	 * @return 404 Not Found if order to be replaced does not exist, relevant error code and information in body if
-	 * isOrderValid() deems the new order invalid, or 200 OK with the updated order in the body if all is good
+	 * @return 404 Not Found if order to be replaced does not exist and no 'If-Match' header is sent, 409 Conflict if
+	 * it has been archived, or was modified by another request while being replaced, 412 Precondition Failed if it is
+	 * not at a version named by the 'If-Match' header, or does not exist and the header is sent, relevant error code
+	 * and information in body if isOrderValid() deems the new order invalid, or 200 OK with the updated order in the
+	 * body, and its new version as ETag, if all is good
 	 */
-	@PutMapping("/orders/{id}")
-	public ResponseEntity<Object> updateCatalogEntry(@PathVariable(value = "id") Long id, @Valid @RequestBody
-			Order newOrder) {
-		Order order = orderDAO.findById(id);
+	@PutMapping(value = "/orders/{id}", consumes = {APPLICATION_JSON_VALUE, APPLICATION_CBOR_VALUE,
+														   APPLICATION_SMILE_VALUE})
+	@AdmissionControlled(value = "orders", priority = Priority.HIGH)
+	public ResponseEntity<Object> updateCatalogEntry(@PathVariable(value = "id") Long id,
+													 @RequestHeader(value = "If-Match", required = false)
+															 String ifMatch, @Valid @RequestBody Order newOrder) {
+		List<Long> versions = ifMatch != null ? versionsOf(ifMatch) : null;
+		if (versions != null) {
+			ResponseEntity<Object> response = RequestTimer.time("validate", () -> isOrderValid(newOrder));
+			if (response != null)
+				return response;
+
+			Order updatedEntry = orderDAO.updateIfVersionMatches(id, versions, newOrder);
+			if (updatedEntry == null)
+				return conditionalModificationFailure(id);
+			return ResponseEntity.ok().eTag(eTagOf(updatedEntry.getVersion())).body(updatedEntry);
+		}
+
+		Order order = orderDAO.findLatestById(id);
 
 		if (order == null)
-			return ResponseEntity.notFound().build();
+			return ifMatch != null ? preconditionFailed() : ResponseEntity.notFound().build();
+		else if (order.isArchived())
+			return archivedOrderConflict();
 
-		ResponseEntity<Object> response = isOrderValid(newOrder);
+		ResponseEntity<Object> response = RequestTimer.time("validate", () -> isOrderValid(newOrder));
 		if (response != null)
 			return response;
 
@@ -134,25 +404,48 @@ public class OrderContoller {
 		order.setItemIDs(newOrder.getItemIDs());
 		order.setItemQuantities(newOrder.getItemQuantities());
 
-		Order updatedEntry = orderDAO.save(order);
-		return ResponseEntity.ok().body(updatedEntry);
+		Order updatedEntry;
+		try {
+			updatedEntry = orderDAO.save(order);
+		} catch (ObjectOptimisticLockingFailureException e) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).contentType(MediaType.APPLICATION_JSON).body(
+					JSONBuilder.apiErrorBuilder(HttpStatus.CONFLICT.value(), "Conflict",
+												"Order was modified by another request, and should be read again",
+												"/api/orders/")
+			);
+		}
+		return ResponseEntity.ok().eTag(eTagOf(updatedEntry.getVersion())).body(updatedEntry);
 	}
 
 	/**
 	 * Deletes an order with the specified ID from the database. If the order to be deleted does not exist, a 404 Not
-	 * Found response is issued. If the order exists and has been deleted, a 200 OK response is issued.
+	 * Found response is issued, and if it has been archived, a 409 Conflict response is issued. If the order exists and
+	 * has been deleted, a 200 OK response is issued. If an 'If-Match' header is sent, the order is only deleted if it
+	 * is still at one of the versions it names, and a 412 Precondition Failed response is issued otherwise, including
+	 * if the order does not exist. An 'If-Match: *' header matches any version of an order that exists.
 	 *
-	 * @param id ID of order to delete
-	 * @return 404 Not Found response if order to be deleted does not exist, 200 OK response otherwise
+	 * @param id      ID of order to delete
+	 * @param ifMatch Entity tags of the versions of the order that may be deleted, if the deletion is conditional
+	 * @return 404 Not Found response if order to be deleted does not exist and no 'If-Match' header is sent, 409
+	 * Conflict if it has been archived, 412 Precondition Failed if it is not at a version named by the 'If-Match'
+	 * header, or does not exist and the header is sent, 200 OK response otherwise
 	 */
 	@DeleteMapping("/orders/{id}")
-	public ResponseEntity<Order> deleteCatalogEntry(@PathVariable(value = "id") Long id) {
-		Order order = orderDAO.findById(id);
-
-		if (order == null)
-			return ResponseEntity.notFound().build();
+	@AdmissionControlled(value = "orders", priority = Priority.HIGH)
+	public ResponseEntity<Object> deleteCatalogEntry(@PathVariable(value = "id") Long id,
+													 @RequestHeader(value = "If-Match", required = false)
+															 String ifMatch) {
+		List<Long> versions = ifMatch != null ? versionsOf(ifMatch) : null;
+		if (versions != null) {
+			if (orderDAO.deleteIfVersionMatches(id, versions))
+				return ResponseEntity.ok().build();
+			return conditionalModificationFailure(id);
+		}
 
-		orderDAO.deleteById(id);
-		return ResponseEntity.ok().build();
+		if (orderDAO.deleteById(id))
+			return ResponseEntity.ok().build();
+		else if (orderDAO.isArchived(id))
+			return archivedOrderConflict();
+		return ifMatch != null ? preconditionFailed() : ResponseEntity.notFound().build();
 	}
 }
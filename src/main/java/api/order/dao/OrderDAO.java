@@ -1,19 +1,76 @@
 package api.order.dao;
 
+import api.SingleFlight;
+import api.order.archive.OrderArchive;
+import api.order.changes.OrderChangeFeed;
+import api.order.changes.OrderChangeType;
 import api.order.model.Order;
+import api.order.model.OrderArchiveCommit;
+import api.order.model.OrderSummary;
 import api.order.repository.OrderRepository;
+import api.order.sharding.LogicalShardMovingException;
+import api.order.sharding.OrderShards;
+import api.order.sharding.ShardedOrderIds;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import jdk.internal.jline.internal.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 
 /**
- * Constrains server side data access, to limit what the controller is able to do.
+ * Constrains server side data access, to limit what the controller is able to do. Concurrent lookups for the same
+ * order are coalesced into a single database query. If order sharding is enabled, all operations are delegated to the
+ * order shards instead of the main database. If the order archive is enabled, orders that are no longer in the database
+ * are looked up in the archive. Every order created, updated or deleted through the DAO is published to the order change
+ * feed, once the change has been committed.
  */
 @Service
-public class OrderDAO {
+public class OrderDAO implements MeterBinder {
 	@Autowired
 	private OrderRepository orderRepository;
 
+	/**
+	 * Only present if order sharding is enabled.
+	 */
+	@Autowired(required = false)
+	private OrderShards orderShards;
+
+	@Autowired
+	private OrderChangeFeed orderChangeFeed;
+
+	/**
+	 * Only present if the order archive is enabled.
+	 */
+	@Autowired(required = false)
+	private OrderArchive orderArchive;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * Orders can be modified by the caller after being looked up, so callers sharing a coalesced lookup each receive
+	 * their own copy of the order.
+	 */
+	private final SingleFlight<Long, Order> findByIdFlight = new SingleFlight<>(Order::new);
+
+	/**
+	 * Summaries are immutable, so callers sharing a coalesced lookup share the same summary.
+	 */
+	private final SingleFlight<Long, OrderSummary> findSummaryByIdFlight = new SingleFlight<>(UnaryOperator.identity());
+
 	/**
 	 * Saves an order to the database, and then returns the saved order.
 	 *
@@ -21,27 +78,256 @@ public class OrderDAO {
 	 * @return Order saved (which should be equivalent to the original order)
 	 */
 	public Order save(Order order) {
-		return orderRepository.save(order);
+		boolean created = order.getId() == null;
+		Order saved = orderShards != null ? orderShards.save(order) : orderRepository.save(order);
+
+		publishOnCommit(created ? OrderChangeType.CREATED : OrderChangeType.UPDATED, saved.getId(), saved);
+		return saved;
 	}
 
 	/**
-	 * Attempts to find an order with a given ID in the database. If the order is found, it will be returned.
-	 * Otherwise, null will be returned.
+	 * Publishes a change to the order change feed once it has been committed. Changes made within a transaction, such
+	 * as the orders written during warm-up, are only published if the transaction commits, and never if it is rolled
+	 * back. Changes made outside of one have already been committed by the repository, and are published right away.
+	 *
+	 * @param type    Kind of change
+	 * @param orderID ID of the order that changed
+	 * @param order   State of the order after the change, or null if it was deleted
+	 */
+	private void publishOnCommit(OrderChangeType type, Long orderID, @Nullable Order order) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			orderChangeFeed.publish(type, orderID, order);
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				orderChangeFeed.publish(type, orderID, order);
+			}
+		});
+	}
+
+	/**
+	 * Replaces the contents of an order with a single conditional UPDATE, only if the order is still at one of the
+	 * given versions, so that concurrent writers neither lose each other's updates nor hold locks between reading and
+	 * writing the order. The updated order is then reloaded from the database, bypassing coalesced lookups, which may
+	 * have started before the update.
+	 *
+	 * @param id       ID of the order to update
+	 * @param versions Versions the order must be at to be updated
+	 * @param newOrder New contents of the order
+	 * @return Updated order, or null if there is no order with the given ID at one of the given versions
+	 */
+	@Nullable
+	public Order updateIfVersionMatches(Long id, Collection<Long> versions, Order newOrder) {
+		if (versions.isEmpty())
+			return null;
+
+		boolean updated = orderShards != null
+				? orderShards.updateIfVersionMatches(id, versions, newOrder.getPurchaserName(), newOrder.getItemIDs(),
+													 newOrder.getItemQuantities())
+				: orderRepository.updateIfVersionMatches(id, versions, newOrder.getPurchaserName(),
+														 newOrder.getItemIDs(), newOrder.getItemQuantities()) > 0;
+		if (!updated)
+			return null;
+
+		Order order = findLatestById(id);
+		if (order != null)
+			publishOnCommit(OrderChangeType.UPDATED, id, order);
+		return order;
+	}
+
+	/**
+	 * Attempts to find an order with a given ID in the database, or in the archive if it is no longer in the database.
+	 * If the order is found, it will be returned. Otherwise, null will be returned. If a lookup for the same ID is
+	 * already in flight, its result is shared instead of querying the database again.
 	 *
 	 * @param id ID of order to search for
-	 * @return Requested order, if it exists, or null otherwise
+	 * @return Requested order, if it exists, or null otherwise. Orders found in the archive are marked as archived
 	 */
 	@Nullable
 	public Order findById(Long id) {
-		return orderRepository.findById(id).orElse(null);
+		return findByIdFlight.execute(id, () -> {
+			Order order = orderShards != null ? orderShards.findById(id) : orderRepository.findById(id).orElse(null);
+			if (order == null && orderArchive != null)
+				order = orderArchive.findById(id, this::isArchiveCommitted);
+			return order;
+		});
+	}
+
+	/**
+	 * Finds an order with a given ID in the database, or in the archive if it is no longer in the database, without
+	 * sharing the result of a lookup already in flight, which may have started before the latest update of the order.
+	 * Used to read an order that is about to be modified, or that has just been, so that its version is up to date.
+	 *
+	 * @param id ID of order to search for
+	 * @return Requested order, if it exists, or null otherwise. Orders found in the archive are marked as archived
+	 */
+	@Nullable
+	public Order findLatestById(Long id) {
+		Order order = orderShards != null ? orderShards.findById(id) : orderRepository.findById(id).orElse(null);
+		if (order == null && orderArchive != null)
+			order = orderArchive.findById(id, this::isArchiveCommitted);
+		return order;
+	}
+
+	/**
+	 * Attempts to find the summary of an order with a given ID, holding only its ID, purchaser name and version, so
+	 * that the items of the order are neither fetched from the database nor deserialized. Orders that are no longer in
+	 * the database are looked up in the archive, and summarized. Concurrent lookups for the same ID are coalesced, as
+	 * with findById().
+	 *
+	 * @param id ID of order to search for
+	 * @return Summary of the requested order, if it exists, or null otherwise. Summaries of orders found in the archive
+	 * are marked as archived
+	 */
+	@Nullable
+	public OrderSummary findSummaryById(Long id) {
+		return findSummaryByIdFlight.execute(id, () -> {
+			OrderSummary summary = orderShards != null ? orderShards.findSummaryById(id)
+													   : orderRepository.findSummaryById(id);
+			if (summary == null && orderArchive != null) {
+				Order order = orderArchive.findById(id, this::isArchiveCommitted);
+				if (order != null)
+					summary = OrderSummary.of(order);
+			}
+			return summary;
+		});
+	}
+
+	/**
+	 * Determines if an order has been moved to the archive, without querying the orders in the database.
+	 *
+	 * @param id ID of the order
+	 * @return True if the order is in the archive, false if it is not, or if the archive is disabled
+	 */
+	public boolean isArchived(Long id) {
+		return orderArchive != null && orderArchive.findById(id, this::isArchiveCommitted) != null;
+	}
+
+	/**
+	 * Determines if the deletion of the orders of a logical shard written to an archive segment was committed, in
+	 * which case the archive serves them.
+	 *
+	 * @param segment      Name of the segment file the orders were written to
+	 * @param logicalShard Logical shard of the orders
+	 * @return True if the orders were deleted from the database
+	 */
+	private boolean isArchiveCommitted(String segment, int logicalShard) {
+		if (orderShards != null)
+			return orderShards.isArchiveCommitted(segment, logicalShard);
+		return orderRepository.countArchiveCommits(OrderArchiveCommit.idOf(segment, logicalShard)) > 0;
 	}
 
 	/**
-	 * Deletes an order with the given ID from the database.
+	 * Finds the oldest orders created before the given time, which are the next ones to be archived.
+	 *
+	 * @param cutoff  Only orders created before this time are returned
+	 * @param afterID Only orders with an ID greater than this one are returned
+	 * @param limit   Maximum number of orders to return
+	 * @return Orders created before the cutoff, sorted by ID
+	 */
+	public List<Order> findCreatedBefore(Instant cutoff, long afterID, int limit) {
+		if (orderShards != null)
+			return orderShards.findCreatedBefore(cutoff, afterID, limit);
+		return orderRepository.findByCreatedAtBeforeAndIdGreaterThanOrderByIdAsc(cutoff, afterID,
+																				  PageRequest.of(0, limit));
+	}
+
+	/**
+	 * Finds all orders placed by a purchaser. If orders are sharded, all shards are queried in parallel.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @return Orders placed by the purchaser, which will be empty if there are none
+	 */
+	public List<Order> findByPurchaserName(String purchaserName) {
+		if (orderShards != null)
+			return orderShards.findByPurchaserName(purchaserName);
+		return orderRepository.findByPurchaserName(purchaserName);
+	}
+
+	/**
+	 * Finds the summaries of all orders placed by a purchaser, holding only their ID, purchaser name and version,
+	 * without fetching their items. If orders are sharded, all shards are queried in parallel.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @return Summaries of the orders placed by the purchaser, which will be empty if there are none
+	 */
+	public List<OrderSummary> findSummariesByPurchaserName(String purchaserName) {
+		if (orderShards != null)
+			return orderShards.findSummariesByPurchaserName(purchaserName);
+		return orderRepository.findSummariesByPurchaserName(purchaserName);
+	}
+
+	/**
+	 * Deletes an order with the given ID from the database, if it exists.
 	 *
 	 * @param id ID of the order to be deleted
+	 * @return True if the order existed and was deleted, false if there was no order with the given ID
 	 */
-	public void deleteById(Long id) {
-		orderRepository.deleteById(id);
+	public boolean deleteById(Long id) {
+		boolean deleted = orderShards != null ? orderShards.deleteById(id) : orderRepository.deleteOrderById(id) > 0;
+
+		if (deleted)
+			publishOnCommit(OrderChangeType.DELETED, id, null);
+		return deleted;
+	}
+
+	/**
+	 * Deletes an order with a single conditional DELETE, only if it is still at one of the given versions.
+	 *
+	 * @param id       ID of the order to be deleted
+	 * @param versions Versions the order must be at to be deleted
+	 * @return True if the order was at one of the given versions and was deleted, false otherwise
+	 */
+	public boolean deleteIfVersionMatches(Long id, Collection<Long> versions) {
+		if (versions.isEmpty())
+			return false;
+
+		boolean deleted = orderShards != null ? orderShards.deleteIfVersionMatches(id, versions)
+											  : orderRepository.deleteIfVersionMatches(id, versions) > 0;
+		if (deleted)
+			publishOnCommit(OrderChangeType.DELETED, id, null);
+		return deleted;
+	}
+
+	/**
+	 * Deletes orders written to an archive segment from the database, in one transaction per logical shard, which also
+	 * records the deletion, so that the archive serves the orders of a logical shard once the transaction has
+	 * committed. The orders of a logical shard are only deleted if all of them are still at the version they were read
+	 * at. Otherwise, none of them is, and they stay invisible in the segment. Since archived orders can still be read
+	 * afterwards, nothing is published to the order change feed.
+	 *
+	 * @param segment Name of the segment file the orders were written to
+	 * @param orders  Orders written to the segment, at the version they were read at
+	 * @return Number of orders deleted
+	 */
+	public int deleteArchived(String segment, Collection<Order> orders) {
+		Map<Integer, List<Order>> ordersByLogicalShard = orders.stream()
+				.collect(Collectors.groupingBy(order -> ShardedOrderIds.logicalShardOf(order.getId())));
+
+		int deleted = 0;
+		for (Map.Entry<Integer, List<Order>> entry : ordersByLogicalShard.entrySet()) {
+			try {
+				if (orderShards != null)
+					orderShards.deleteArchived(segment, entry.getKey(), entry.getValue());
+				else
+					new TransactionTemplate(transactionManager).execute(status -> {
+						orderRepository.deleteArchived(segment, entry.getKey(), entry.getValue());
+						return null;
+					});
+				deleted += entry.getValue().size();
+			} catch (OptimisticLockingFailureException | LogicalShardMovingException e) {
+				// Left in the database, and archived again by the next run
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		findByIdFlight.bindTo(registry, "order");
+		findSummaryByIdFlight.bindTo(registry, "orderSummary");
 	}
 }
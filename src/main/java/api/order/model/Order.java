@@ -1,10 +1,14 @@
 package api.order.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.annotations.GenericGenerator;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotBlank;
+import java.time.Instant;
 
 /**
  * Specifies all fields that an order must have, and houses getter and setter methods for those fields, so the
@@ -16,11 +20,14 @@ import javax.validation.constraints.NotBlank;
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class Order {
 	/*
-	 * Read only, useful when creating an order, so the user creating it is returned the ID of their order.
+	 * Read only, useful when creating an order, so the user creating it is returned the ID of their order. IDs sent by
+	 * clients are ignored, so that creating an order always inserts a new one instead of merging into an existing one.
 	 */
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
-	private Long id; // Starts at value 1
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	@GeneratedValue(generator = "order-id")
+	@GenericGenerator(name = "order-id", strategy = "api.order.sharding.ShardAwareIdGenerator")
+	private Long id; // Starts at value 1, unless orders are sharded, in which case the ID encodes the shard
 
 	@NotBlank
 	private String purchaserName;
@@ -28,6 +35,78 @@ public class Order {
 	@Lob
 	private Long[] itemIDs, itemQuantities;
 
+	/*
+	 * Set when the order is first stored, and used to decide when it can be archived. Orders stored before this field
+	 * existed have no creation time, and are never archived.
+	 */
+	@JsonIgnore
+	private Instant createdAt;
+
+	/*
+	 * Incremented by every update, and sent to clients as the ETag of the order, so that they can make their updates
+	 * conditional on the order not having changed since they read it. Orders stored before this field existed start
+	 * at version 0.
+	 */
+	@Version
+	@JsonIgnore
+	@Column(columnDefinition = "bigint default 0")
+	private long version;
+
+	/*
+	 * True if the order was read from the archive instead of the database, in which case it can no longer be modified.
+	 */
+	@Transient
+	@JsonIgnore
+	private boolean archived;
+
+	public Order() {
+	}
+
+	/**
+	 * Recreates an order that was moved from the database to the archive.
+	 *
+	 * @param id             ID of the archived order
+	 * @param createdAt      Time at which the order was first stored
+	 * @param version        Version of the order when it was archived
+	 * @param purchaserName  Name of the purchaser
+	 * @param itemIDs        IDs of the items in the order
+	 * @param itemQuantities Quantities of each item in the order
+	 * @return Archived order, which cannot be modified
+	 */
+	public static Order archived(Long id, Instant createdAt, long version, String purchaserName, Long[] itemIDs,
+								 Long[] itemQuantities) {
+		Order order = new Order();
+		order.id = id;
+		order.createdAt = createdAt;
+		order.version = version;
+		order.purchaserName = purchaserName;
+		order.itemIDs = itemIDs;
+		order.itemQuantities = itemQuantities;
+		order.archived = true;
+		return order;
+	}
+
+	/**
+	 * Creates a copy of an order, so that it can be modified without affecting the original.
+	 *
+	 * @param order Order to copy
+	 */
+	public Order(Order order) {
+		this.id = order.id;
+		this.purchaserName = order.purchaserName;
+		this.itemIDs = order.itemIDs == null ? null : order.itemIDs.clone();
+		this.itemQuantities = order.itemQuantities == null ? null : order.itemQuantities.clone();
+		this.createdAt = order.createdAt;
+		this.version = order.version;
+		this.archived = order.archived;
+	}
+
+	@PrePersist
+	private void onCreate() {
+		if (createdAt == null)
+			createdAt = Instant.now();
+	}
+
 	public Long getId() {
 		return id;
 	}
@@ -55,4 +134,30 @@ public class Order {
 	public void setItemQuantities(Long[] itemQuantities) {
 		this.itemQuantities = itemQuantities;
 	}
+
+	public Instant getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Instant createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the version of an order about to be inserted, when copying it to another data source. The versions of
+	 * stored orders are only ever advanced by the database.
+	 *
+	 * @param version Version of the order being copied
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public boolean isArchived() {
+		return archived;
+	}
 }
@@ -0,0 +1,50 @@
+package api.order.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Records that the orders of a logical shard written to an archive segment were deleted from the database. It is
+ * inserted in the same transaction as the deletion, and in the same database, so the archive only serves the orders of
+ * a segment once their deletion has been committed. Orders deleted by clients after being written to a segment, or
+ * modified since, therefore never come back from the archive: their deletion by the archiver is rolled back, and they
+ * stay invisible in that segment.
+ */
+@Entity
+@Table(name = "OrderArchiveCommit")
+public class OrderArchiveCommit {
+	/*
+	 * Segment name and logical shard, as returned by idOf(), so that the archive looks commits up by primary key.
+	 */
+	@Id
+	private String id;
+
+	private String segment;
+
+	private int logicalShard;
+
+	public OrderArchiveCommit() {
+	}
+
+	/**
+	 * @param segment      Name of the segment file the orders were written to
+	 * @param logicalShard Logical shard of the orders
+	 * @return ID of the commit of the orders of the logical shard written to the segment
+	 */
+	public static String idOf(String segment, int logicalShard) {
+		return segment + "/" + logicalShard;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getSegment() {
+		return segment;
+	}
+
+	public int getLogicalShard() {
+		return logicalShard;
+	}
+}
@@ -0,0 +1,61 @@
+package api.order.model;
+
+/**
+ * Summary of an order, as read by summary queries, which only select the ID, purchaser name and version of orders so
+ * that their items are neither fetched nor deserialized. Summaries are not entities, so they can never be saved, nor
+ * be mistaken for whole orders.
+ */
+public class OrderSummary {
+	private final Long id;
+
+	private final String purchaserName;
+
+	private final long version;
+
+	private final boolean archived;
+
+	/**
+	 * Creates the summary of an order in the database.
+	 *
+	 * @param id            ID of the order
+	 * @param purchaserName Name of the purchaser
+	 * @param version       Version of the order
+	 */
+	public OrderSummary(Long id, String purchaserName, long version) {
+		this(id, purchaserName, version, false);
+	}
+
+	private OrderSummary(Long id, String purchaserName, long version, boolean archived) {
+		this.id = id;
+		this.purchaserName = purchaserName;
+		this.version = version;
+		this.archived = archived;
+	}
+
+	/**
+	 * @param order Whole order, read from the database or the archive
+	 * @return Summary of the order
+	 */
+	public static OrderSummary of(Order order) {
+		return new OrderSummary(order.getId(), order.getPurchaserName(), order.getVersion(), order.isArchived());
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getPurchaserName() {
+		return purchaserName;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return True if the order was read from the archive, in which case it can no longer be modified
+	 */
+	public boolean isArchived() {
+		return archived;
+	}
+}
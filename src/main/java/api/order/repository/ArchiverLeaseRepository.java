@@ -0,0 +1,45 @@
+package api.order.repository;
+
+import api.order.archive.model.ArchiverLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+/**
+ * Handles database operations relating to the lease on archiving orders, and more specifically, the
+ * 'order_archiver_lease' table of the main database.
+ */
+public interface ArchiverLeaseRepository extends JpaRepository<ArchiverLease, String> {
+	/**
+	 * Takes or renews a lease with a single statement, only if it is already held by the given owner, or has expired.
+	 *
+	 * @param name      Name of the lease
+	 * @param owner     Instance taking or renewing the lease
+	 * @param now       Current time
+	 * @param expiresAt Time the lease expires at, unless renewed
+	 * @return Number of leases updated, which will be 0 if the lease does not exist, or is held by another instance
+	 */
+	@Modifying
+	@Transactional
+	@Query("update ArchiverLease l set l.owner = :owner, l.expiresAt = :expiresAt " +
+		   "where l.name = :name and (l.owner = :owner or l.expiresAt < :now)")
+	int acquire(@Param("name") String name, @Param("owner") String owner, @Param("now") Instant now,
+				@Param("expiresAt") Instant expiresAt);
+
+	/**
+	 * Releases a lease, only if it is held by the given owner, so that another instance can take it right away.
+	 *
+	 * @param name  Name of the lease
+	 * @param owner Instance releasing the lease
+	 * @param now   Current time, which the lease is made to expire at
+	 * @return Number of leases released, which will be 0 if the lease is held by another instance
+	 */
+	@Modifying
+	@Transactional
+	@Query("update ArchiverLease l set l.expiresAt = :now where l.name = :name and l.owner = :owner")
+	int release(@Param("name") String name, @Param("owner") String owner, @Param("now") Instant now);
+}
@@ -0,0 +1,42 @@
+package api.order.repository;
+
+import api.order.sharding.model.LogicalShardPlacement;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Handles database operations relating to the placement of logical order shards, and more specifically, the
+ * 'order_shard_placement' table of the main database.
+ */
+public interface LogicalShardPlacementRepository extends JpaRepository<LogicalShardPlacement, Integer> {
+	/**
+	 * Marks a logical shard as being moved, only if it is still placed on the given physical shard.
+	 *
+	 * @param logicalShard  Logical shard to be moved
+	 * @param physicalShard Physical shard the logical shard is placed on
+	 * @return Number of placements updated, which will be 0 if the logical shard is placed on another physical shard
+	 */
+	@Modifying
+	@Transactional
+	@Query("update LogicalShardPlacement p set p.moving = true " +
+		   "where p.logicalShard = :logicalShard and p.physicalShard = :physicalShard")
+	int markMoving(@Param("logicalShard") int logicalShard, @Param("physicalShard") int physicalShard);
+
+	/**
+	 * Places a logical shard being moved on its new physical shard, and marks the move as complete.
+	 *
+	 * @param logicalShard Logical shard being moved
+	 * @param source       Physical shard the logical shard is being moved from
+	 * @param target       Physical shard the logical shard was moved to
+	 * @return Number of placements updated, which will be 0 if the logical shard was not being moved from the source
+	 */
+	@Modifying
+	@Transactional
+	@Query("update LogicalShardPlacement p set p.physicalShard = :target, p.moving = false " +
+		   "where p.logicalShard = :logicalShard and p.physicalShard = :source and p.moving = true")
+	int completeMove(@Param("logicalShard") int logicalShard, @Param("source") int source,
+					 @Param("target") int target);
+}
@@ -1,10 +1,199 @@
 package api.order.repository;
 
 import api.order.model.Order;
+import api.order.model.OrderArchiveCommit;
+import api.order.model.OrderSummary;
+import api.order.sharding.ShardedOrderIds;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Handles database operations relating to Orders, and more specifically, the 'orders' table in the database.
  */
 public interface OrderRepository extends JpaRepository<Order, Long> {
+	/**
+	 * Deletes an order with a single statement, without loading it first.
+	 *
+	 * @param id ID of the order to delete
+	 * @return Number of orders deleted, which will be 0 if no order with the given ID exists
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Order o where o.id = :id")
+	int deleteOrderById(@Param("id") Long id);
+
+	/**
+	 * Replaces the contents of an order and increments its version with a single statement, only if the order is
+	 * still at one of the given versions, so that concurrent writers never hold a lock between reading and writing it.
+	 *
+	 * @param id             ID of the order to update
+	 * @param versions       Versions the order must be at to be updated
+	 * @param purchaserName  New name of the purchaser
+	 * @param itemIDs        New IDs of the items in the order
+	 * @param itemQuantities New quantities of each item in the order
+	 * @return Number of orders updated, which will be 0 if no order with the given ID is at one of the given versions
+	 */
+	@Modifying
+	@Transactional
+	@Query("update Order o set o.purchaserName = :purchaserName, o.itemIDs = :itemIDs, " +
+		   "o.itemQuantities = :itemQuantities, o.version = o.version + 1 where o.id = :id and o.version in :versions")
+	int updateIfVersionMatches(@Param("id") Long id, @Param("versions") Collection<Long> versions,
+							   @Param("purchaserName") String purchaserName, @Param("itemIDs") Long[] itemIDs,
+							   @Param("itemQuantities") Long[] itemQuantities);
+
+	/**
+	 * Deletes an order with a single statement, only if it is at one of the given versions.
+	 *
+	 * @param id       ID of the order to delete
+	 * @param versions Versions the order must be at to be deleted
+	 * @return Number of orders deleted, which will be 0 if no order with the given ID is at one of the given versions
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Order o where o.id = :id and o.version in :versions")
+	int deleteIfVersionMatches(@Param("id") Long id, @Param("versions") Collection<Long> versions);
+
+	/**
+	 * @param purchaserName Name of the purchaser
+	 * @return All orders placed by the given purchaser
+	 */
+	List<Order> findByPurchaserName(String purchaserName);
+
+	/**
+	 * Finds the summary of an order, without fetching its items.
+	 *
+	 * @param id ID of the order
+	 * @return Summary of the order, holding only its ID, purchaser name and version, or null if it does not exist
+	 */
+	@Query("select new api.order.model.OrderSummary(o.id, o.purchaserName, o.version) from Order o " +
+		   "where o.id = :id")
+	OrderSummary findSummaryById(@Param("id") Long id);
+
+	/**
+	 * Finds the summaries of all orders placed by a purchaser, without fetching their items.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @return Summaries of the orders placed by the given purchaser, holding only their ID, purchaser name and version
+	 */
+	@Query("select new api.order.model.OrderSummary(o.id, o.purchaserName, o.version) from Order o " +
+		   "where o.purchaserName = :purchaserName")
+	List<OrderSummary> findSummariesByPurchaserName(@Param("purchaserName") String purchaserName);
+
+	/**
+	 * Finds the orders of a logical shard, in ascending ID order, starting after the given ID. Used to page through
+	 * the orders of a logical shard when it is moved to another physical shard.
+	 *
+	 * @param logicalShard Logical shard whose orders to find
+	 * @param afterID      Only orders with an ID greater than this one are returned
+	 * @param pageable     Maximum number of orders to return
+	 * @return Orders of the given logical shard
+	 */
+	@Query("select o from Order o where mod(o.id, " + ShardedOrderIds.LOGICAL_SHARDS + ") = :logicalShard " +
+		   "and o.id > :afterID order by o.id")
+	List<Order> findByLogicalShard(@Param("logicalShard") int logicalShard, @Param("afterID") long afterID,
+								   Pageable pageable);
+
+	/**
+	 * Deletes all orders of a logical shard with a single statement.
+	 *
+	 * @param logicalShard Logical shard whose orders to delete
+	 * @return Number of orders deleted
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Order o where mod(o.id, " + ShardedOrderIds.LOGICAL_SHARDS + ") = :logicalShard")
+	int deleteByLogicalShard(@Param("logicalShard") int logicalShard);
+
+	/**
+	 * Finds the oldest orders created before the given time, in ascending ID order, starting after the given ID.
+	 *
+	 * @param cutoff   Only orders created before this time are returned
+	 * @param afterID  Only orders with an ID greater than this one are returned
+	 * @param pageable Maximum number of orders to return
+	 * @return Orders created before the cutoff
+	 */
+	List<Order> findByCreatedAtBeforeAndIdGreaterThanOrderByIdAsc(Instant cutoff, long afterID, Pageable pageable);
+
+	/**
+	 * Deletes several orders with a single statement.
+	 *
+	 * @param ids IDs of the orders to delete
+	 * @return Number of orders deleted
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Order o where o.id in :ids")
+	int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Deletes several orders with a single statement, only those still at the given version.
+	 *
+	 * @param ids     IDs of the orders to delete
+	 * @param version Version the orders must be at to be deleted
+	 * @return Number of orders deleted
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Order o where o.id in :ids and o.version = :version")
+	int deleteByIdInAndVersion(@Param("ids") Collection<Long> ids, @Param("version") long version);
+
+	/**
+	 * Records that the orders of a logical shard written to an archive segment were deleted, with a single statement.
+	 *
+	 * @param id           ID of the commit, as returned by OrderArchiveCommit.idOf()
+	 * @param segment      Name of the segment file the orders were written to
+	 * @param logicalShard Logical shard of the orders
+	 * @return Number of commits recorded
+	 */
+	@Modifying
+	@Transactional
+	@Query(value = "insert into order_archive_commit (id, segment, logical_shard) " +
+				   "values (:id, :segment, :logicalShard)", nativeQuery = true)
+	int insertArchiveCommit(@Param("id") String id, @Param("segment") String segment,
+							@Param("logicalShard") int logicalShard);
+
+	/**
+	 * @param id ID of the commit, as returned by OrderArchiveCommit.idOf()
+	 * @return 1 if the deletion of the orders of the commit was committed, 0 otherwise
+	 */
+	@Query("select count(c) from OrderArchiveCommit c where c.id = :id")
+	long countArchiveCommits(@Param("id") String id);
+
+	/**
+	 * Deletes the orders of a logical shard that were written to an archive segment, only if all of them are still at
+	 * the version they were read at, and records their deletion, so that the archive serves them from then on. Must
+	 * run in a transaction, which is rolled back if any of the orders was modified or deleted since it was read, so
+	 * that either all the orders move to the archive, or none of them do.
+	 *
+	 * @param segment      Name of the segment file the orders were written to
+	 * @param logicalShard Logical shard of all the orders
+	 * @param orders       Orders to delete, at the version they were read at
+	 * @throws OptimisticLockingFailureException If any of the orders was modified or deleted since it was read
+	 */
+	default void deleteArchived(String segment, int logicalShard, Collection<Order> orders) {
+		Map<Long, List<Long>> idsByVersion = orders.stream().collect(Collectors.groupingBy(
+				Order::getVersion, Collectors.mapping(Order::getId, Collectors.toList())
+		));
+		int deleted = 0;
+		for (Map.Entry<Long, List<Long>> entry : idsByVersion.entrySet())
+			deleted += deleteByIdInAndVersion(entry.getValue(), entry.getKey());
+		if (deleted < orders.size())
+			throw new OptimisticLockingFailureException(
+					(orders.size() - deleted) + " orders of logical shard " + logicalShard +
+					" were modified since they were written to " + segment
+			);
+
+		insertArchiveCommit(OrderArchiveCommit.idOf(segment, logicalShard), segment, logicalShard);
+	}
 }
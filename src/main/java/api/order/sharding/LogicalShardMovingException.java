@@ -0,0 +1,13 @@
+package api.order.sharding;
+
+/**
+ * Thrown when writing to an order whose logical shard is being moved to another physical shard. Writes are rejected
+ * until the move completes, so that no update made during the move is lost, and can be retried shortly after.
+ */
+public class LogicalShardMovingException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public LogicalShardMovingException(int logicalShard) {
+		super("Logical shard " + logicalShard + " is being moved to another physical shard");
+	}
+}
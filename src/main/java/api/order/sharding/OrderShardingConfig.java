@@ -0,0 +1,30 @@
+package api.order.sharding;
+
+import api.order.repository.LogicalShardPlacementRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Sets up order sharding, if enabled through the 'orders.sharding.enabled' property. The shard data sources and entity
+ * manager factories are deliberately not exposed as beans, so that the main data source, which keeps the catalog, is
+ * still auto-configured as usual.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "orders.sharding", name = "enabled")
+@EnableConfigurationProperties(OrderShardingProperties.class)
+public class OrderShardingConfig {
+
+	@Bean
+	public OrderShards orderShards(OrderShardingProperties properties, EntityManagerFactoryBuilder factoryBuilder,
+								   LogicalShardPlacementRepository placementRepository) {
+		return new OrderShards(properties, factoryBuilder, placementRepository);
+	}
+
+	@Bean
+	public OrderShardsEndpoint orderShardsEndpoint(OrderShards orderShards) {
+		return new OrderShardsEndpoint(orderShards);
+	}
+}
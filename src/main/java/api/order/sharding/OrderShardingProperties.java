@@ -0,0 +1,120 @@
+package api.order.sharding;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Order sharding settings, read from the 'orders.sharding' properties. When sharding is enabled, orders are spread
+ * over the configured data sources instead of being stored in the main data source, which keeps the catalog.
+ */
+@ConfigurationProperties(prefix = "orders.sharding")
+public class OrderShardingProperties {
+	private boolean enabled = false;
+
+	/**
+	 * ID of this instance, which must be unique among all instances writing orders.
+	 */
+	private int nodeId = 0;
+
+	/**
+	 * Schema management mode of the shard databases, as in 'spring.jpa.hibernate.ddl-auto'.
+	 */
+	private String ddlAuto = "update";
+
+	private List<Shard> shards = new ArrayList<>();
+
+	/**
+	 * Initial physical shard (index in the shard list) each logical shard is placed on. Logical shards without an
+	 * entry are placed on physical shard (logical shard % number of physical shards). Only used the first time orders
+	 * are sharded, after which the placement stored in the main data source prevails.
+	 */
+	private Map<Integer, Integer> placement = new HashMap<>();
+
+	/**
+	 * Interval at which the placement stored in the main data source is read again, in milliseconds.
+	 */
+	private long placementRefreshMs = 5000;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(int nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public String getDdlAuto() {
+		return ddlAuto;
+	}
+
+	public void setDdlAuto(String ddlAuto) {
+		this.ddlAuto = ddlAuto;
+	}
+
+	public List<Shard> getShards() {
+		return shards;
+	}
+
+	public void setShards(List<Shard> shards) {
+		this.shards = shards;
+	}
+
+	public Map<Integer, Integer> getPlacement() {
+		return placement;
+	}
+
+	public void setPlacement(Map<Integer, Integer> placement) {
+		this.placement = placement;
+	}
+
+	public long getPlacementRefreshMs() {
+		return placementRefreshMs;
+	}
+
+	public void setPlacementRefreshMs(long placementRefreshMs) {
+		this.placementRefreshMs = placementRefreshMs;
+	}
+
+	/**
+	 * Connection settings of a physical shard.
+	 */
+	public static class Shard {
+		private String url, username, password;
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public void setUsername(String username) {
+			this.username = username;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+	}
+}
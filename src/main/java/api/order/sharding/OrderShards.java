@@ -0,0 +1,716 @@
+package api.order.sharding;
+
+import api.order.model.Order;
+import api.order.model.OrderArchiveCommit;
+import api.order.model.OrderSummary;
+import api.order.repository.LogicalShardPlacementRepository;
+import api.order.repository.OrderRepository;
+import api.order.sharding.model.LogicalShardOwnership;
+import api.order.sharding.model.LogicalShardPlacement;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads orders over several physical shards (data sources). Orders are assigned to one of LOGICAL_SHARDS logical
+ * shards when they are created, which is encoded in their ID, and each logical shard is placed on a physical shard.
+ * Lookups, updates and deletes are therefore routed straight to the physical shard holding the order, while queries
+ * that cannot be routed by ID are sent to all physical shards in parallel, and their results merged.
+ * <p>
+ * The placement of logical shards is stored in the main data source, which all instances share, and each instance
+ * reads it again periodically. Each physical shard also records which logical shards it owns, and every write checks,
+ * in its own transaction, that the physical shard it was routed to still owns the logical shard of the order. An
+ * instance routing with an outdated placement therefore never writes to the wrong physical shard: its write is
+ * rejected, and rerouted once the placement has been read again.
+ * <p>
+ * Logical shards can be moved between physical shards with moveLogicalShard(), which allows orders to be rebalanced
+ * when physical shards are added, without changing any order ID.
+ */
+public class OrderShards implements DisposableBean {
+	private static final Logger logger = LoggerFactory.getLogger(OrderShards.class);
+
+	/**
+	 * Number of orders copied per batch when moving a logical shard.
+	 */
+	private static final int MOVE_BATCH_SIZE = 500;
+
+	/**
+	 * Number of times a write is rerouted after reading the placement again, when the physical shard it was routed to
+	 * does not own the logical shard of the order.
+	 */
+	private static final int MAX_REROUTES = 2;
+
+	private final List<Shard> shards = new ArrayList<>();
+
+	private final ShardedOrderIds ids;
+
+	private final LogicalShardPlacementRepository placementRepository;
+
+	private final long placementRefreshMs;
+
+	/**
+	 * Placement of all logical shards, as last read from the main data source. Replaced as a whole when read again, so
+	 * that readers always see a consistent placement.
+	 */
+	private volatile Placement placement;
+
+	private final AtomicInteger nextLogicalShard = new AtomicInteger();
+
+	private final ExecutorService scatterExecutor;
+
+	private final ScheduledExecutorService placementRefresher;
+
+	/**
+	 * Physical shard each logical shard is placed on, and whether it is being moved, indexed by logical shard.
+	 */
+	private static class Placement {
+		final int[] physicalShards = new int[ShardedOrderIds.LOGICAL_SHARDS];
+
+		final boolean[] moving = new boolean[ShardedOrderIds.LOGICAL_SHARDS];
+	}
+
+	/**
+	 * Thrown by a write routed to a physical shard that does not own the logical shard of the order.
+	 */
+	private static class NotOwnedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		NotOwnedException() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * @param properties          Sharding settings, including the data sources of the physical shards
+	 * @param factoryBuilder      Builder configured with the application JPA settings, used to create the entity
+	 *                            manager factory of each physical shard
+	 * @param placementRepository Repository of the placement of logical shards, in the main data source
+	 */
+	public OrderShards(OrderShardingProperties properties, EntityManagerFactoryBuilder factoryBuilder,
+					   LogicalShardPlacementRepository placementRepository) {
+		if (properties.getShards().isEmpty())
+			throw new IllegalStateException("Order sharding is enabled, but no shards are configured");
+
+		this.ids = new ShardedOrderIds(properties.getNodeId());
+		this.placementRepository = placementRepository;
+		this.placementRefreshMs = properties.getPlacementRefreshMs();
+
+		for (int i = 0; i < properties.getShards().size(); i++)
+			shards.add(new Shard(i, properties.getShards().get(i), properties.getDdlAuto(), factoryBuilder));
+
+		initializePlacement(properties.getPlacement());
+		for (Shard shard : shards)
+			shard.initializeOwnership(placement.physicalShards);
+
+		scatterExecutor = Executors.newFixedThreadPool(shards.size());
+		placementRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "order-shard-placement");
+			thread.setDaemon(true);
+			return thread;
+		});
+		placementRefresher.scheduleWithFixedDelay(() -> {
+			try {
+				refreshPlacement();
+			} catch (RuntimeException e) {
+				logger.warn("Could not read the placement of order shards", e);
+			}
+		}, placementRefreshMs, placementRefreshMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stores the configured placement of the logical shards that have none in the main data source yet, which only
+	 * happens the first time orders are sharded, and then reads the stored placement. If several instances start at
+	 * once, only the first one to store the placement succeeds, and the others read it.
+	 *
+	 * @param configured Physical shard each logical shard should be placed on, if not stored yet
+	 */
+	private void initializePlacement(Map<Integer, Integer> configured) {
+		Set<Integer> stored = placementRepository.findAll().stream()
+				.map(LogicalShardPlacement::getLogicalShard)
+				.collect(Collectors.toSet());
+
+		List<LogicalShardPlacement> missing = new ArrayList<>();
+		for (int logicalShard = 0; logicalShard < ShardedOrderIds.LOGICAL_SHARDS; logicalShard++) {
+			if (!stored.contains(logicalShard))
+				missing.add(new LogicalShardPlacement(
+						logicalShard, configured.getOrDefault(logicalShard, logicalShard % shards.size())
+				));
+		}
+
+		if (!missing.isEmpty()) {
+			try {
+				placementRepository.saveAll(missing);
+			} catch (DataIntegrityViolationException e) {
+				logger.info("Placement of order shards was stored by another instance");
+			}
+		}
+		refreshPlacement();
+	}
+
+	/**
+	 * Reads the placement of all logical shards from the main data source. This is done periodically, and whenever a
+	 * write is routed to a physical shard that does not own the logical shard of the order.
+	 *
+	 * @throws IllegalStateException If a logical shard has no placement, or is placed on a physical shard that does
+	 *                               not exist
+	 */
+	public void refreshPlacement() {
+		Placement refreshed = new Placement();
+		boolean[] placed = new boolean[ShardedOrderIds.LOGICAL_SHARDS];
+
+		for (LogicalShardPlacement stored : placementRepository.findAll()) {
+			int logicalShard = stored.getLogicalShard(), physicalShard = stored.getPhysicalShard();
+			if (logicalShard < 0 || logicalShard >= ShardedOrderIds.LOGICAL_SHARDS)
+				continue;
+			if (physicalShard < 0 || physicalShard >= shards.size())
+				throw new IllegalStateException("Logical shard " + logicalShard + " is placed on physical shard " +
+												physicalShard + ", which does not exist");
+
+			refreshed.physicalShards[logicalShard] = physicalShard;
+			refreshed.moving[logicalShard] = stored.isMoving();
+			placed[logicalShard] = true;
+		}
+
+		for (int logicalShard = 0; logicalShard < placed.length; logicalShard++)
+			if (!placed[logicalShard])
+				throw new IllegalStateException("Logical shard " + logicalShard + " has no placement");
+		placement = refreshed;
+	}
+
+	/**
+	 * Saves an order to the physical shard it belongs to. New orders are assigned a logical shard in round robin
+	 * fashion, and given an ID encoding it.
+	 *
+	 * @param order Order to be saved
+	 * @return Order saved
+	 */
+	public Order save(Order order) {
+		if (order.getId() != null)
+			return write(order.getId(), repository -> repository.save(order));
+
+		for (int attempt = 0; ; attempt++) {
+			int logicalShard = nextLogicalShardForNewOrder();
+			long id = ids.next(logicalShard);
+			try {
+				return shards.get(placement.physicalShards[logicalShard]).write(
+						logicalShard, repository -> ShardAwareIdGenerator.withAssignedID(id, () -> repository.save(order))
+				);
+			} catch (NotOwnedException e) {
+				if (attempt == MAX_REROUTES)
+					throw new LogicalShardMovingException(logicalShard);
+				refreshPlacement();
+			}
+		}
+	}
+
+	/**
+	 * @param id ID of order to search for
+	 * @return Requested order, if it exists, or null otherwise
+	 */
+	public Order findById(long id) {
+		return read(id, repository -> repository.findById(id).orElse(null));
+	}
+
+	/**
+	 * @param id ID of order to search for
+	 * @return Summary of the requested order, without its items, if it exists, or null otherwise
+	 */
+	public OrderSummary findSummaryById(long id) {
+		return read(id, repository -> repository.findSummaryById(id));
+	}
+
+	/**
+	 * @param id ID of the order to be deleted
+	 * @return True if the order existed and was deleted, false otherwise
+	 */
+	public boolean deleteById(long id) {
+		return write(id, repository -> repository.deleteOrderById(id) > 0);
+	}
+
+	/**
+	 * @param id             ID of the order to update
+	 * @param versions       Versions the order must be at to be updated
+	 * @param purchaserName  New name of the purchaser
+	 * @param itemIDs        New IDs of the items in the order
+	 * @param itemQuantities New quantities of each item in the order
+	 * @return True if the order was at one of the given versions, and was updated, false otherwise
+	 */
+	public boolean updateIfVersionMatches(long id, Collection<Long> versions, String purchaserName, Long[] itemIDs,
+										  Long[] itemQuantities) {
+		return write(id, repository -> repository.updateIfVersionMatches(
+				id, versions, purchaserName, itemIDs, itemQuantities
+		) > 0);
+	}
+
+	/**
+	 * @param id       ID of the order to be deleted
+	 * @param versions Versions the order must be at to be deleted
+	 * @return True if the order was at one of the given versions, and was deleted, false otherwise
+	 */
+	public boolean deleteIfVersionMatches(long id, Collection<Long> versions) {
+		return write(id, repository -> repository.deleteIfVersionMatches(id, versions) > 0);
+	}
+
+	/**
+	 * Finds all orders placed by a purchaser, by querying all physical shards in parallel.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @return Orders placed by the purchaser, sorted by ID
+	 */
+	public List<Order> findByPurchaserName(String purchaserName) {
+		return gatherOrders(repository -> repository.findByPurchaserName(purchaserName), Order::getId).stream()
+				.sorted(Comparator.comparing(Order::getId))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Finds the summaries of all orders placed by a purchaser, without their items, by querying all physical shards in
+	 * parallel.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @return Summaries of the orders placed by the purchaser, sorted by ID
+	 */
+	public List<OrderSummary> findSummariesByPurchaserName(String purchaserName) {
+		return gatherOrders(repository -> repository.findSummariesByPurchaserName(purchaserName), OrderSummary::getId)
+				.stream()
+				.sorted(Comparator.comparing(OrderSummary::getId))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Finds the oldest orders created before the given time, by querying all physical shards in parallel.
+	 *
+	 * @param cutoff  Only orders created before this time are returned
+	 * @param afterID Only orders with an ID greater than this one are returned
+	 * @param limit   Maximum number of orders to return
+	 * @return Orders created before the cutoff, sorted by ID
+	 */
+	public List<Order> findCreatedBefore(Instant cutoff, long afterID, int limit) {
+		return gatherOrders(repository -> repository.findByCreatedAtBeforeAndIdGreaterThanOrderByIdAsc(
+				cutoff, afterID, PageRequest.of(0, limit)
+		), Order::getId).stream()
+				.sorted(Comparator.comparing(Order::getId))
+				.limit(limit)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Deletes the orders of a logical shard that were written to an archive segment from the physical shard owning it,
+	 * only if all of them are still at the version they were read at, and records their deletion in the same
+	 * transaction, so that the archive serves them from then on.
+	 *
+	 * @param segment      Name of the segment file the orders were written to
+	 * @param logicalShard Logical shard of all the orders
+	 * @param orders       Orders to delete, at the version they were read at
+	 * @throws OptimisticLockingFailureException If any of the orders was modified or deleted since it was read, in
+	 *                                           which case none of them is deleted
+	 * @throws LogicalShardMovingException       If the logical shard is being moved
+	 */
+	public void deleteArchived(String segment, int logicalShard, Collection<Order> orders) {
+		write(orders.iterator().next().getId(), repository -> {
+			repository.deleteArchived(segment, logicalShard, orders);
+			return null;
+		});
+	}
+
+	/**
+	 * Determines if the deletion of the orders of a logical shard written to an archive segment was committed, by
+	 * querying all physical shards in parallel, since the logical shard may have been moved since.
+	 *
+	 * @param segment      Name of the segment file the orders were written to
+	 * @param logicalShard Logical shard of the orders
+	 * @return True if the orders were deleted, and are to be served by the archive
+	 */
+	public boolean isArchiveCommitted(String segment, int logicalShard) {
+		String id = OrderArchiveCommit.idOf(segment, logicalShard);
+		return scatterGather(repository -> repository.countArchiveCommits(id)).stream().anyMatch(count -> count > 0);
+	}
+
+	/**
+	 * Moves all orders of a logical shard to another physical shard, and places the logical shard there, without
+	 * changing any order ID. The move goes through the following steps, so that no order is lost, whichever instance
+	 * writes to it:
+	 * <ol>
+	 * <li>The logical shard is marked as moving in the main data source, after which instances stop assigning it to new
+	 * orders, and reject writes to its orders with a LogicalShardMovingException.</li>
+	 * <li>The source physical shard gives up ownership of the logical shard, which waits for the writes in flight to
+	 * complete, and fences off the writes of instances that have not read the placement again yet.</li>
+	 * <li>Orders are copied to the target physical shard in batches, and the target physical shard takes ownership.</li>
+	 * <li>The placement is switched in the main data source, and the copied orders are deleted from the source physical
+	 * shard once every instance has read the new placement.</li>
+	 * </ol>
+	 * Orders can be read at all times. If a move is interrupted, writes to the logical shard are rejected until it is
+	 * moved again, which resumes the move, or moved back to its source physical shard, which cancels it. Moves must
+	 * only be carried out from one instance at a time.
+	 *
+	 * @param logicalShard  Logical shard to move
+	 * @param physicalShard Physical shard to move the logical shard to
+	 * @return Number of orders moved
+	 * @throws InterruptedException If interrupted while waiting for instances to read the new placement, in which case
+	 *                              the move is complete, but the copied orders are left in the source physical shard
+	 */
+	public synchronized long moveLogicalShard(int logicalShard, int physicalShard) throws InterruptedException {
+		if (logicalShard < 0 || logicalShard >= ShardedOrderIds.LOGICAL_SHARDS)
+			throw new IllegalArgumentException("Logical shard " + logicalShard + " does not exist");
+		if (physicalShard < 0 || physicalShard >= shards.size())
+			throw new IllegalArgumentException("Physical shard " + physicalShard + " does not exist");
+
+		refreshPlacement();
+		int sourceShard = placement.physicalShards[logicalShard];
+		Shard source = shards.get(sourceShard), target = shards.get(physicalShard);
+		if (source == target) {
+			if (placement.moving[logicalShard]) { // Cancels an interrupted move
+				source.setOwned(logicalShard, true);
+				placementRepository.completeMove(logicalShard, sourceShard, sourceShard);
+				refreshPlacement();
+			}
+			return 0;
+		}
+
+		if (placementRepository.markMoving(logicalShard, sourceShard) == 0)
+			throw new IllegalStateException("Logical shard " + logicalShard + " was moved by another instance");
+		refreshPlacement();
+		source.setOwned(logicalShard, false);
+
+		// Orders left in the target physical shard by an interrupted move, which it does not own, are copied again
+		if (target.owns(logicalShard))
+			throw new IllegalStateException("Physical shard " + physicalShard + " already owns logical shard " +
+											logicalShard);
+		target.write(repository -> repository.deleteByLogicalShard(logicalShard));
+
+		List<List<Long>> copiedBatches = new ArrayList<>();
+		long moved = 0, afterID = -1;
+		List<Order> batch;
+		do {
+			final long lastID = afterID;
+			batch = source.read(repository -> repository.findByLogicalShard(
+					logicalShard, lastID, PageRequest.of(0, MOVE_BATCH_SIZE)
+			));
+
+			List<Long> copiedIDs = new ArrayList<>();
+			for (Order order : batch) {
+				Order copy = new Order();
+				copy.setPurchaserName(order.getPurchaserName());
+				copy.setItemIDs(order.getItemIDs());
+				copy.setItemQuantities(order.getItemQuantities());
+				copy.setCreatedAt(order.getCreatedAt());
+				copy.setVersion(order.getVersion()); // Keeps the ETags clients hold valid for conditional writes
+				target.write(repository -> ShardAwareIdGenerator.withAssignedID(
+						order.getId(), () -> repository.save(copy)
+				));
+				copiedIDs.add(order.getId());
+				afterID = order.getId();
+			}
+			copiedBatches.add(copiedIDs);
+			moved += batch.size();
+		} while (batch.size() == MOVE_BATCH_SIZE);
+
+		target.setOwned(logicalShard, true);
+		placementRepository.completeMove(logicalShard, sourceShard, physicalShard);
+		refreshPlacement();
+
+		// Instances still routing reads with the old placement keep finding the orders until they read it again
+		Thread.sleep(placementRefreshMs);
+		for (List<Long> copiedIDs : copiedBatches)
+			if (!copiedIDs.isEmpty())
+				source.write(repository -> repository.deleteByIdIn(copiedIDs));
+		return moved;
+	}
+
+	/**
+	 * @return Physical shard each logical shard is placed on, indexed by logical shard
+	 */
+	public int[] getPlacement() {
+		return placement.physicalShards.clone();
+	}
+
+	/**
+	 * @return Logical shards being moved
+	 */
+	public List<Integer> getMovingLogicalShards() {
+		Placement current = placement;
+		List<Integer> moving = new ArrayList<>();
+		for (int logicalShard = 0; logicalShard < current.moving.length; logicalShard++)
+			if (current.moving[logicalShard])
+				moving.add(logicalShard);
+		return moving;
+	}
+
+	/**
+	 * @return Number of physical shards
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * Runs a read on the physical shard the logical shard of an order is placed on. If nothing is found there, and that
+	 * physical shard does not own the logical shard, the logical shard may have been moved by another instance, so the
+	 * placement is read again, and the read rerouted if it has changed.
+	 *
+	 * @param id    ID of the order read
+	 * @param query Query to run on the physical shard
+	 * @return Result of the query, or null if nothing was found
+	 */
+	private <T> T read(long id, Function<OrderRepository, T> query) {
+		int logicalShard = ShardedOrderIds.logicalShardOf(id);
+		int physicalShard = placement.physicalShards[logicalShard];
+
+		T result = shards.get(physicalShard).read(query);
+		if (result == null && !shards.get(physicalShard).owns(logicalShard)) {
+			refreshPlacement();
+			if (placement.physicalShards[logicalShard] != physicalShard)
+				result = shards.get(placement.physicalShards[logicalShard]).read(query);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a write on the physical shard owning the logical shard of an order. If the physical shard the write is
+	 * routed to does not own the logical shard, the placement is read again, and the write rerouted.
+	 *
+	 * @param id        ID of the order written
+	 * @param operation Write to run on the physical shard
+	 * @return Result of the write
+	 * @throws LogicalShardMovingException If the logical shard is being moved
+	 */
+	private <T> T write(long id, Function<OrderRepository, T> operation) {
+		int logicalShard = ShardedOrderIds.logicalShardOf(id);
+		for (int attempt = 0; ; attempt++) {
+			Placement current = placement;
+			if (current.moving[logicalShard])
+				throw new LogicalShardMovingException(logicalShard);
+
+			try {
+				return shards.get(current.physicalShards[logicalShard]).write(logicalShard, operation);
+			} catch (NotOwnedException e) {
+				if (attempt == MAX_REROUTES)
+					throw new LogicalShardMovingException(logicalShard);
+				refreshPlacement();
+			}
+		}
+	}
+
+	/**
+	 * Runs a query on all physical shards in parallel, and only keeps the orders of the logical shards placed on the
+	 * physical shard that returned them, so that orders left in, or not yet deleted from, another physical shard by a
+	 * move are not returned twice.
+	 *
+	 * @param query Query to run on each physical shard
+	 * @param idOf  Reads the ID of an order returned by the query, whole or summarized
+	 * @return Orders returned by all physical shards, in no particular order
+	 */
+	private <T> List<T> gatherOrders(Function<OrderRepository, List<T>> query, Function<T, Long> idOf) {
+		List<List<T>> results = scatterGather(query);
+		Placement current = placement;
+
+		List<T> orders = new ArrayList<>();
+		for (int physicalShard = 0; physicalShard < results.size(); physicalShard++)
+			for (T order : results.get(physicalShard))
+				if (current.physicalShards[ShardedOrderIds.logicalShardOf(idOf.apply(order))] == physicalShard)
+					orders.add(order);
+		return orders;
+	}
+
+	/**
+	 * @return Next logical shard a new order should be assigned to, skipping logical shards being moved
+	 */
+	private int nextLogicalShardForNewOrder() {
+		Placement current = placement;
+		for (int attempts = 0; attempts < ShardedOrderIds.LOGICAL_SHARDS; attempts++) {
+			int logicalShard = Math.floorMod(nextLogicalShard.getAndIncrement(), ShardedOrderIds.LOGICAL_SHARDS);
+			if (!current.moving[logicalShard])
+				return logicalShard;
+		}
+		throw new IllegalStateException("All logical shards are being moved");
+	}
+
+	/**
+	 * Runs a query on all physical shards in parallel, and waits for all of them to complete.
+	 *
+	 * @param query Query to run on each physical shard
+	 * @return Results of each physical shard, in shard order
+	 */
+	private <T> List<T> scatterGather(Function<OrderRepository, T> query) {
+		List<CompletableFuture<T>> results = shards.stream()
+				.map(shard -> CompletableFuture.supplyAsync(() -> shard.read(query), scatterExecutor))
+				.collect(Collectors.toList());
+
+		try {
+			return results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		placementRefresher.shutdownNow();
+		scatterExecutor.shutdown();
+		shards.forEach(Shard::close);
+	}
+
+	/**
+	 * A physical shard, with its own data source, entity manager factory and transaction manager.
+	 */
+	private static class Shard {
+		private final int index;
+		private final HikariDataSource dataSource;
+		private final LocalContainerEntityManagerFactoryBean entityManagerFactory;
+		private final TransactionTemplate writeTransaction, readTransaction;
+		private final EntityManager entityManager;
+		private final OrderRepository repository;
+
+		Shard(int index, OrderShardingProperties.Shard properties, String ddlAuto,
+			  EntityManagerFactoryBuilder factoryBuilder) {
+			this.index = index;
+			dataSource = DataSourceBuilder.create()
+										  .type(HikariDataSource.class)
+										  .url(properties.getUrl())
+										  .username(properties.getUsername())
+										  .password(properties.getPassword())
+										  .build();
+			dataSource.setPoolName("orders-shard-" + index);
+
+			Map<String, Object> jpaProperties = new HashMap<>();
+			jpaProperties.put(AvailableSettings.HBM2DDL_AUTO, ddlAuto);
+			jpaProperties.put(AvailableSettings.PHYSICAL_NAMING_STRATEGY, SpringPhysicalNamingStrategy.class.getName());
+			jpaProperties.put(AvailableSettings.IMPLICIT_NAMING_STRATEGY, SpringImplicitNamingStrategy.class.getName());
+
+			entityManagerFactory = factoryBuilder.dataSource(dataSource)
+												 .packages(Order.class, LogicalShardOwnership.class)
+												 .persistenceUnit("orders-shard-" + index)
+												 .properties(jpaProperties)
+												 .build();
+			entityManagerFactory.afterPropertiesSet();
+
+			JpaTransactionManager transactionManager = new JpaTransactionManager(entityManagerFactory.getObject());
+			writeTransaction = new TransactionTemplate(transactionManager);
+			readTransaction = new TransactionTemplate(transactionManager);
+			readTransaction.setReadOnly(true);
+
+			entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory.getObject());
+			repository = new JpaRepositoryFactory(entityManager).getRepository(OrderRepository.class);
+		}
+
+		/**
+		 * Records which logical shards this physical shard owns, according to the given placement, unless already
+		 * recorded. Ownership is only recorded the first time orders are sharded, or when a physical shard is added.
+		 *
+		 * @param placement Physical shard each logical shard is placed on
+		 */
+		void initializeOwnership(int[] placement) {
+			try {
+				writeTransaction.execute(status -> {
+					Set<Integer> recorded = new HashSet<>(entityManager.createQuery(
+							"select o.logicalShard from LogicalShardOwnership o", Integer.class
+					).getResultList());
+
+					for (int logicalShard = 0; logicalShard < placement.length; logicalShard++)
+						if (!recorded.contains(logicalShard))
+							entityManager.persist(new LogicalShardOwnership(
+									logicalShard, placement[logicalShard] == index
+							));
+					return null;
+				});
+			} catch (DataIntegrityViolationException e) {
+				logger.info("Ownership of order shards was recorded by another instance");
+			}
+		}
+
+		/**
+		 * @param logicalShard Logical shard
+		 * @return True if this physical shard owns the logical shard
+		 */
+		boolean owns(int logicalShard) {
+			return readTransaction.execute(status -> {
+				LogicalShardOwnership ownership = entityManager.find(LogicalShardOwnership.class, logicalShard);
+				return ownership != null && ownership.isOwned();
+			});
+		}
+
+		/**
+		 * Gives or takes away the ownership of a logical shard. Taking it away waits for the writes in flight to the
+		 * logical shard to complete, since they hold a shared lock on its ownership.
+		 *
+		 * @param logicalShard Logical shard
+		 * @param owned        True if this physical shard should own the logical shard
+		 */
+		void setOwned(int logicalShard, boolean owned) {
+			writeTransaction.execute(status -> {
+				LogicalShardOwnership ownership = entityManager.find(
+						LogicalShardOwnership.class, logicalShard, LockModeType.PESSIMISTIC_WRITE
+				);
+				if (ownership == null)
+					entityManager.persist(new LogicalShardOwnership(logicalShard, owned));
+				else
+					ownership.setOwned(owned);
+				return null;
+			});
+		}
+
+		<T> T read(Function<OrderRepository, T> operation) {
+			return readTransaction.execute(status -> operation.apply(repository));
+		}
+
+		/**
+		 * Runs a write to the orders of a logical shard, in a transaction holding a shared lock on the ownership of
+		 * the logical shard, so that ownership cannot be taken away until the write completes.
+		 *
+		 * @param logicalShard Logical shard of the orders written
+		 * @param operation    Write to run
+		 * @return Result of the write
+		 * @throws NotOwnedException If this physical shard does not own the logical shard
+		 */
+		<T> T write(int logicalShard, Function<OrderRepository, T> operation) {
+			return writeTransaction.execute(status -> {
+				LogicalShardOwnership ownership = entityManager.find(
+						LogicalShardOwnership.class, logicalShard, LockModeType.PESSIMISTIC_READ
+				);
+				if (ownership == null || !ownership.isOwned())
+					throw new NotOwnedException();
+				return operation.apply(repository);
+			});
+		}
+
+		/**
+		 * Runs a write regardless of ownership, only used to move logical shards.
+		 *
+		 * @param operation Write to run
+		 * @return Result of the write
+		 */
+		<T> T write(Function<OrderRepository, T> operation) {
+			return writeTransaction.execute(status -> operation.apply(repository));
+		}
+
+		void close() {
+			entityManagerFactory.destroy();
+			dataSource.close();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package api.order.sharding;
+
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.jmx.annotation.JmxEndpoint;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resharding tool, exposed as the 'ordershards' actuator endpoint. Reading the endpoint returns the physical shard
+ * each logical shard is placed on, and the logical shards being moved, and writing to it moves a logical shard to
+ * another physical shard. Placement changes are stored in the main data source, and picked up by every instance.
+ * <p>
+ * The endpoint is only exposed over JMX, since it moves data around, and must never be reachable by web clients.
+ */
+@JmxEndpoint(id = "ordershards")
+public class OrderShardsEndpoint {
+	private final OrderShards orderShards;
+
+	public OrderShardsEndpoint(OrderShards orderShards) {
+		this.orderShards = orderShards;
+	}
+
+	@ReadOperation
+	public Map<String, Object> placement() {
+		Map<String, Object> result = new TreeMap<>();
+		result.put("physicalShards", orderShards.getShardCount());
+		result.put("placement", orderShards.getPlacement());
+		result.put("moving", orderShards.getMovingLogicalShards());
+		return result;
+	}
+
+	@WriteOperation
+	public Map<String, Object> move(int logicalShard, int physicalShard) throws InterruptedException {
+		Map<String, Object> result = new TreeMap<>();
+		result.put("logicalShard", logicalShard);
+		result.put("physicalShard", physicalShard);
+		result.put("ordersMoved", orderShards.moveLogicalShard(logicalShard, physicalShard));
+		return result;
+	}
+}
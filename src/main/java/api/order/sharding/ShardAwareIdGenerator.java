@@ -0,0 +1,37 @@
+package api.order.sharding;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentityGenerator;
+
+import java.io.Serializable;
+import java.util.function.Supplier;
+
+/**
+ * Order ID generator, which uses the ID assigned to the current thread through withAssignedID() when orders are sharded, and
+ * falls back to the database identity column otherwise.
+ */
+public class ShardAwareIdGenerator extends IdentityGenerator {
+	private static final ThreadLocal<Long> assignedID = new ThreadLocal<>();
+
+	/**
+	 * Runs an operation on the current thread, during which any order persisted will be given the specified ID.
+	 *
+	 * @param id        ID to give to the order persisted by the operation
+	 * @param operation Operation persisting the order
+	 * @return Result of the operation
+	 */
+	static <T> T withAssignedID(long id, Supplier<T> operation) {
+		assignedID.set(id);
+		try {
+			return operation.get();
+		} finally {
+			assignedID.remove();
+		}
+	}
+
+	@Override
+	public Serializable generate(SharedSessionContractImplementor session, Object entity) {
+		Long id = assignedID.get();
+		return id != null ? id : super.generate(session, entity);
+	}
+}
@@ -0,0 +1,84 @@
+package api.order.sharding;
+
+/**
+ * Generates order IDs that encode the logical shard the order is stored in, so that an order can be routed to its
+ * shard from its ID alone. IDs are laid out as follows, from the most to the least significant bit:
+ * <p>
+ * 1 unused sign bit | 41 bits of milliseconds since EPOCH_MILLIS | 6 bits of node ID | 8 bits of sequence number |
+ * 8 bits of logical shard
+ * <p>
+ * Each node can therefore generate 256 IDs per millisecond, and up to 64 nodes can generate IDs concurrently without
+ * clashing, as long as each is given a different node ID. Keeping the logical shard in the lowest bits allows the
+ * orders of a shard to be selected with a simple modulo in queries.
+ */
+public class ShardedOrderIds {
+	public static final int LOGICAL_SHARDS = 256;
+
+	/**
+	 * 2018-01-01T00:00:00Z, from which the timestamp part of IDs is counted.
+	 */
+	static final long EPOCH_MILLIS = 1514764800000L;
+
+	private static final int SHARD_BITS = 8, SEQUENCE_BITS = 8, NODE_BITS = 6;
+
+	private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+	public static final int MAX_NODES = 1 << NODE_BITS;
+
+	private final long nodeID;
+
+	private long lastMillis = -1;
+
+	private int sequence;
+
+	/**
+	 * @param nodeID ID of this node, from 0 to MAX_NODES - 1, which must be unique among all running instances
+	 */
+	public ShardedOrderIds(int nodeID) {
+		if (nodeID < 0 || nodeID >= MAX_NODES)
+			throw new IllegalArgumentException("Node ID must be between 0 and " + (MAX_NODES - 1));
+		this.nodeID = nodeID;
+	}
+
+	/**
+	 * Generates a new order ID for the given logical shard.
+	 *
+	 * @param logicalShard Logical shard the order will be stored in
+	 * @return Unique order ID, encoding the given logical shard
+	 */
+	public synchronized long next(int logicalShard) {
+		long millis = System.currentTimeMillis();
+
+		if (millis < lastMillis) { // Clock went backwards, keep counting from the last timestamp used
+			millis = lastMillis;
+		}
+
+		if (millis == lastMillis) {
+			if (sequence == MAX_SEQUENCE) { // Sequence exhausted for this millisecond, wait for the next one
+				while (millis <= lastMillis)
+					millis = System.currentTimeMillis();
+				sequence = 0;
+			} else {
+				sequence++;
+			}
+		} else {
+			sequence = 0;
+		}
+		lastMillis = millis;
+
+		return ((millis - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS + SHARD_BITS))
+			   | (nodeID << (SEQUENCE_BITS + SHARD_BITS))
+			   | ((long) sequence << SHARD_BITS)
+			   | logicalShard;
+	}
+
+	/**
+	 * Extracts the logical shard from an order ID.
+	 *
+	 * @param id Order ID
+	 * @return Logical shard the order with the given ID is stored in
+	 */
+	public static int logicalShardOf(long id) {
+		return (int) (id & (LOGICAL_SHARDS - 1));
+	}
+}
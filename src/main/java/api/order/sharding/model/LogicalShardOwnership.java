@@ -0,0 +1,40 @@
+package api.order.sharding.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Records, in each physical shard, whether the shard owns a logical shard. Every write to the orders of a logical
+ * shard first locks its ownership row in the same transaction, and is rejected if the physical shard does not own it,
+ * so that instances routing with an outdated placement can never write to a physical shard the logical shard has
+ * been moved away from, or is being moved away from.
+ */
+@Entity
+@Table(name = "OrderShardOwnership")
+public class LogicalShardOwnership {
+	@Id
+	private Integer logicalShard;
+
+	private boolean owned;
+
+	public LogicalShardOwnership() {
+	}
+
+	public LogicalShardOwnership(int logicalShard, boolean owned) {
+		this.logicalShard = logicalShard;
+		this.owned = owned;
+	}
+
+	public Integer getLogicalShard() {
+		return logicalShard;
+	}
+
+	public boolean isOwned() {
+		return owned;
+	}
+
+	public void setOwned(boolean owned) {
+		this.owned = owned;
+	}
+}
@@ -0,0 +1,44 @@
+package api.order.sharding.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Physical shard a logical shard is placed on, stored in the main data source, which all instances share, so that
+ * every instance routes orders the same way, and moves survive restarts.
+ */
+@Entity
+@Table(name = "OrderShardPlacement")
+public class LogicalShardPlacement {
+	@Id
+	private Integer logicalShard;
+
+	private int physicalShard;
+
+	/*
+	 * True while the orders of the logical shard are being copied to another physical shard. Writes to them are
+	 * rejected until the move completes, and no new orders are assigned to the logical shard.
+	 */
+	private boolean moving;
+
+	public LogicalShardPlacement() {
+	}
+
+	public LogicalShardPlacement(int logicalShard, int physicalShard) {
+		this.logicalShard = logicalShard;
+		this.physicalShard = physicalShard;
+	}
+
+	public Integer getLogicalShard() {
+		return logicalShard;
+	}
+
+	public int getPhysicalShard() {
+		return physicalShard;
+	}
+
+	public boolean isMoving() {
+		return moving;
+	}
+}
@@ -0,0 +1,100 @@
+package api.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Number of SQL statements issued by the current thread while the count was open. Counts are opened with
+ * StatementCounter.begin() and must be closed on the same thread, in reverse order of opening. Counts can be nested,
+ * in which case statements are added to every count that is open.
+ */
+public class StatementCount implements AutoCloseable {
+	private final StatementCount parent;
+
+	private int selects, inserts, updates, deletes, others;
+
+	private final List<String> statements = new ArrayList<>();
+
+	private boolean closed;
+
+	StatementCount(StatementCount parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Adds a statement to this count, and to all the counts it is nested in.
+	 *
+	 * @param sql Statement issued
+	 */
+	void record(String sql) {
+		String statement = sql.trim();
+		statements.add(statement);
+		String keyword = statement.length() < 6 ? statement : statement.substring(0, 6);
+
+		if (keyword.equalsIgnoreCase("select"))
+			selects++;
+		else if (keyword.equalsIgnoreCase("insert"))
+			inserts++;
+		else if (keyword.equalsIgnoreCase("update"))
+			updates++;
+		else if (keyword.equalsIgnoreCase("delete"))
+			deletes++;
+		else
+			others++;
+
+		if (parent != null)
+			parent.record(sql);
+	}
+
+	StatementCount getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return Total number of statements issued while the count was open
+	 */
+	public int getTotal() {
+		return selects + inserts + updates + deletes + others;
+	}
+
+	public int getSelects() {
+		return selects;
+	}
+
+	public int getInserts() {
+		return inserts;
+	}
+
+	public int getUpdates() {
+		return updates;
+	}
+
+	public int getDeletes() {
+		return deletes;
+	}
+
+	/**
+	 * @return Statements issued while the count was open, in the order they were issued
+	 */
+	public List<String> getStatements() {
+		return Collections.unmodifiableList(statements);
+	}
+
+	/**
+	 * Stops counting statements. Closing a count more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			StatementCounter.end(this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getTotal() + " statements (" + selects + " select, " + inserts + " insert, " + updates + " update, " +
+			   deletes + " delete, " + others + " other)";
+	}
+}
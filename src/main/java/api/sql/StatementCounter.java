@@ -0,0 +1,56 @@
+package api.sql;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate issues on each thread. Registered with Hibernate through the
+ * 'hibernate.session_factory.statement_inspector' property, so that every statement prepared by Hibernate is seen
+ * before it is sent to the database. Statements are only counted while a StatementCount is open on the issuing thread.
+ */
+public class StatementCounter implements StatementInspector {
+	private static final long serialVersionUID = 1L;
+
+	private static final ThreadLocal<StatementCount> currentCount = new ThreadLocal<>();
+
+	/**
+	 * Starts counting the statements issued by the current thread. If a count is already open on this thread, the new
+	 * count is nested in it, and statements are added to both.
+	 *
+	 * @return Open count, which must be closed once counting should stop
+	 */
+	public static StatementCount begin() {
+		StatementCount count = new StatementCount(currentCount.get());
+		currentCount.set(count);
+		return count;
+	}
+
+	/**
+	 * @return Innermost count open on the current thread, or null if no count is open
+	 */
+	public static StatementCount current() {
+		return currentCount.get();
+	}
+
+	/**
+	 * Stops the given count, making the count it was nested in (if any) the current one again.
+	 *
+	 * @param count Count to stop, which must be the innermost open count of the current thread
+	 */
+	static void end(StatementCount count) {
+		if (currentCount.get() != count)
+			throw new IllegalStateException("Statement counts must be closed in reverse order of opening");
+
+		if (count.getParent() == null)
+			currentCount.remove();
+		else
+			currentCount.set(count.getParent());
+	}
+
+	@Override
+	public String inspect(String sql) {
+		StatementCount count = currentCount.get();
+		if (count != null)
+			count.record(sql);
+		return sql;
+	}
+}
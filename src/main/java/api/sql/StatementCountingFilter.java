@@ -0,0 +1,46 @@
+package api.sql;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Counts the SQL statements issued while serving each request. The count is made available to the rest of the
+ * request pipeline as the REQUEST_ATTRIBUTE request attribute, and recorded in the 'sql.statements.per.request'
+ * metric once the request completes.
+ */
+@Component
+public class StatementCountingFilter extends OncePerRequestFilter {
+	public static final String REQUEST_ATTRIBUTE = StatementCountingFilter.class.getName() + ".count";
+
+	private DistributionSummary statementsPerRequest;
+
+	@Autowired
+	public void setMeterRegistry(MeterRegistry registry) {
+		statementsPerRequest = DistributionSummary.builder("sql.statements.per.request")
+												  .description("SQL statements issued while serving a request")
+												  .register(registry);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		StatementCount count = StatementCounter.begin();
+		request.setAttribute(REQUEST_ATTRIBUTE, count);
+
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			count.close();
+			statementsPerRequest.record(count.getTotal());
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package api.timing;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every call to a DAO as the 'dao' phase of the request being served, which covers database queries, lookups
+ * in the archive and shard routing.
+ */
+@Aspect
+@Component
+public class DaoTimingAspect {
+	static final String DAO_PHASE = "dao";
+
+	@Around("execution(public * api..dao.*DAO.*(..))")
+	public Object timeDaoCall(ProceedingJoinPoint call) throws Throwable {
+		return RequestTimer.time(DAO_PHASE, call::proceed);
+	}
+}
@@ -0,0 +1,47 @@
+package api.timing;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.lang.reflect.Type;
+
+/**
+ * Times the parsing of request bodies, as the 'parse' phase.
+ */
+@ControllerAdvice
+public class RequestBodyTimingAdvice extends RequestBodyAdviceAdapter {
+	static final String PARSE_PHASE = "parse";
+
+	@Override
+	public boolean supports(MethodParameter methodParameter, Type targetType,
+							Class<? extends HttpMessageConverter<?>> converterType) {
+		return true;
+	}
+
+	@Override
+	public HttpInputMessage beforeBodyRead(HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+										   Class<? extends HttpMessageConverter<?>> converterType) {
+		RequestTiming timing = RequestTimer.current();
+		if (timing != null)
+			timing.start(PARSE_PHASE);
+		return inputMessage;
+	}
+
+	@Override
+	public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter,
+								Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+		RequestTiming timing = RequestTimer.current();
+		if (timing != null)
+			timing.stop(PARSE_PHASE);
+		return body;
+	}
+
+	@Override
+	public Object handleEmptyBody(Object body, HttpInputMessage inputMessage, MethodParameter parameter,
+								  Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return afterBodyRead(body, inputMessage, parameter, targetType, converterType);
+	}
+}
@@ -0,0 +1,65 @@
+package api.timing;
+
+/**
+ * Keeps track of the timing of the request served by each thread. Timings are started by RequestTimingFilter, and
+ * phases can then be timed from anywhere in the request pipeline. Timing a phase while no request is being timed (for
+ * example, from a scheduled job) costs a single thread local lookup, and does nothing.
+ */
+public class RequestTimer {
+	private static final ThreadLocal<RequestTiming> currentTiming = new ThreadLocal<>();
+
+	/**
+	 * Code timed as a phase, which may throw exceptions of type E.
+	 */
+	@FunctionalInterface
+	public interface Timed<T, E extends Throwable> {
+		T run() throws E;
+	}
+
+	/**
+	 * Starts timing the request served by the current thread.
+	 *
+	 * @return Timing of the request, which must be ended with end() once the request has been served
+	 */
+	static RequestTiming begin() {
+		RequestTiming timing = new RequestTiming();
+		currentTiming.set(timing);
+		return timing;
+	}
+
+	/**
+	 * Stops timing the request served by the current thread.
+	 */
+	static void end() {
+		currentTiming.remove();
+	}
+
+	/**
+	 * @return Timing of the request served by the current thread, or null if it is not being timed
+	 */
+	public static RequestTiming current() {
+		return currentTiming.get();
+	}
+
+	/**
+	 * Runs code as a phase of the request served by the current thread, which stops being timed once the code returns
+	 * or throws.
+	 *
+	 * @param name  Name of the phase
+	 * @param timed Code to run
+	 * @return Result of the code
+	 * @throws E If the code throws
+	 */
+	public static <T, E extends Throwable> T time(String name, Timed<T, E> timed) throws E {
+		RequestTiming timing = currentTiming.get();
+		if (timing == null)
+			return timed.run();
+
+		timing.start(name);
+		try {
+			return timed.run();
+		} finally {
+			timing.stop(name);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package api.timing;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of serving a request, such as parsing the request body, querying the database, or
+ * serializing the response. A phase can be entered several times, in which case its durations are added up. Entering a
+ * phase that is already open (for example, a DAO method calling another) is only timed once, by the outermost entry.
+ * <p>
+ * Timings are only accessed by the thread serving the request, and are not thread safe.
+ */
+public class RequestTiming {
+	private final long startNanos = System.nanoTime();
+
+	private final Map<String, PhaseTotal> phases = new LinkedHashMap<>();
+
+	private static class PhaseTotal {
+		long nanos, openedAtNanos;
+
+		int count, depth;
+	}
+
+	/**
+	 * Enters a phase. Every call must be matched by a call to stop() for the same phase.
+	 *
+	 * @param phase Name of the phase
+	 */
+	public void start(String phase) {
+		PhaseTotal total = phases.computeIfAbsent(phase, name -> new PhaseTotal());
+		if (total.depth++ == 0) {
+			total.openedAtNanos = System.nanoTime();
+			total.count++;
+		}
+	}
+
+	/**
+	 * Leaves a phase, adding the time spent in it to its total once its outermost entry is left.
+	 *
+	 * @param phase Name of the phase
+	 */
+	public void stop(String phase) {
+		PhaseTotal total = phases.get(phase);
+		if (total != null && total.depth > 0 && --total.depth == 0)
+			total.nanos += System.nanoTime() - total.openedAtNanos;
+	}
+
+	/**
+	 * Leaves a phase if it is open, otherwise does nothing.
+	 *
+	 * @param phase Name of the phase
+	 */
+	void stopIfOpen(String phase) {
+		PhaseTotal total = phases.get(phase);
+		if (total != null && total.depth > 0) {
+			total.depth = 1;
+			stop(phase);
+		}
+	}
+
+	/**
+	 * @return Time elapsed since the request started being served, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * @param phase Name of the phase
+	 * @return Total time spent in the phase so far, in nanoseconds, not counting time spent in it if it is still open
+	 */
+	public long getPhaseNanos(String phase) {
+		PhaseTotal total = phases.get(phase);
+		return total == null ? 0 : total.nanos;
+	}
+
+	private static String formatMs(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	/**
+	 * Formats the phases completed so far as a 'Server-Timing' header value, with a final 'app' metric holding the
+	 * time elapsed since the request started.
+	 *
+	 * @param statements Description of the SQL statements issued so far, or null to leave it out
+	 * @return Header value, such as 'parse;dur=0.412, dao;dur=3.551;desc="2 calls", app;dur=4.210'
+	 */
+	public String toServerTiming(String statements) {
+		StringBuilder header = new StringBuilder();
+		phases.forEach((name, total) -> {
+			if (total.count == 0 || total.depth > 0)
+				return;
+
+			header.append(name).append(";dur=").append(formatMs(total.nanos));
+			if (total.count > 1)
+				header.append(";desc=\"").append(total.count).append(" calls\"");
+			header.append(", ");
+		});
+		if (statements != null)
+			header.append("sql;desc=\"").append(statements).append("\", ");
+		return header.append("app;dur=").append(formatMs(getElapsedNanos())).toString();
+	}
+
+	/**
+	 * @return Phases completed so far, such as 'parse 0.412 ms, dao 3.551 ms x2'
+	 */
+	@Override
+	public String toString() {
+		StringBuilder description = new StringBuilder();
+		phases.forEach((name, total) -> {
+			if (description.length() > 0)
+				description.append(", ");
+			description.append(name).append(' ').append(formatMs(total.nanos)).append(" ms");
+			if (total.count > 1)
+				description.append(" x").append(total.count);
+		});
+		return description.toString();
+	}
+}
@@ -0,0 +1,81 @@
+package api.timing;
+
+import api.sql.StatementCount;
+import api.sql.StatementCountingFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each request, and the phases it goes through. If enabled, the phases completed before the response body is
+ * written are sent in a 'Server-Timing' header (see ResponseBodyTimingAdvice). Requests slower than the configured
+ * threshold are sampled into the 'slow-requests' log, with the time spent in each phase, including serialization of
+ * the response, and the SQL statements they issued.
+ */
+@Component
+@EnableConfigurationProperties(RequestTimingProperties.class)
+public class RequestTimingFilter extends OncePerRequestFilter {
+	static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+	private static final Logger slowRequestLogger = LoggerFactory.getLogger("slow-requests");
+
+	@Autowired
+	private RequestTimingProperties properties;
+
+	/**
+	 * Describes the SQL statements a request has issued so far, as counted by StatementCountingFilter.
+	 *
+	 * @param request Request being served
+	 * @return Number of statements issued, or null if statements are not being counted
+	 */
+	static String statementsOf(ServletRequest request) {
+		StatementCount count = (StatementCount) request.getAttribute(StatementCountingFilter.REQUEST_ATTRIBUTE);
+		return count == null ? null : count.getTotal() + " statements";
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		if (!properties.isEnabled()) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		RequestTiming timing = RequestTimer.begin();
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			RequestTimer.end();
+			timing.stopIfOpen(ResponseBodyTimingAdvice.SERIALIZE_PHASE);
+
+			// Responses without a body never went through ResponseBodyTimingAdvice
+			if (properties.isServerTimingHeader() && !response.isCommitted() &&
+				!response.containsHeader(SERVER_TIMING_HEADER))
+				response.setHeader(SERVER_TIMING_HEADER, timing.toServerTiming(statementsOf(request)));
+
+			long elapsedNanos = timing.getElapsedNanos();
+			if (elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(properties.getSlowThresholdMs()) &&
+				ThreadLocalRandom.current().nextDouble() < properties.getSlowSampleRate())
+				slowRequestLogger.warn(String.format(
+						Locale.ROOT, "%s %s %d in %.3f ms (%s; %s)", request.getMethod(), request.getRequestURI(),
+						response.getStatus(), elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1), timing,
+						Objects.toString(request.getAttribute(StatementCountingFilter.REQUEST_ATTRIBUTE),
+										 "statements not counted")
+				));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package api.timing;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Request timing settings, read from the 'request-timing' properties.
+ */
+@ConfigurationProperties(prefix = "request-timing")
+public class RequestTimingProperties {
+	private boolean enabled = true;
+
+	/**
+	 * Whether phase timings are sent to clients in a 'Server-Timing' header. Off by default, since it exposes how
+	 * requests are served.
+	 */
+	private boolean serverTimingHeader = false;
+
+	/**
+	 * Requests slower than this are candidates for the slow request log.
+	 */
+	private long slowThresholdMs = 1000;
+
+	/**
+	 * Share of the slow requests that are logged, between 0 and 1, so that the log does not flood when the whole
+	 * service slows down.
+	 */
+	private double slowSampleRate = 0.1;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isServerTimingHeader() {
+		return serverTimingHeader;
+	}
+
+	public void setServerTimingHeader(boolean serverTimingHeader) {
+		this.serverTimingHeader = serverTimingHeader;
+	}
+
+	public long getSlowThresholdMs() {
+		return slowThresholdMs;
+	}
+
+	public void setSlowThresholdMs(long slowThresholdMs) {
+		this.slowThresholdMs = slowThresholdMs;
+	}
+
+	public double getSlowSampleRate() {
+		return slowSampleRate;
+	}
+
+	public void setSlowSampleRate(double slowSampleRate) {
+		this.slowSampleRate = slowSampleRate;
+	}
+}
@@ -0,0 +1,46 @@
+package api.timing;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Times the serialization of response bodies, as the 'serialize' phase. Since the 'Server-Timing' header must be sent
+ * before the body, it is added here, just before the body is serialized, and holds every phase completed up to that
+ * point. Serialization itself is only reported in the slow request log.
+ */
+@ControllerAdvice
+public class ResponseBodyTimingAdvice implements ResponseBodyAdvice<Object> {
+	static final String SERIALIZE_PHASE = "serialize";
+
+	@Autowired
+	private RequestTimingProperties properties;
+
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return true;
+	}
+
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+								  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+								  ServerHttpRequest request, ServerHttpResponse response) {
+		RequestTiming timing = RequestTimer.current();
+		if (timing == null)
+			return body;
+
+		if (properties.isServerTimingHeader() && request instanceof ServletServerHttpRequest)
+			response.getHeaders().set(RequestTimingFilter.SERVER_TIMING_HEADER, timing.toServerTiming(
+					RequestTimingFilter.statementsOf(((ServletServerHttpRequest) request).getServletRequest())
+			));
+
+		timing.start(SERIALIZE_PHASE);
+		return body;
+	}
+}
@@ -0,0 +1,32 @@
+package api.warmup;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Readiness probe, exposed as the 'readiness' actuator endpoint. It responds with 503 Service Unavailable while the
+ * instance is warming up, and 200 OK once it is ready to serve traffic, so that load balancers only route requests to
+ * warm instances. The 'health' endpoint is not affected by warm-up, and can still be used as a liveness probe.
+ */
+@Component
+@WebEndpoint(id = "readiness")
+public class ReadinessEndpoint {
+	@Autowired
+	private Warmup warmup;
+
+	@ReadOperation
+	public WebEndpointResponse<Map<String, Object>> readiness() {
+		Map<String, Object> result = new TreeMap<>();
+		result.put("status", warmup.isComplete() ? "UP" : "WARMING_UP");
+		result.put("warmupRounds", warmup.getCompletedIterations());
+		result.put("warmupMs", warmup.getDurationMs());
+		return new WebEndpointResponse<>(result, warmup.isComplete() ? WebEndpointResponse.STATUS_OK
+																	 : WebEndpointResponse.STATUS_SERVICE_UNAVAILABLE);
+	}
+}
@@ -0,0 +1,324 @@
+package api.warmup;
+
+import api.WireFormats;
+import api.order.model.Order;
+import api.order.sharding.OrderShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.boot.web.servlet.ServletContextInitializer;
+import org.springframework.boot.web.servlet.ServletContextInitializerBeans;
+import org.springframework.context.ApplicationListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.servlet.Filter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms the instance up before it reports itself ready, so that the first requests after a deploy are not served by
+ * interpreted code, with cold serializers and an empty connection pool. Once the application has started, a synthetic
+ * mix of requests is replayed in-process on a few threads, through MockMvc built from the web application context, so
+ * that they go through the same filters, interceptors, argument resolvers, validation, admission control, controllers
+ * and message converters as client requests:
+ * <ul>
+ * <li>catalog reads, in every wire format</li>
+ * <li>order writes, which create a synthetic order, then read it whole and summarized, in one of the wire formats, in
+ * a transaction that is always rolled back</li>
+ * </ul>
+ * Rolled back orders leave no rows behind, and are never published to the order change feed, but the database may
+ * still skip the IDs they were given. Warm-up requests are recorded in request metrics like any other request. If
+ * orders are sharded, writes would be committed by the shards, outside of the rolled back transaction, so only catalog
+ * reads are replayed.
+ * <p>
+ * Readiness is reported by the 'readiness' actuator endpoint. Warm-up never prevents the instance from becoming ready:
+ * if it fails or runs out of time, the instance is reported ready anyway.
+ */
+@Component
+@EnableConfigurationProperties(WarmupProperties.class)
+public class Warmup implements ApplicationListener<ApplicationReadyEvent> {
+	private static final Logger logger = LoggerFactory.getLogger(Warmup.class);
+
+	/**
+	 * Number of catalog entries read and ordered during warm-up.
+	 */
+	private static final int CATALOG_SAMPLE_SIZE = 1000;
+
+	private static final int MAX_ITEMS_PER_ORDER = 20;
+
+	private static final String PURCHASER_NAME = "WarmupBuyer";
+
+	private static final List<MediaType> MEDIA_TYPES = Arrays.asList(
+			MediaType.APPLICATION_JSON_UTF8, WireFormats.APPLICATION_CBOR, WireFormats.APPLICATION_SMILE
+	);
+
+	@Autowired
+	private WarmupProperties properties;
+
+	@Autowired
+	private WebApplicationContext context;
+
+	@Autowired(required = false)
+	private OrderShards orderShards;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private HttpMessageConverters messageConverters;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private volatile boolean complete;
+
+	private final AtomicInteger completedIterations = new AtomicInteger();
+
+	private volatile long durationMs;
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		if (!properties.isEnabled()) {
+			complete = true;
+			return;
+		}
+
+		Thread thread = new Thread(this::warmUp, "warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Replays the configured number of rounds on the warm-up threads, and marks warm-up as complete once they are all
+	 * done, or once the maximum duration has elapsed.
+	 */
+	private void warmUp() {
+		long start = System.nanoTime(), deadline = start + TimeUnit.MILLISECONDS.toNanos(properties.getMaxDurationMs());
+		ExecutorService workers = Executors.newFixedThreadPool(properties.getThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "warmup-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			List<Long> catalogIDs = jdbcTemplate.queryForList(
+					"select id from catalog order by id limit ?", Long.class, CATALOG_SAMPLE_SIZE
+			);
+			List<ObjectMapper> objectMappers = new ArrayList<>();
+			for (MediaType mediaType : MEDIA_TYPES)
+				objectMappers.add(objectMapperFor(mediaType));
+			MockMvc mockMvc = buildMockMvc();
+
+			AtomicInteger remaining = new AtomicInteger(properties.getIterations());
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < properties.getThreads(); i++) {
+				results.add(workers.submit(() -> {
+					Random random = ThreadLocalRandom.current();
+					while (remaining.getAndDecrement() > 0 && System.nanoTime() < deadline) {
+						replayRound(mockMvc, random, catalogIDs, objectMappers);
+						completedIterations.incrementAndGet();
+					}
+				}));
+			}
+
+			for (Future<?> result : results)
+				result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			logger.warn("Warm-up ran out of time after " + completedIterations.get() + " rounds");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.warn("Warm-up failed after " + completedIterations.get() + " rounds", e);
+		} finally {
+			workers.shutdownNow();
+			durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			complete = true;
+			logger.info("Warm-up replayed " + completedIterations.get() + " rounds in " + durationMs + " ms");
+		}
+	}
+
+	/**
+	 * Builds MockMvc from the web application context, with the servlet filters the embedded server was given, in
+	 * order, so that replayed requests are served as client requests would be. Filters are either beans themselves, or
+	 * registered by FilterRegistrationBean beans, such as the request metrics filter.
+	 *
+	 * @return MockMvc dispatching requests to the application
+	 */
+	private MockMvc buildMockMvc() {
+		List<Filter> filters = new ArrayList<>();
+		for (ServletContextInitializer initializer : new ServletContextInitializerBeans(context))
+			if (initializer instanceof FilterRegistrationBean && ((FilterRegistrationBean<?>) initializer).isEnabled())
+				filters.add(((FilterRegistrationBean<?>) initializer).getFilter());
+		return MockMvcBuilders.webAppContextSetup(context).addFilters(filters.toArray(new Filter[0])).build();
+	}
+
+	/**
+	 * Finds the object mapper the message converters use to read and write the given media type.
+	 *
+	 * @param mediaType Media type to find the object mapper of
+	 * @return Object mapper of the given media type
+	 */
+	private ObjectMapper objectMapperFor(MediaType mediaType) {
+		return messageConverters.getConverters().stream()
+				.filter(converter -> converter instanceof AbstractJackson2HttpMessageConverter)
+				.map(converter -> (AbstractJackson2HttpMessageConverter) converter)
+				.filter(converter -> converter.canWrite(Order.class, mediaType))
+				.findFirst()
+				.map(AbstractJackson2HttpMessageConverter::getObjectMapper)
+				.orElseThrow(() -> new IllegalArgumentException("No message converter writes " + mediaType));
+	}
+
+	/**
+	 * Replays a round of requests: a catalog read in every wire format, and an order write in one of them, unless
+	 * orders are sharded.
+	 *
+	 * @param mockMvc       MockMvc dispatching requests to the application
+	 * @param random        Source of randomness of the current thread
+	 * @param catalogIDs    IDs of the catalog entries to read and order
+	 * @param objectMappers Object mappers of every wire format, in the order of MEDIA_TYPES
+	 */
+	private void replayRound(MockMvc mockMvc, Random random, List<Long> catalogIDs, List<ObjectMapper> objectMappers) {
+		try {
+			if (!catalogIDs.isEmpty()) {
+				long catalogID = catalogIDs.get(random.nextInt(catalogIDs.size()));
+				for (MediaType mediaType : MEDIA_TYPES)
+					perform(mockMvc, MockMvcRequestBuilders.get("/api/catalog/" + catalogID).accept(mediaType));
+			}
+
+			if (orderShards == null) {
+				int format = random.nextInt(MEDIA_TYPES.size());
+				ObjectMapper objectMapper = objectMappers.get(format);
+				writeOrder(mockMvc, encodeSyntheticOrder(random, catalogIDs, objectMapper), MEDIA_TYPES.get(format),
+						   objectMapper);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Replays a request, which must succeed.
+	 *
+	 * @param mockMvc MockMvc dispatching requests to the application
+	 * @param request Request to replay
+	 * @return Response to the request
+	 * @throws IllegalStateException If the request does not get a 200 OK response
+	 */
+	private MockHttpServletResponse perform(MockMvc mockMvc, RequestBuilder request) {
+		MockHttpServletResponse response;
+		try {
+			response = mockMvc.perform(request).andReturn().getResponse();
+		} catch (Exception e) {
+			throw new IllegalStateException("Replayed request failed", e);
+		}
+
+		if (response.getStatus() != HttpStatus.OK.value())
+			throw new IllegalStateException("Replayed request got a " + response.getStatus() + " response");
+		return response;
+	}
+
+	/**
+	 * Encodes an order of a few random catalog items, as a client would send it.
+	 *
+	 * @param random       Source of randomness of the current thread
+	 * @param catalogIDs   IDs of the catalog entries that can be ordered
+	 * @param objectMapper Object mapper of the wire format to encode the order in
+	 * @return Encoded order
+	 * @throws IOException If the order cannot be encoded
+	 */
+	private byte[] encodeSyntheticOrder(Random random, List<Long> catalogIDs, ObjectMapper objectMapper)
+			throws IOException {
+		int numOfItems = catalogIDs.isEmpty() ? 0 : random.nextInt(MAX_ITEMS_PER_ORDER) + 1;
+		Long[] itemIDs = new Long[numOfItems], itemQuantities = new Long[numOfItems];
+		for (int i = 0; i < numOfItems; i++) {
+			itemIDs[i] = catalogIDs.get(random.nextInt(catalogIDs.size()));
+			itemQuantities[i] = (long) random.nextInt(10) + 1;
+		}
+
+		Order order = new Order();
+		order.setPurchaserName(PURCHASER_NAME);
+		order.setItemIDs(itemIDs);
+		order.setItemQuantities(itemQuantities);
+		return objectMapper.writeValueAsBytes(order);
+	}
+
+	/**
+	 * Creates an order, then reads it whole and summarized, through the order controller, in a transaction that is
+	 * always rolled back. MockMvc serves requests on the calling thread, so the order is written and read within the
+	 * transaction.
+	 *
+	 * @param mockMvc      MockMvc dispatching requests to the application
+	 * @param encodedOrder Encoded order
+	 * @param mediaType    Wire format the order is encoded in, and in which responses are requested
+	 * @param objectMapper Object mapper of the wire format
+	 */
+	private void writeOrder(MockMvc mockMvc, byte[] encodedOrder, MediaType mediaType, ObjectMapper objectMapper) {
+		new TransactionTemplate(transactionManager).execute(status -> {
+			status.setRollbackOnly();
+			try {
+				MockHttpServletResponse created = perform(mockMvc, MockMvcRequestBuilders.post("/api/orders")
+																						  .content(encodedOrder)
+																						  .contentType(mediaType)
+																						  .accept(mediaType));
+				// IDs are assigned by the server, and ignored when orders are parsed, so the ID is read from the tree
+				long id = objectMapper.readTree(created.getContentAsByteArray()).get("id").asLong();
+				entityManager.clear(); // Reads the order back from the database, instead of the persistence context
+
+				perform(mockMvc, MockMvcRequestBuilders.get("/api/orders/" + id).accept(mediaType));
+				perform(mockMvc, MockMvcRequestBuilders.get("/api/orders/" + id)
+													   .param("fields", "id,purchaserName")
+													   .accept(mediaType));
+				return null;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * @return True if the instance is ready to serve requests, either because warm-up is disabled, or because it has
+	 * completed
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public int getCompletedIterations() {
+		return completedIterations.get();
+	}
+
+	/**
+	 * @return Time warm-up took, in milliseconds, or 0 if it has not completed, or is disabled
+	 */
+	public long getDurationMs() {
+		return durationMs;
+	}
+}
@@ -0,0 +1,61 @@
+package api.warmup;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Warm-up settings, read from the 'warmup' properties. When warm-up is enabled, a synthetic mix of catalog reads and
+ * order writes is replayed in-process, through the MVC stack, at startup, and the instance only reports itself ready
+ * once it completes.
+ */
+@ConfigurationProperties(prefix = "warmup")
+public class WarmupProperties {
+	private boolean enabled = false;
+
+	/**
+	 * Number of rounds replayed, shared between the warm-up threads. Each round reads a catalog entry in every wire
+	 * format, and creates an order and reads it back, whole and summarized, in a rolled back transaction.
+	 */
+	private int iterations = 10000;
+
+	/**
+	 * Number of threads replaying rounds concurrently, which also determines how many pooled connections are opened.
+	 */
+	private int threads = 4;
+
+	/**
+	 * Time after which warm-up stops, even if not all rounds have been replayed, in milliseconds.
+	 */
+	private long maxDurationMs = 120000;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public long getMaxDurationMs() {
+		return maxDurationMs;
+	}
+
+	public void setMaxDurationMs(long maxDurationMs) {
+		this.maxDurationMs = maxDurationMs;
+	}
+}
@@ -2,11 +2,79 @@ package api;
 
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
 /**
  * This class handles direct database access, in order to set up the tables to execute a particular test.
  */
 public class DBHandler {
 
+	/**
+	 * Number of rows inserted by each multi-row insert statement.
+	 */
+	private static final int ROWS_PER_STATEMENT = 100;
+
+	/**
+	 * Number of multi-row insert statements sent to the database in a single JDBC batch.
+	 */
+	private static final int STATEMENTS_PER_BATCH = 50;
+
+	/**
+	 * Builds an insert statement adding several rows at once.
+	 *
+	 * @param table   Name of the table to insert into
+	 * @param columns Names of the columns to set in each row
+	 * @param rows    Number of rows the statement inserts
+	 * @return SQL statement with one placeholder per column and row
+	 */
+	private static String multiRowInsert(String table, String[] columns, int rows) {
+		String row = "(" + String.join(",", Collections.nCopies(columns.length, "?")) + ")";
+		return "insert into " + table + " (" + String.join(", ", columns) + ") values " +
+			   String.join(",", Collections.nCopies(rows, row));
+	}
+
+	/**
+	 * Inserts rows into a table using multi-row insert statements, sent in JDBC batches, so that large tables can be
+	 * populated with few round trips to the database. Rows are inserted in order, so generated IDs follow row indices.
+	 *
+	 * @param table        Name of the table to insert into
+	 * @param columns      Names of the columns to set in each row
+	 * @param numOfRows    Number of rows to insert
+	 * @param rowGenerator Generates the column values of the row with the given index
+	 * @param jdbcTemplate JdbcTemplate to use to issue queries on the database
+	 */
+	public static void insertRows(String table, String[] columns, int numOfRows, IntFunction<Object[]> rowGenerator,
+								  JdbcTemplate jdbcTemplate) {
+		String fullStatement = multiRowInsert(table, columns, ROWS_PER_STATEMENT);
+		List<Object[]> batch = new ArrayList<>(STATEMENTS_PER_BATCH);
+
+		int row = 0;
+		for (; row + ROWS_PER_STATEMENT <= numOfRows; row += ROWS_PER_STATEMENT) {
+			Object[] values = new Object[ROWS_PER_STATEMENT * columns.length];
+			for (int i = 0; i < ROWS_PER_STATEMENT; i++)
+				System.arraycopy(rowGenerator.apply(row + i), 0, values, i * columns.length, columns.length);
+			batch.add(values);
+
+			if (batch.size() == STATEMENTS_PER_BATCH) {
+				jdbcTemplate.batchUpdate(fullStatement, batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			jdbcTemplate.batchUpdate(fullStatement, batch);
+
+		// Remaining rows, fewer than a full statement
+		if (row < numOfRows) {
+			Object[] values = new Object[(numOfRows - row) * columns.length];
+			for (int i = 0; row + i < numOfRows; i++)
+				System.arraycopy(rowGenerator.apply(row + i), 0, values, i * columns.length, columns.length);
+			jdbcTemplate.update(multiRowInsert(table, columns, numOfRows - row), values);
+		}
+	}
+
 	/**
 	 * Populates the catalog table with placeholder values, so that orders can be created.
 	 *
@@ -14,12 +82,10 @@ public class DBHandler {
 	 * @param jdbcTemplate JdbcTemplate to use to issue queries on the database
 	 */
 	public static void populateCatalogTable(int numOfItems, JdbcTemplate jdbcTemplate) {
-		for (int i = 0; i < numOfItems; i++) {
-			jdbcTemplate.update(
-					"insert into catalog (item_name, brand, star_rating, price) values (?,?,?,?)",
-					"Item" + i, "Brand" + i, ((i % 5) + 1), i
-			);
-		}
+		insertRows(
+				"catalog", new String[]{"item_name", "brand", "star_rating", "price"}, numOfItems,
+				i -> new Object[]{"Item" + i, "Brand" + i, ((i % 5) + 1), i}, jdbcTemplate
+		);
 	}
 
 	/**
@@ -0,0 +1,117 @@
+package api;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.SerializationUtils;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates large synthetic datasets, to test how the service behaves at production data sizes. Rows are inserted with
+ * batched multi-row inserts through DBHandler.insertRows(), which loads millions of rows in minutes rather than hours.
+ * <p>
+ * Popularity is Zipfian: a few catalog items appear in most orders, and a few purchasers place most orders. The number
+ * of items per order is also Zipfian, so most orders have a few items, with a long tail of large orders. All values are
+ * derived from the seed, so the same seed always generates the same dataset.
+ */
+public class DatasetGenerator {
+	/**
+	 * Skew of the popularity distributions.
+	 */
+	private static final double ZIPF_EXPONENT = 1.0;
+
+	/**
+	 * Maximum number of distinct items in an order.
+	 */
+	static final int MAX_ITEMS_PER_ORDER = 50;
+
+	private static final int MAX_ITEM_QUANTITY = 10;
+
+	private static final int NUM_OF_BRANDS = 1000;
+
+	/**
+	 * Orders are created over this period, ending now.
+	 */
+	private static final Duration ORDER_HISTORY = Duration.ofDays(365);
+
+	private final Random random;
+
+	/**
+	 * @param seed Seed all generated values are derived from
+	 */
+	public DatasetGenerator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Name of a generated purchaser, given its popularity rank.
+	 *
+	 * @param rank Rank of the purchaser, 1 being the purchaser placing the most orders
+	 * @return Name of the purchaser
+	 */
+	public static String purchaserName(int rank) {
+		return "Purchaser" + rank;
+	}
+
+	/**
+	 * Appends catalog entries to the catalog table, with Zipfian brand popularity.
+	 *
+	 * @param numOfItems   Number of catalog entries to insert
+	 * @param jdbcTemplate JdbcTemplate to use to issue queries on the database
+	 */
+	public void generateCatalog(int numOfItems, JdbcTemplate jdbcTemplate) {
+		ZipfianGenerator brands = new ZipfianGenerator(NUM_OF_BRANDS, ZIPF_EXPONENT, random);
+
+		DBHandler.insertRows(
+				"catalog", new String[]{"item_name", "brand", "star_rating", "price"}, numOfItems,
+				i -> new Object[]{"Item" + random.nextInt(Integer.MAX_VALUE), "Brand" + brands.next(),
+								  random.nextInt(5) + 1, (long) random.nextInt(100000)}, jdbcTemplate
+		);
+	}
+
+	/**
+	 * Appends orders to the orders table. Each order references distinct catalog items, drawn with Zipfian
+	 * popularity among catalog IDs, the lowest IDs being the most popular.
+	 *
+	 * @param numOfOrders     Number of orders to insert
+	 * @param firstCatalogID  Lowest ID in the catalog table
+	 * @param numOfCatalogIDs Number of consecutive catalog IDs, starting at firstCatalogID, that orders may reference
+	 * @param numOfPurchasers Number of distinct purchasers placing the orders
+	 * @param jdbcTemplate    JdbcTemplate to use to issue queries on the database
+	 */
+	public void generateOrders(int numOfOrders, long firstCatalogID, int numOfCatalogIDs, int numOfPurchasers,
+							   JdbcTemplate jdbcTemplate) {
+		ZipfianGenerator items = new ZipfianGenerator(numOfCatalogIDs, ZIPF_EXPONENT, random);
+		ZipfianGenerator itemCounts = new ZipfianGenerator(
+				Math.min(MAX_ITEMS_PER_ORDER, numOfCatalogIDs), ZIPF_EXPONENT, random
+		);
+		ZipfianGenerator purchasers = new ZipfianGenerator(numOfPurchasers, ZIPF_EXPONENT, random);
+		ZipfianGenerator quantities = new ZipfianGenerator(MAX_ITEM_QUANTITY, ZIPF_EXPONENT, random);
+		long now = Instant.now().toEpochMilli();
+
+		DBHandler.insertRows(
+				"orders", new String[]{"purchaser_name", "itemids", "item_quantities", "created_at"}, numOfOrders,
+				i -> {
+					Set<Long> itemIDs = new LinkedHashSet<>();
+					for (int numOfItems = itemCounts.next(); itemIDs.size() < numOfItems; )
+						itemIDs.add(firstCatalogID + items.next() - 1);
+
+					Long[] itemQuantities = new Long[itemIDs.size()];
+					for (int item = 0; item < itemQuantities.length; item++)
+						itemQuantities[item] = (long) quantities.next();
+
+					// Array columns hold serialized arrays, as written by Hibernate
+					return new Object[]{
+							purchaserName(purchasers.next()),
+							SerializationUtils.serialize(itemIDs.toArray(new Long[0])),
+							SerializationUtils.serialize(itemQuantities),
+							new Timestamp(now - (long) (random.nextDouble() * ORDER_HISTORY.toMillis()))
+					};
+				}, jdbcTemplate
+		);
+	}
+}
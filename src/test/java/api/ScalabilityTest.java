@@ -0,0 +1,393 @@
+package api;
+
+import api.catalog.cache.CatalogResponseCache;
+import api.timing.RequestTimingProperties;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+/**
+ * Scalability suite, which grows a synthetic dataset through the sizes given in the 'scalability.sizes' system
+ * property, and records the latency of every endpoint and the heap usage at each size. Results are printed, and
+ * written to target/scalability/results.csv so that curves can be plotted across runs.
+ * <p>
+ * Catalog reads are also measured separately when every entry read is in the response cache, and when none is, to
+ * show how much the cache saves. Order reads and creations are also measured with request timing turned off, to show how much timing requests
+ * costs.
+ * <p>
+ * The suite takes far too long for regular builds, and only runs in the 'scalability' Maven profile. Since the test
+ * database is in memory, the heap usage includes the dataset itself.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = Main.class
+)
+@AutoConfigureMockMvc
+@TestPropertySource(
+		locations = "classpath:application-test.properties",
+		properties = "admission.enabled = false"
+)
+@DirtiesContext
+public class ScalabilityTest {
+	private static final String DEFAULT_SIZES = "10000,100000,1000000";
+
+	private static final long SEED = 42;
+
+	/**
+	 * Purchaser of the orders created during measurements, so that they can be found and deleted afterwards.
+	 */
+	private static final String CREATED_ORDERS_PURCHASER = "ScalabilityBuyer";
+
+	/**
+	 * Fields selected by summary reads, which do not fetch the items of orders.
+	 */
+	private static final String SUMMARY_FIELDS = "id,purchaserName";
+
+	/**
+	 * Number of requests measured per endpoint and dataset size. Purchaser queries scan many more rows than other
+	 * requests, so fewer of them are measured.
+	 */
+	private final int NUM_OF_REQUESTS = 1000, NUM_OF_SCAN_REQUESTS = 50;
+
+	/**
+	 * Number of largest orders (by number of items) whose reads are measured separately, to show how much selecting
+	 * only the summary fields saves when the items would otherwise be fetched and serialized.
+	 */
+	private final int NUM_OF_LARGE_ORDERS = 100;
+
+	/**
+	 * Number of catalog entries read by cached reads, fewer than the warm-up requests, so that all of them are in the
+	 * response cache by the time reads are measured.
+	 */
+	private final int NUM_OF_CACHED_CATALOG_ENTRIES = 100;
+
+	/**
+	 * Number of requests sent to each endpoint before measuring, so that measurements are not skewed by class loading
+	 * and JIT compilation.
+	 */
+	private final int NUM_OF_WARMUP_REQUESTS = 200;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private RequestTimingProperties requestTimingProperties;
+
+	@Autowired
+	private CatalogResponseCache catalogResponseCache;
+
+	private final DatasetGenerator datasetGenerator = new DatasetGenerator(SEED);
+
+	private final Random random = new Random(SEED);
+
+	/**
+	 * Ranges of IDs of the generated orders, as (first ID, last ID) pairs, used to pick existing orders at random.
+	 */
+	private final List<long[]> orderIDRanges = new ArrayList<>();
+
+	private long numOfGeneratedOrders = 0;
+
+	/**
+	 * Latency percentiles of the requests sent to an endpoint.
+	 */
+	private static class Measurement {
+		final String endpoint;
+
+		final long[] sortedLatenciesNanos;
+
+		Measurement(String endpoint, long[] latenciesNanos) {
+			this.endpoint = endpoint;
+			this.sortedLatenciesNanos = latenciesNanos.clone();
+			Arrays.sort(sortedLatenciesNanos);
+		}
+
+		double percentileMs(double percentile) {
+			int index = (int) Math.ceil(percentile / 100 * sortedLatenciesNanos.length) - 1;
+			return sortedLatenciesNanos[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		}
+	}
+
+	/**
+	 * Parses the dataset sizes to run the suite with.
+	 *
+	 * @return Dataset sizes, in ascending order
+	 */
+	private int[] datasetSizes() {
+		String sizes = System.getProperty("scalability.sizes", "");
+		return Arrays.stream((sizes.isEmpty() ? DEFAULT_SIZES : sizes).split(","))
+					 .mapToInt(size -> Integer.parseInt(size.trim()))
+					 .sorted()
+					 .toArray();
+	}
+
+	/**
+	 * Picks one of the generated orders at random.
+	 *
+	 * @return ID of an existing order
+	 */
+	private long randomOrderID() {
+		long index = (long) (random.nextDouble() * numOfGeneratedOrders);
+		for (long[] range : orderIDRanges) {
+			long rangeSize = range[1] - range[0] + 1;
+			if (index < rangeSize)
+				return range[0] + index;
+			index -= rangeSize;
+		}
+		throw new IllegalStateException("No orders have been generated");
+	}
+
+	/**
+	 * Builds the JSON body of an order containing a few catalog items.
+	 *
+	 * @param purchaserName   Name of the purchaser
+	 * @param firstCatalogID  Lowest catalog ID
+	 * @param numOfCatalogIDs Number of catalog IDs, starting at firstCatalogID
+	 * @return JSON representation of the order
+	 */
+	private String randomOrderJSON(String purchaserName, long firstCatalogID, int numOfCatalogIDs) {
+		int numOfItems = random.nextInt(5) + 1;
+		StringBuilder itemIDs = new StringBuilder(), itemQuantities = new StringBuilder();
+		for (int i = 0; i < numOfItems; i++) {
+			itemIDs.append(i > 0 ? "," : "").append(firstCatalogID + random.nextInt(numOfCatalogIDs));
+			itemQuantities.append(i > 0 ? "," : "").append(random.nextInt(10) + 1);
+		}
+
+		return "{\"purchaserName\":\"" + purchaserName + "\",\"itemIDs\":[" + itemIDs + "],\"itemQuantities\":[" +
+			   itemQuantities + "]}";
+	}
+
+	/**
+	 * Builds a request reading an order.
+	 *
+	 * @param orderID ID of the order to read
+	 * @param fields  Comma separated names of the fields to read, or null to read the whole order
+	 * @return Request reading the order
+	 */
+	private RequestBuilder getOrder(long orderID, String fields) {
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get("/api/orders/" + orderID)
+																	  .accept(APPLICATION_JSON);
+		return fields == null ? request : request.param("fields", fields);
+	}
+
+	/**
+	 * Sends requests to an endpoint, first to warm it up, then measuring the latency of each request.
+	 *
+	 * @param endpoint       Name of the endpoint, used to report the results
+	 * @param numOfRequests  Number of requests to measure
+	 * @param expectedStatus Status every request must return
+	 * @param request        Builds the i-th request, warm-up requests included, so that requests which can only be
+	 *                       sent once (such as deletions) are never sent twice
+	 * @return Latencies of the measured requests
+	 * @throws Exception
+	 */
+	private Measurement measure(String endpoint, int numOfRequests, HttpStatus expectedStatus,
+								IntFunction<RequestBuilder> request) throws Exception {
+		int numOfWarmupRequests = Math.min(NUM_OF_WARMUP_REQUESTS, numOfRequests);
+		for (int i = 0; i < numOfWarmupRequests; i++)
+			mockMvc.perform(request.apply(i));
+
+		long[] latenciesNanos = new long[numOfRequests];
+		for (int i = 0; i < numOfRequests; i++) {
+			RequestBuilder builder = request.apply(numOfWarmupRequests + i);
+
+			long start = System.nanoTime();
+			MvcResult result = mockMvc.perform(builder).andReturn();
+			latenciesNanos[i] = System.nanoTime() - start;
+
+			TestCase.assertEquals(endpoint + " failed", expectedStatus.value(), result.getResponse().getStatus());
+		}
+
+		return new Measurement(endpoint, latenciesNanos);
+	}
+
+	/**
+	 * Measures an endpoint as measure() does, with request timing turned off, which is reported as the same endpoint
+	 * followed by 'untimed'.
+	 *
+	 * @param endpoint       Name of the endpoint, used to report the results
+	 * @param numOfRequests  Number of requests to measure
+	 * @param expectedStatus Status every request must return
+	 * @param request        Builds the i-th request, warm-up requests included
+	 * @return Latencies of the measured requests
+	 * @throws Exception
+	 */
+	private Measurement measureUntimed(String endpoint, int numOfRequests, HttpStatus expectedStatus,
+									   IntFunction<RequestBuilder> request) throws Exception {
+		requestTimingProperties.setEnabled(false);
+		try {
+			return measure(endpoint + " untimed", numOfRequests, expectedStatus, request);
+		} finally {
+			requestTimingProperties.setEnabled(true);
+		}
+	}
+
+	/**
+	 * @return Heap in use after a full garbage collection, in megabytes
+	 */
+	private long usedHeapMb() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+	}
+
+	@Test
+	public void scalabilityTest() {
+		Path resultsFile = Paths.get("target", "scalability", "results.csv");
+
+		try {
+			Files.createDirectories(resultsFile.getParent());
+			try (PrintWriter results = new PrintWriter(Files.newBufferedWriter(resultsFile))) {
+				results.println("size,endpoint,requests,p50_ms,p90_ms,p99_ms,max_ms,heap_used_mb,load_rows_per_s");
+
+				int catalogSize = 0, orderCount = 0;
+				for (int size : datasetSizes()) {
+					// Grow the dataset to the next size, so that smaller datasets are not loaded again
+					long loadStart = System.nanoTime();
+					datasetGenerator.generateCatalog(size - catalogSize, jdbcTemplate);
+
+					long lastOrderIDBefore = jdbcTemplate.queryForObject(
+							"select coalesce(max(id), 0) from orders", Long.class
+					);
+					long firstCatalogID = jdbcTemplate.queryForObject("select min(id) from catalog", Long.class);
+					datasetGenerator.generateOrders(size - orderCount, firstCatalogID, size, Math.max(1, size / 10),
+													jdbcTemplate);
+
+					// Orders created and deleted while measuring leave a gap before the IDs of the new orders
+					long[] newOrderIDs = jdbcTemplate.queryForObject(
+							"select min(id), max(id) from orders where id > ?",
+							(resultSet, row) -> new long[]{resultSet.getLong(1), resultSet.getLong(2)},
+							lastOrderIDBefore
+					);
+
+					double loadRowsPerSecond = (2.0 * size - catalogSize - orderCount) /
+											   ((System.nanoTime() - loadStart) / 1e9);
+					orderIDRanges.add(newOrderIDs);
+					numOfGeneratedOrders += newOrderIDs[1] - newOrderIDs[0] + 1;
+					catalogSize = size;
+					orderCount = size;
+
+					ZipfianGenerator popularItems = new ZipfianGenerator(size, 1.0, random);
+					ZipfianGenerator popularPurchasers = new ZipfianGenerator(Math.max(1, size / 10), 1.0, random);
+					List<Long> createdOrderIDs = new ArrayList<>();
+
+					List<Measurement> measurements = new ArrayList<>();
+					measurements.add(measure("GET /api/catalog/{id}", NUM_OF_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.get("/api/catalog/" + (firstCatalogID + popularItems.next() - 1))
+												  .accept(APPLICATION_JSON)));
+					measurements.add(measure("GET /api/catalog/{id} cached", NUM_OF_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.get("/api/catalog/" + (firstCatalogID +
+																		  i % NUM_OF_CACHED_CATALOG_ENTRIES))
+												  .accept(APPLICATION_JSON)));
+
+					// Entries are evicted before each request is sent, so that every read is a miss
+					measurements.add(measure("GET /api/catalog/{id} uncached", NUM_OF_REQUESTS, HttpStatus.OK, i -> {
+						long catalogID = firstCatalogID + random.nextInt(size);
+						catalogResponseCache.invalidate(catalogID);
+						return MockMvcRequestBuilders.get("/api/catalog/" + catalogID).accept(APPLICATION_JSON);
+					}));
+					measurements.add(measure("GET /api/orders/{id}", NUM_OF_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.get("/api/orders/" + randomOrderID())
+												  .accept(APPLICATION_JSON)));
+					measurements.add(measureUntimed("GET /api/orders/{id}", NUM_OF_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.get("/api/orders/" + randomOrderID())
+												  .accept(APPLICATION_JSON)));
+					measurements.add(measure("GET /api/orders/{id} summary", NUM_OF_REQUESTS, HttpStatus.OK,
+											 i -> getOrder(randomOrderID(), SUMMARY_FIELDS)));
+
+					// Reads of the largest orders show how much selecting the summary fields saves
+					List<Long> largeOrderIDs = jdbcTemplate.queryForList(
+							"select id from orders order by length(itemids) desc limit ?", Long.class,
+							NUM_OF_LARGE_ORDERS
+					);
+					measurements.add(measure("GET /api/orders/{id} large", NUM_OF_REQUESTS, HttpStatus.OK,
+											 i -> getOrder(largeOrderIDs.get(i % largeOrderIDs.size()), null)));
+					measurements.add(measure("GET /api/orders/{id} large summary", NUM_OF_REQUESTS, HttpStatus.OK,
+											 i -> getOrder(largeOrderIDs.get(i % largeOrderIDs.size()),
+														   SUMMARY_FIELDS)));
+					measurements.add(measure("GET /api/orders?purchaserName", NUM_OF_SCAN_REQUESTS, HttpStatus.OK,
+											 i -> MockMvcRequestBuilders.get("/api/orders")
+																		.param("purchaserName", DatasetGenerator
+																				.purchaserName(popularPurchasers.next()))
+																		.accept(APPLICATION_JSON)));
+					measurements.add(measure("POST /api/orders", NUM_OF_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.post("/api/orders")
+												  .content(randomOrderJSON(CREATED_ORDERS_PURCHASER,
+																		   firstCatalogID, size))
+												  .contentType(APPLICATION_JSON)
+												  .accept(APPLICATION_JSON)));
+					measurements.add(measureUntimed("POST /api/orders", NUM_OF_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.post("/api/orders")
+												  .content(randomOrderJSON(CREATED_ORDERS_PURCHASER,
+																		   firstCatalogID, size))
+												  .contentType(APPLICATION_JSON)
+												  .accept(APPLICATION_JSON)));
+					measurements.add(measure("PUT /api/orders/{id}", NUM_OF_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.put("/api/orders/" + randomOrderID())
+												  .content(randomOrderJSON("UpdatedBuyer", firstCatalogID, size))
+												  .contentType(APPLICATION_JSON)
+												  .accept(APPLICATION_JSON)));
+
+					// Orders created by the POST requests are deleted, so that the dataset keeps its size
+					createdOrderIDs.addAll(jdbcTemplate.queryForList(
+							"select id from orders where purchaser_name = ? order by id", Long.class,
+							CREATED_ORDERS_PURCHASER
+					));
+					measurements.add(measure("DELETE /api/orders/{id}", createdOrderIDs.size() -
+																	   NUM_OF_WARMUP_REQUESTS, HttpStatus.OK, i ->
+							MockMvcRequestBuilders.delete("/api/orders/" + createdOrderIDs.get(i))));
+
+					long heapUsedMb = usedHeapMb();
+					for (Measurement measurement : measurements) {
+						String line = String.format(
+								Locale.ROOT, "%d,%s,%d,%.3f,%.3f,%.3f,%.3f,%d,%.0f", size, measurement.endpoint,
+								measurement.sortedLatenciesNanos.length, measurement.percentileMs(50),
+								measurement.percentileMs(90), measurement.percentileMs(99),
+								measurement.percentileMs(100), heapUsedMb, loadRowsPerSecond
+						);
+						results.println(line);
+						System.out.println(line);
+					}
+					results.flush();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while writing scalability results");
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while measuring scalability");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+}
@@ -0,0 +1,194 @@
+package api;
+
+import api.catalog.dao.CatalogDAO;
+import api.catalog.model.CatalogEntry;
+import api.catalog.repository.CatalogEntryRepository;
+import api.order.dao.OrderDAO;
+import api.order.model.Order;
+import api.order.repository.OrderRepository;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+public class SingleFlightTest {
+
+	/**
+	 * Number of distinct keys requested during each burst.
+	 */
+	private final int KEYS_PER_BURST = 8;
+
+	/**
+	 * Number of concurrent callers requesting each key during a burst.
+	 */
+	private final int CALLERS_PER_KEY = 50;
+
+	/**
+	 * Maximum time a lookup will wait for all followers to join it, before giving up and completing anyway.
+	 */
+	private final long FOLLOWER_WAIT_MS = 10_000;
+
+	/**
+	 * Fires a burst of concurrent lookups, with CALLERS_PER_KEY callers requesting each of KEYS_PER_BURST keys at the
+	 * same time, and waits for all of them to complete.
+	 *
+	 * @param lookup Lookup each caller will perform with its key
+	 * @return Results returned to each caller, grouped by key
+	 * @throws Exception
+	 */
+	private <V> Map<Long, Queue<V>> burst(Function<Long, V> lookup) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(KEYS_PER_BURST * CALLERS_PER_KEY);
+		CountDownLatch start = new CountDownLatch(1);
+		Map<Long, Queue<V>> results = new ConcurrentHashMap<>();
+
+		try {
+			Queue<Future<?>> callers = new ConcurrentLinkedQueue<>();
+			for (long key = 1; key <= KEYS_PER_BURST; key++) {
+				results.put(key, new ConcurrentLinkedQueue<>());
+				for (int c = 0; c < CALLERS_PER_KEY; c++) {
+					final long callerKey = key;
+					callers.add(executor.submit(() -> {
+						start.await();
+						results.get(callerKey).add(lookup.apply(callerKey));
+						return null;
+					}));
+				}
+			}
+
+			start.countDown();
+			for (Future<?> caller : callers)
+				caller.get(FOLLOWER_WAIT_MS * 2, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Blocks until the given number of followers have joined in-flight lookups, so that every caller of a burst is
+	 * guaranteed to arrive while the lookup for its key is still running.
+	 *
+	 * @param singleFlight     SingleFlight whose followers are counted
+	 * @param coalescedCallers Number of followers to wait for
+	 * @param timeoutMs        Maximum time to wait for, in milliseconds
+	 */
+	private static void awaitFollowers(SingleFlight<?, ?> singleFlight, long coalescedCallers, long timeoutMs) {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (singleFlight.getCoalescedCalls() < coalescedCallers && System.currentTimeMillis() < deadline)
+			Thread.yield();
+	}
+
+	@Test
+	public void singleLookupPerKeyPerBurstTest() throws Exception {
+		SingleFlight<Long, Long> singleFlight = new SingleFlight<>(UnaryOperator.identity());
+		Map<Long, AtomicInteger> lookupsPerKey = new ConcurrentHashMap<>();
+		final int expectedFollowers = KEYS_PER_BURST * (CALLERS_PER_KEY - 1);
+
+		/*
+		 * Tests that each key is only looked up once per burst, and that every caller receives the value looked up
+		 * for its key. Two bursts are fired, to check that results are not kept once a lookup completes.
+		 */
+		for (int b = 1; b <= 2; b++) {
+			final int burstNum = b;
+			Map<Long, Queue<Long>> results = burst(key -> singleFlight.execute(key, () -> {
+				lookupsPerKey.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+				awaitFollowers(singleFlight, (long) burstNum * expectedFollowers, FOLLOWER_WAIT_MS);
+				return key * 10;
+			}));
+
+			for (long key = 1; key <= KEYS_PER_BURST; key++) {
+				TestCase.assertEquals(burstNum, lookupsPerKey.get(key).get());
+				TestCase.assertEquals(CALLERS_PER_KEY, results.get(key).size());
+				for (Long result : results.get(key))
+					TestCase.assertEquals(Long.valueOf(key * 10), result);
+			}
+		}
+
+		TestCase.assertEquals(2 * KEYS_PER_BURST, singleFlight.getExecutedCalls());
+		TestCase.assertEquals(2 * expectedFollowers, singleFlight.getCoalescedCalls());
+	}
+
+	@Test
+	public void lookupFailureTest() {
+		SingleFlight<Long, Long> singleFlight = new SingleFlight<>(UnaryOperator.identity());
+
+		// Tests that exceptions thrown by a lookup reach the caller, and that the failed lookup is not kept in flight
+		try {
+			singleFlight.execute(1L, () -> {
+				throw new IllegalStateException("Lookup failed");
+			});
+			TestCase.fail("Exception thrown by lookup was not propagated");
+		} catch (IllegalStateException e) {
+			TestCase.assertEquals("Lookup failed", e.getMessage());
+		}
+
+		TestCase.assertEquals(Long.valueOf(1), singleFlight.execute(1L, () -> 1L));
+	}
+
+	@Test
+	public void catalogDAOBurstTest() throws Exception {
+		CatalogDAO catalogDAO = new CatalogDAO();
+		CatalogEntryRepository repository = Mockito.mock(CatalogEntryRepository.class);
+		ReflectionTestUtils.setField(catalogDAO, "catalogEntryRepository", repository);
+
+		@SuppressWarnings("unchecked")
+		SingleFlight<Long, CatalogEntry> singleFlight =
+				(SingleFlight<Long, CatalogEntry>) ReflectionTestUtils.getField(catalogDAO, "findByIdFlight");
+		Mockito.when(repository.findById(Mockito.anyLong())).thenAnswer(invocation -> {
+			awaitFollowers(singleFlight, KEYS_PER_BURST * (CALLERS_PER_KEY - 1), FOLLOWER_WAIT_MS);
+			CatalogEntry entry = new CatalogEntry();
+			entry.setItemName("Item" + invocation.getArgument(0));
+			return Optional.of(entry);
+		});
+
+		// Tests that a burst of catalog lookups only issues one repository query per catalog entry
+		Map<Long, Queue<CatalogEntry>> results = burst(catalogDAO::findById);
+		for (long key = 1; key <= KEYS_PER_BURST; key++) {
+			Mockito.verify(repository, Mockito.times(1)).findById(key);
+			for (CatalogEntry entry : results.get(key))
+				TestCase.assertEquals("Item" + key, entry.getItemName());
+		}
+	}
+
+	@Test
+	public void orderDAOBurstTest() throws Exception {
+		OrderDAO orderDAO = new OrderDAO();
+		OrderRepository repository = Mockito.mock(OrderRepository.class);
+		ReflectionTestUtils.setField(orderDAO, "orderRepository", repository);
+
+		@SuppressWarnings("unchecked")
+		SingleFlight<Long, Order> singleFlight =
+				(SingleFlight<Long, Order>) ReflectionTestUtils.getField(orderDAO, "findByIdFlight");
+		Mockito.when(repository.findById(Mockito.anyLong())).thenAnswer(invocation -> {
+			awaitFollowers(singleFlight, KEYS_PER_BURST * (CALLERS_PER_KEY - 1), FOLLOWER_WAIT_MS);
+			Order order = new Order();
+			order.setPurchaserName("Buyer" + invocation.getArgument(0));
+			order.setItemIDs(new Long[]{invocation.getArgument(0)});
+			order.setItemQuantities(new Long[]{1L});
+			return Optional.of(order);
+		});
+
+		/*
+		 * Tests that a burst of order lookups only issues one repository query per order, and that each caller
+		 * receives its own copy of the order, so that modifying it does not affect other callers.
+		 */
+		Map<Long, Queue<Order>> results = burst(orderDAO::findById);
+		for (long key = 1; key <= KEYS_PER_BURST; key++) {
+			Mockito.verify(repository, Mockito.times(1)).findById(key);
+			TestCase.assertEquals(CALLERS_PER_KEY, results.get(key).stream().distinct().count());
+			for (Order order : results.get(key)) {
+				TestCase.assertEquals("Buyer" + key, order.getPurchaserName());
+				TestCase.assertEquals(Long.valueOf(key), order.getItemIDs()[0]);
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package api;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates values following a Zipfian distribution, where the k-th most popular of n values is drawn with a
+ * probability proportional to 1 / k^s. This models the popularity of catalog items and purchasers, where a handful
+ * of values account for most of the draws, and the rest form a long tail.
+ */
+public class ZipfianGenerator {
+	/**
+	 * Cumulative probability of drawing each rank or a more popular one.
+	 */
+	private final double[] cumulativeProbabilities;
+
+	private final Random random;
+
+	/**
+	 * @param numOfValues Number of distinct values, ranked from 1 (most popular) to numOfValues
+	 * @param exponent    Skew of the distribution. 0 is uniform, and values around 1 are typical of real workloads
+	 * @param random      Source of randomness, seeded so that datasets can be reproduced
+	 */
+	public ZipfianGenerator(int numOfValues, double exponent, Random random) {
+		this.cumulativeProbabilities = new double[numOfValues];
+		this.random = random;
+
+		double sum = 0;
+		for (int rank = 1; rank <= numOfValues; rank++) {
+			sum += 1 / Math.pow(rank, exponent);
+			cumulativeProbabilities[rank - 1] = sum;
+		}
+		for (int i = 0; i < numOfValues; i++)
+			cumulativeProbabilities[i] /= sum;
+	}
+
+	/**
+	 * Draws a rank.
+	 *
+	 * @return Rank between 1 (most popular) and the number of values, inclusive
+	 */
+	public int next() {
+		int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+		return Math.min(cumulativeProbabilities.length, (index < 0 ? -index - 1 : index) + 1);
+	}
+}
@@ -0,0 +1,132 @@
+package api.admission;
+
+import api.catalog.controller.CatalogController;
+import api.order.controller.OrderContoller;
+import api.order.model.Order;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.HandlerMethod;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionControlTest {
+
+	/**
+	 * Creates limiter settings with the given initial limit and latency threshold, and defaults for everything else.
+	 *
+	 * @param initialLimit       Initial concurrency limit
+	 * @param latencyThresholdMs Latency above which the limit is scaled down, in milliseconds
+	 * @return Limiter settings
+	 */
+	private AdmissionProperties.Limiter limiterProperties(int initialLimit, long latencyThresholdMs) {
+		AdmissionProperties.Limiter properties = new AdmissionProperties.Limiter();
+		properties.setInitialLimit(initialLimit);
+		properties.setLatencyThresholdMs(latencyThresholdMs);
+		return properties;
+	}
+
+	/**
+	 * Admits as many high priority requests as the limiter allows.
+	 *
+	 * @param limiter Limiter to saturate
+	 * @return Number of requests admitted
+	 */
+	private int saturate(AdaptiveLimiter limiter) {
+		int admitted = 0;
+		while (limiter.tryAcquire(Priority.HIGH))
+			admitted++;
+		return admitted;
+	}
+
+	@Test
+	public void additiveIncreaseTest() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter("test", limiterProperties(10, 100));
+
+		// Tests that requests are rejected once the limit is reached, and that fast requests raise the limit
+		TestCase.assertEquals(10, saturate(limiter));
+		TestCase.assertEquals(1, limiter.getRejected());
+
+		for (int i = 0; i < 10; i++)
+			limiter.release(TimeUnit.MILLISECONDS.toNanos(1));
+
+		TestCase.assertEquals(0, limiter.getInFlight());
+		TestCase.assertTrue(limiter.getLimit() > 10);
+	}
+
+	@Test
+	public void multiplicativeDecreaseTest() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter("test", limiterProperties(100, 100));
+
+		// Tests that slow requests scale the limit down, but never below the minimum limit
+		TestCase.assertTrue(limiter.tryAcquire(Priority.HIGH));
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(200));
+		TestCase.assertEquals(90, limiter.getLimit());
+
+		for (int i = 0; i < 1000; i++) {
+			TestCase.assertTrue(limiter.tryAcquire(Priority.HIGH));
+			limiter.release(TimeUnit.MILLISECONDS.toNanos(200));
+		}
+		TestCase.assertEquals(1, limiter.getLimit());
+	}
+
+	@Test
+	public void priorityTest() {
+		AdmissionProperties.Limiter properties = limiterProperties(10, 100);
+		properties.setNormalPriorityShare(0.5);
+		AdaptiveLimiter limiter = new AdaptiveLimiter("test", properties);
+
+		/*
+		 * Tests that normal priority requests can only use their share of the limit, while high priority requests can
+		 * still be admitted using the remaining headroom.
+		 */
+		int admitted = 0;
+		while (limiter.tryAcquire(Priority.NORMAL))
+			admitted++;
+		TestCase.assertEquals(5, admitted);
+		TestCase.assertEquals(5, saturate(limiter));
+	}
+
+	@Test
+	public void rejectionResponseTest() throws Exception {
+		AdmissionInterceptor interceptor = new AdmissionInterceptor();
+		AdmissionProperties properties = new AdmissionProperties();
+		properties.setRetryAfterSeconds(3);
+		properties.getLimiters().put("catalog", limiterProperties(2, 100));
+		ReflectionTestUtils.setField(interceptor, "properties", properties);
+
+		HandlerMethod catalogRead = new HandlerMethod(new CatalogController(), CatalogController.class.getMethod(
+				"getCatalogEntryById", Long.class, NativeWebRequest.class
+		));
+		HandlerMethod orderWrite = new HandlerMethod(
+				new OrderContoller(), OrderContoller.class.getMethod("createOrder", Order.class)
+		);
+
+		// Tests that requests are admitted, and their limiter released once they complete
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/catalog/1");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		TestCase.assertTrue(interceptor.preHandle(request, response, catalogRead));
+		TestCase.assertEquals(1, interceptor.getLimiter("catalog").getInFlight());
+		interceptor.afterCompletion(request, response, catalogRead, null);
+		TestCase.assertEquals(0, interceptor.getLimiter("catalog").getInFlight());
+
+		/*
+		 * Tests that once the catalog limit is reached, catalog reads are rejected with a 503 response and a
+		 * 'Retry-After' header, while order requests, which use a separate limiter, are still admitted.
+		 */
+		saturate(interceptor.getLimiter("catalog"));
+		request = new MockHttpServletRequest("GET", "/api/catalog/1");
+		response = new MockHttpServletResponse();
+		TestCase.assertFalse(interceptor.preHandle(request, response, catalogRead));
+		TestCase.assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), response.getStatus());
+		TestCase.assertEquals("3", response.getHeader(HttpHeaders.RETRY_AFTER));
+
+		request = new MockHttpServletRequest("POST", "/api/orders");
+		TestCase.assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), orderWrite));
+	}
+}
@@ -2,21 +2,32 @@ package api.catalog;
 
 import api.DBHandler;
 import api.Main;
+import api.WireFormats;
+import api.catalog.cache.CatalogResponseCache;
+import api.sql.StatementCount;
+import api.sql.StatementCounter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import javax.servlet.http.HttpServletResponse;
+import java.util.List;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 
@@ -36,12 +47,20 @@ public class CatalogIntegrationTest {
 	@Autowired
 	private JdbcTemplate jdbcTemplate;
 
+	@Autowired
+	private CatalogResponseCache responseCache;
+
 	/**
 	 * Specifies number of CRUD operations that the tests will carry out. This also represents the number of entries
 	 * a table will have, since it limits create operations.
 	 */
 	private final int NUM_OF_CRUD_OPS = 100;
 
+	/**
+	 * Maximum number of SQL statements a catalog entry read may issue.
+	 */
+	private final int READ_STATEMENT_BUDGET = 1;
+
 	/**
 	 * Generates placeholder catalog items.
 	 *
@@ -72,6 +91,21 @@ public class CatalogIntegrationTest {
 		).andReturn();
 	}
 
+	/**
+	 * Attempts to retrieve a catalog entry with the specified ID from the database, encoded in the given wire format.
+	 *
+	 * @param itemID    ID of the catalog entry to search for
+	 * @param mediaType Wire format the catalog entry should be returned in
+	 * @return MvcResponse containing the server response to the GET request
+	 * @throws Exception
+	 */
+	private MvcResult findCatalogEntry(int itemID, MediaType mediaType) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.get("/api/catalog/" + itemID)
+									  .accept(mediaType)
+		).andReturn();
+	}
+
 	@Test
 	public void readTest() {
 		// Populate catalog table, so retrieval can be tested
@@ -83,14 +117,15 @@ public class CatalogIntegrationTest {
 		/*
 		 * Tests catalog entry retrieval, by requesting a catalog entry that was previously written to the table, and
 		 * comparing the server response code to the expected value (200 OK), and the returned catalog entry to the
-		 * originally inserted one.
+		 * originally inserted one. Each read must also stay within its statement budget.
 		 */
 		for (int i = 0; i < NUM_OF_CRUD_OPS; i++) {
 			MvcResult result;
-			try {
+			try (StatementCount count = StatementCounter.begin()) {
 				result = findCatalogEntry(i + 1);
 				TestCase.assertEquals(STATUS_OK, result.getResponse().getStatus());
 				TestCase.assertEquals(catalogEntries[i], result.getResponse().getContentAsString());
+				TestCase.assertTrue("Read issued " + count, count.getTotal() <= READ_STATEMENT_BUDGET);
 			} catch (Exception e) {
 				e.printStackTrace();
 				TestCase.fail("Exception occurred while reading catalog table");
@@ -100,4 +135,179 @@ public class CatalogIntegrationTest {
 		// Clear catalog table for next tests to execute on a clean database
 		DBHandler.clearCatalogTable(jdbcTemplate);
 	}
+
+	@Test
+	@DirtiesContext
+	public void binaryReadTest() {
+		// Populate catalog table, so retrieval can be tested
+		DBHandler.populateCatalogTable(NUM_OF_CRUD_OPS, jdbcTemplate);
+
+		// IDs are looked up rather than assumed, since truncating the table does not reset the ID sequence
+		List<Integer> itemIDs = jdbcTemplate.queryForList("select id from catalog order by id", Integer.class);
+
+		final int STATUS_OK = HttpServletResponse.SC_OK;
+		String[] catalogEntries = generateCatalogItems();
+
+		ObjectMapper jsonMapper = new ObjectMapper();
+		ObjectMapper[] binaryMappers = {new ObjectMapper(new CBORFactory()), new ObjectMapper(new SmileFactory())};
+		MediaType[] binaryFormats = {WireFormats.APPLICATION_CBOR, WireFormats.APPLICATION_SMILE};
+
+		/*
+		 * Tests catalog entry retrieval in each binary wire format, by decoding the returned catalog entry and
+		 * comparing it to the originally inserted one.
+		 */
+		for (int i = 0; i < NUM_OF_CRUD_OPS; i++) {
+			for (int f = 0; f < binaryFormats.length; f++) {
+				MvcResult result;
+				try {
+					result = findCatalogEntry(itemIDs.get(i), binaryFormats[f]);
+					TestCase.assertEquals(STATUS_OK, result.getResponse().getStatus());
+					TestCase.assertEquals(
+							jsonMapper.readTree(catalogEntries[i]),
+							binaryMappers[f].readTree(result.getResponse().getContentAsByteArray())
+					);
+				} catch (Exception e) {
+					e.printStackTrace();
+					TestCase.fail("Exception occurred while reading catalog table in " + binaryFormats[f] + " format");
+				}
+			}
+		}
+
+		// Clear catalog table for next tests to execute on a clean database
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+
+	@Test
+	@DirtiesContext
+	public void responseCacheTest() {
+		// Populate catalog table, so retrieval can be tested
+		DBHandler.populateCatalogTable(NUM_OF_CRUD_OPS, jdbcTemplate);
+
+		// IDs are looked up rather than assumed, since truncating the table does not reset the ID sequence
+		List<Integer> itemIDs = jdbcTemplate.queryForList("select id from catalog order by id", Integer.class);
+		String[] catalogEntries = generateCatalogItems();
+
+		try {
+			/*
+			 * Tests that a cached catalog entry is written without querying the database, with the same body and ETag
+			 * as when it was first encoded
+			 */
+			MvcResult first = findCatalogEntry(itemIDs.get(0));
+			String eTag = first.getResponse().getHeader(HttpHeaders.ETAG);
+			TestCase.assertNotNull(eTag);
+			TestCase.assertEquals(catalogEntries[0], first.getResponse().getContentAsString());
+
+			try (StatementCount count = StatementCounter.begin()) {
+				MvcResult cached = findCatalogEntry(itemIDs.get(0));
+				TestCase.assertEquals(HttpServletResponse.SC_OK, cached.getResponse().getStatus());
+				TestCase.assertEquals(catalogEntries[0], cached.getResponse().getContentAsString());
+				TestCase.assertEquals(eTag, cached.getResponse().getHeader(HttpHeaders.ETAG));
+				TestCase.assertEquals(catalogEntries[0].length(), cached.getResponse().getContentLength());
+				TestCase.assertEquals(HttpHeaders.ACCEPT, cached.getResponse().getHeader(HttpHeaders.VARY));
+				TestCase.assertEquals("Cached read issued " + count, 0, count.getTotal());
+			}
+
+			// Tests that clients sending back the ETag receive no body, and that each media type has its own ETag
+			MvcResult notModified = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/catalog/" + itemIDs.get(0))
+										  .accept(APPLICATION_JSON)
+										  .header(HttpHeaders.IF_NONE_MATCH, eTag)
+			).andReturn();
+			TestCase.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.getResponse().getStatus());
+			TestCase.assertEquals(0, notModified.getResponse().getContentAsByteArray().length);
+
+			MvcResult cbor = findCatalogEntry(itemIDs.get(0), WireFormats.APPLICATION_CBOR);
+			TestCase.assertTrue(cbor.getResponse().getContentType().startsWith(WireFormats.APPLICATION_CBOR_VALUE));
+			TestCase.assertFalse(eTag.equals(cbor.getResponse().getHeader(HttpHeaders.ETAG)));
+
+			// Tests that a changed entry is encoded again once it has been invalidated
+			jdbcTemplate.update("update catalog set price = 1000 where id = ?", itemIDs.get(0));
+			TestCase.assertEquals(catalogEntries[0], findCatalogEntry(itemIDs.get(0)).getResponse()
+																					 .getContentAsString());
+			responseCache.invalidate(itemIDs.get(0).longValue());
+			TestCase.assertEquals(catalogEntries[0].replace("\"price\":0", "\"price\":1000"),
+								  findCatalogEntry(itemIDs.get(0)).getResponse().getContentAsString());
+
+			// Tests that the total size of the cached bodies never exceeds the cap
+			long maxBytes = catalogEntries[0].length() * 10;
+			responseCache.invalidateAll();
+			ReflectionTestUtils.setField(responseCache, "maxBytes", maxBytes);
+			for (int i = 0; i < NUM_OF_CRUD_OPS; i++) {
+				TestCase.assertEquals(HttpServletResponse.SC_OK, findCatalogEntry(itemIDs.get(i)).getResponse()
+																							   .getStatus());
+				TestCase.assertTrue(responseCache.getCachedBytes() <= maxBytes);
+			}
+			TestCase.assertTrue(responseCache.getCachedEntries() > 0);
+
+			// Tests that the least recently used entry is evicted first, rather than the least recently cached one
+			responseCache.invalidateAll();
+			ReflectionTestUtils.setField(responseCache, "maxBytes", (long) (catalogEntries[1].length() +
+																		   catalogEntries[2].length() +
+																		   catalogEntries[3].length()));
+			for (int i = 1; i <= 3; i++)
+				findCatalogEntry(itemIDs.get(i));
+			findCatalogEntry(itemIDs.get(1));
+			findCatalogEntry(itemIDs.get(4));
+
+			try (StatementCount count = StatementCounter.begin()) {
+				findCatalogEntry(itemIDs.get(1));
+				TestCase.assertEquals("Recently used entry was evicted", 0, count.getTotal());
+			}
+			try (StatementCount count = StatementCounter.begin()) {
+				findCatalogEntry(itemIDs.get(2));
+				TestCase.assertTrue("Least recently used entry was not evicted", count.getTotal() > 0);
+			}
+
+			// Tests that the cache cannot be managed over the web
+			TestCase.assertEquals(HttpServletResponse.SC_NOT_FOUND, mockMvc.perform(
+					MockMvcRequestBuilders.delete("/actuator/catalogcache")
+			).andReturn().getResponse().getStatus());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while reading cached catalog entries");
+		}
+
+		// Clear catalog table for next tests to execute on a clean database
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+
+	@Test
+	@DirtiesContext
+	public void sparseFieldsetTest() {
+		DBHandler.populateCatalogTable(1, jdbcTemplate);
+		long itemID = jdbcTemplate.queryForObject("select min(id) from catalog", Long.class);
+
+		try {
+			// Tests that only the selected fields are returned, in declaration order regardless of the requested order
+			MvcResult result = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/catalog/" + itemID)
+										  .param("fields", "price,itemName")
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpServletResponse.SC_OK, result.getResponse().getStatus());
+			TestCase.assertEquals("{\"itemName\":\"Item0\",\"price\":0}", result.getResponse().getContentAsString());
+
+			// Tests that selecting a field that does not exist is rejected
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/catalog/" + itemID)
+										  .param("fields", "itemName,color")
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpServletResponse.SC_BAD_REQUEST, result.getResponse().getStatus());
+
+			// Tests that selecting fields of a catalog entry that does not exist still returns 404 Not Found
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/catalog/" + (itemID + 1))
+										  .param("fields", "itemName")
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpServletResponse.SC_NOT_FOUND, result.getResponse().getStatus());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while reading selected catalog entry fields");
+		}
+
+		// Clear catalog table for next tests to execute on a clean database
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
 }
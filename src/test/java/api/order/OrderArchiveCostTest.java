@@ -0,0 +1,159 @@
+package api.order;
+
+import api.order.archive.OrderArchive;
+import api.order.archive.OrderArchiveProperties;
+import api.order.model.Order;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Lookup and storage benchmark of the order archive, which grows an archive through increasing numbers of orders, in
+ * segments of the default batch size. At each size, the size of the segments is recorded, along with the median and
+ * p99 time taken to look up orders in the newest segment, in the oldest segment (which is searched last), at random,
+ * and orders that were never archived. Results are printed, and written to target/scalability/archive.csv.
+ * <p>
+ * The archive is used directly, as the DAO does once an order is not found in the database, with every commit already
+ * known, so that only the cost of searching segments is measured. Like the scalability suite, this takes too long for
+ * regular builds, and only runs in the 'scalability' Maven profile.
+ */
+public class OrderArchiveCostTest {
+	private static final long SEED = 42;
+
+	private static final String ARCHIVE_DIRECTORY = "target/scalability/order-archive";
+
+	/**
+	 * Numbers of archived orders at which lookups are measured.
+	 */
+	private final int[] ARCHIVE_SIZES = {10000, 100000, 1000000};
+
+	/**
+	 * Number of lookups measured per kind of lookup and archive size, and number run before measuring, so that
+	 * measurements are not skewed by class loading and JIT compilation.
+	 */
+	private final int NUM_OF_LOOKUPS = 20000, NUM_OF_WARMUP_LOOKUPS = 5000;
+
+	/**
+	 * Percentiles of the time taken by each lookup.
+	 */
+	private static class Measurement {
+		final long[] sortedNanos;
+
+		Measurement(long[] nanos) {
+			this.sortedNanos = nanos.clone();
+			Arrays.sort(sortedNanos);
+		}
+
+		double percentileUs(double percentile) {
+			int index = (int) Math.ceil(percentile / 100 * sortedNanos.length) - 1;
+			return sortedNanos[Math.max(0, index)] / (double) TimeUnit.MICROSECONDS.toNanos(1);
+		}
+	}
+
+	/**
+	 * @param random Source of randomness
+	 * @param id     ID of the order
+	 * @return Order as the archiver reads it from the database, with a few items
+	 */
+	private Order newOrder(Random random, long id) {
+		int numOfItems = random.nextInt(5) + 1;
+		Long[] itemIDs = new Long[numOfItems], itemQuantities = new Long[numOfItems];
+		for (int i = 0; i < numOfItems; i++) {
+			itemIDs[i] = (long) random.nextInt(1000000) + 1;
+			itemQuantities[i] = (long) random.nextInt(10) + 1;
+		}
+		String purchaserName = "Purchaser" + random.nextInt(100000);
+		return Order.archived(id, Instant.ofEpochMilli(id * 1000), random.nextInt(3), purchaserName, itemIDs,
+							  itemQuantities);
+	}
+
+	/**
+	 * Looks up orders a number of times, first to warm up, then measuring each lookup.
+	 *
+	 * @param archive      Archive to look orders up in
+	 * @param orderIDs     Supplies the ID of each order to look up
+	 * @param expectToFind True if every order looked up must be found, false if none must be
+	 * @return Time taken by each measured lookup
+	 */
+	private Measurement measure(OrderArchive archive, LongSupplier orderIDs, boolean expectToFind) {
+		for (int i = 0; i < NUM_OF_WARMUP_LOOKUPS; i++)
+			archive.findById(orderIDs.getAsLong(), (segment, logicalShard) -> true);
+
+		long[] nanos = new long[NUM_OF_LOOKUPS];
+		for (int i = 0; i < NUM_OF_LOOKUPS; i++) {
+			long id = orderIDs.getAsLong();
+
+			long start = System.nanoTime();
+			Order order = archive.findById(id, (segment, logicalShard) -> true);
+			nanos[i] = System.nanoTime() - start;
+
+			TestCase.assertEquals("Lookup of order " + id, expectToFind, order != null);
+		}
+		return new Measurement(nanos);
+	}
+
+	@Test
+	public void archiveCostTest() {
+		Path resultsFile = Paths.get("target", "scalability", "archive.csv");
+		FileSystemUtils.deleteRecursively(Paths.get(ARCHIVE_DIRECTORY).toFile());
+
+		OrderArchiveProperties properties = new OrderArchiveProperties();
+		properties.setDirectory(ARCHIVE_DIRECTORY);
+
+		try {
+			Files.createDirectories(resultsFile.getParent());
+			OrderArchive archive = new OrderArchive(properties);
+
+			try (PrintWriter results = new PrintWriter(Files.newBufferedWriter(resultsFile))) {
+				results.println("orders,segments,bytes,bytes_per_order,lookup,p50_us,p99_us");
+
+				Random random = new Random(SEED);
+				long archivedOrders = 0;
+				for (int size : ARCHIVE_SIZES) {
+					// Grow the archive to the next size, one segment per batch, as the archiver does
+					while (archivedOrders < size) {
+						List<Order> batch = new ArrayList<>();
+						for (int i = 0; i < properties.getBatchSize() && archivedOrders < size; i++)
+							batch.add(newOrder(random, ++archivedOrders));
+						archive.append(batch);
+					}
+
+					long lastID = archivedOrders, newestFirstID = lastID - properties.getBatchSize() + 1;
+					Map<String, Measurement> lookups = new LinkedHashMap<>();
+					lookups.put("newest", measure(archive, () -> newestFirstID +
+																 random.nextInt(properties.getBatchSize()), true));
+					lookups.put("oldest", measure(archive, () -> 1 + random.nextInt(properties.getBatchSize()), true));
+					lookups.put("random", measure(archive, () -> 1 + (long) (random.nextDouble() * lastID), true));
+					lookups.put("missing", measure(archive, () -> lastID + 1 + random.nextInt(1000000), false));
+
+					for (Map.Entry<String, Measurement> lookup : lookups.entrySet()) {
+						String line = String.format(
+								Locale.ROOT, "%d,%d,%d,%.1f,%s,%.3f,%.3f", archive.getOrderCount(),
+								archive.getSegmentCount(), archive.getSize(),
+								archive.getSize() / (double) archive.getOrderCount(), lookup.getKey(),
+								lookup.getValue().percentileUs(50), lookup.getValue().percentileUs(99)
+						);
+						results.println(line);
+						System.out.println(line);
+					}
+					results.flush();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while measuring the order archive");
+		}
+
+		FileSystemUtils.deleteRecursively(Paths.get(ARCHIVE_DIRECTORY).toFile());
+	}
+}
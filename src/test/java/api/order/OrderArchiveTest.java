@@ -0,0 +1,332 @@
+package api.order;
+
+import api.DBHandler;
+import api.Main;
+import api.order.archive.OrderArchive;
+import api.order.archive.OrderArchiveProperties;
+import api.order.archive.OrderArchiver;
+import api.order.archive.OrderSegment;
+import api.order.dao.OrderDAO;
+import api.order.model.Order;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = Main.class
+)
+@AutoConfigureMockMvc
+@TestPropertySource(
+		locations = "classpath:application-test.properties",
+		properties = {
+				"orders.archive.enabled = true",
+				"orders.archive.directory = " + OrderArchiveTest.ARCHIVE_DIRECTORY,
+				"orders.archive.max-age = 0s",
+				"orders.archive.batch-size = 100"
+		}
+)
+@DirtiesContext
+public class OrderArchiveTest {
+	static final String ARCHIVE_DIRECTORY = "target/order-archive-test";
+
+	/**
+	 * Number of orders created, which spans several segments and several blocks per segment.
+	 */
+	private final int NUM_OF_ORDERS = 250;
+
+	private final int NUM_OF_CATALOG_ITEMS = 10;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private OrderArchive orderArchive;
+
+	@Autowired
+	private OrderArchiver orderArchiver;
+
+	@Autowired
+	private OrderArchiveProperties orderArchiveProperties;
+
+	@Autowired
+	private OrderDAO orderDAO;
+
+	private ObjectMapper jsonMapper = new ObjectMapper();
+
+	/**
+	 * Removes segments left behind by previous runs, before the archive is opened, since order IDs start over with
+	 * every run.
+	 */
+	@BeforeClass
+	public static void clearArchiveDirectory() {
+		FileSystemUtils.deleteRecursively(new File(ARCHIVE_DIRECTORY));
+	}
+
+	/**
+	 * Creates an order for the given purchaser, containing every catalog item, with a different quantity each.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @return ID assigned to the order by the server
+	 * @throws Exception
+	 */
+	private long createOrder(String purchaserName) throws Exception {
+		StringBuilder itemIDs = new StringBuilder(), itemQuantities = new StringBuilder();
+		for (int i = 1; i <= NUM_OF_CATALOG_ITEMS; i++) {
+			itemIDs.append(i > 1 ? "," : "").append(i);
+			itemQuantities.append(i > 1 ? "," : "").append(i * 3);
+		}
+
+		MvcResult result = mockMvc.perform(
+				MockMvcRequestBuilders.post("/api/orders/")
+									  .content("{\"purchaserName\":\"" + purchaserName + "\",\"itemIDs\":[" +
+											   itemIDs + "],\"itemQuantities\":[" + itemQuantities + "]}")
+									  .contentType(APPLICATION_JSON)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+		TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+		return jsonMapper.readTree(result.getResponse().getContentAsString()).get("id").asLong();
+	}
+
+	/**
+	 * Counts the orders still in the database.
+	 *
+	 * @return Number of orders in the database
+	 */
+	private int countOrdersInDatabase() {
+		return jdbcTemplate.queryForObject("select count(*) from orders", Integer.class);
+	}
+
+	/**
+	 * Attempts to retrieve an order with the specified ID from the server.
+	 *
+	 * @param orderID ID of the order to be retrieved
+	 * @return MvcResult containing the server response to the GET request
+	 * @throws Exception
+	 */
+	private MvcResult findOrderByID(long orderID) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.get("/api/orders/" + orderID)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+	}
+
+	@Test
+	public void segmentTest() {
+		try {
+			// Tests that orders written to a segment are read back unchanged, including missing values
+			List<Order> orders = new ArrayList<>();
+			for (long id = 2; id <= 2 * (OrderSegment.ORDERS_PER_BLOCK * 3 + 1); id += 2)
+				orders.add(Order.archived(id, Instant.ofEpochMilli(id * 1000), id % 5, "Purchaser" + id,
+										  new Long[]{id, null}, id % 3 == 0 ? null : new Long[]{1L, 2L}));
+
+			Path file = Files.createTempFile("orders", ".seg");
+			Files.delete(file);
+			OrderSegment.write(file, orders);
+			OrderSegment segment = OrderSegment.open(file);
+
+			TestCase.assertEquals(orders.size(), segment.getOrderCount());
+			for (Order order : orders) {
+				Order read = segment.findById(order.getId());
+				TestCase.assertNotNull(read);
+				TestCase.assertTrue(read.isArchived());
+				TestCase.assertEquals(order.getCreatedAt(), read.getCreatedAt());
+				TestCase.assertEquals(order.getVersion(), read.getVersion());
+				TestCase.assertEquals(order.getPurchaserName(), read.getPurchaserName());
+				TestCase.assertTrue(Arrays.equals(order.getItemIDs(), read.getItemIDs()));
+				TestCase.assertTrue(Arrays.equals(order.getItemQuantities(), read.getItemQuantities()));
+			}
+
+			// Tests that IDs between, before and after those in the segment are not found
+			TestCase.assertNull(segment.findById(1));
+			TestCase.assertNull(segment.findById(3));
+			TestCase.assertNull(segment.findById(orders.get(orders.size() - 1).getId() + 1));
+
+			Files.delete(file);
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while testing order segments");
+		}
+	}
+
+	@Test
+	public void archiveTest() {
+		DBHandler.populateCatalogTable(NUM_OF_CATALOG_ITEMS, jdbcTemplate);
+
+		try {
+			List<Long> orderIDs = new ArrayList<>();
+			List<String> orderBodies = new ArrayList<>(), orderETags = new ArrayList<>();
+			for (int i = 0; i < NUM_OF_ORDERS; i++) {
+				long orderID = createOrder("Buyer" + i);
+				orderIDs.add(orderID);
+
+				// Some orders are updated, so that they are archived at a version other than the first
+				if (i % 10 == 0) {
+					MvcResult result = mockMvc.perform(
+							MockMvcRequestBuilders.put("/api/orders/" + orderID)
+												  .content("{\"purchaserName\":\"UpdatedBuyer" + i + "\"," +
+														   "\"itemIDs\":[1],\"itemQuantities\":[2]}")
+												  .contentType(APPLICATION_JSON)
+												  .accept(APPLICATION_JSON)
+					).andReturn();
+					TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+				}
+
+				MvcResult result = findOrderByID(orderID);
+				orderBodies.add(result.getResponse().getContentAsString());
+				orderETags.add(result.getResponse().getHeader(HttpHeaders.ETAG));
+			}
+
+			/*
+			 * Tests that archiving moves all orders out of the database, in batches of at most 100 orders, and that they
+			 * can still be read as before, with the same ETag
+			 */
+			TestCase.assertEquals(NUM_OF_ORDERS, orderArchiver.archiveOldOrders());
+			TestCase.assertEquals(0, jdbcTemplate.queryForObject("select count(*) from orders", Integer.class)
+												 .intValue());
+			TestCase.assertEquals(3, orderArchive.getSegmentCount());
+			TestCase.assertEquals(NUM_OF_ORDERS, orderArchive.getOrderCount());
+
+			for (int i = 0; i < NUM_OF_ORDERS; i++) {
+				MvcResult result = findOrderByID(orderIDs.get(i));
+				TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+				TestCase.assertEquals(orderBodies.get(i), result.getResponse().getContentAsString());
+				TestCase.assertEquals(orderETags.get(i), result.getResponse().getHeader(HttpHeaders.ETAG));
+			}
+			TestCase.assertEquals("\"1\"", findOrderByID(orderIDs.get(0)).getResponse().getHeader(HttpHeaders.ETAG));
+
+			// Tests that archived orders can no longer be modified, while unknown orders are still not found
+			MvcResult result = mockMvc.perform(
+					MockMvcRequestBuilders.put("/api/orders/" + orderIDs.get(0))
+										  .content("{\"purchaserName\":\"RenamedBuyer\",\"itemIDs\":[1]," +
+												   "\"itemQuantities\":[5]}")
+										  .contentType(APPLICATION_JSON)
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.CONFLICT.value(), result.getResponse().getStatus());
+
+			result = mockMvc.perform(MockMvcRequestBuilders.delete("/api/orders/" + orderIDs.get(0))).andReturn();
+			TestCase.assertEquals(HttpStatus.CONFLICT.value(), result.getResponse().getStatus());
+
+			long unknownOrderID = orderIDs.get(NUM_OF_ORDERS - 1) + 1;
+			TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), findOrderByID(unknownOrderID).getResponse()
+																							 .getStatus());
+			result = mockMvc.perform(MockMvcRequestBuilders.delete("/api/orders/" + unknownOrderID)).andReturn();
+			TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), result.getResponse().getStatus());
+
+			// Tests that new orders are still stored in the database
+			TestCase.assertEquals(HttpStatus.OK.value(), findOrderByID(createOrder("NewBuyer")).getResponse()
+																								.getStatus());
+			TestCase.assertEquals(1, jdbcTemplate.queryForObject("select count(*) from orders", Integer.class)
+												 .intValue());
+
+			// Tests that orders modified since they were read for archiving are left in the database
+			long modifiedOrderID = createOrder("ModifiedBuyer");
+			Order readOrder = orderDAO.findById(modifiedOrderID);
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.put("/api/orders/" + modifiedOrderID)
+										  .content("{\"purchaserName\":\"RenamedBuyer\",\"itemIDs\":[1]," +
+												   "\"itemQuantities\":[5]}")
+										  .contentType(APPLICATION_JSON)
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			OrderSegment segment = orderArchive.append(Collections.singletonList(readOrder));
+			TestCase.assertEquals(0, orderDAO.deleteArchived(segment.getName(), Collections.singletonList(readOrder)));
+			TestCase.assertEquals(2, countOrdersInDatabase());
+			result = findOrderByID(modifiedOrderID);
+			TestCase.assertEquals("RenamedBuyer", jsonMapper.readTree(result.getResponse().getContentAsString())
+															.get("purchaserName").asText());
+
+			/*
+			 * Tests that orders deleted since they were written to a segment are neither deleted by the archiver, nor
+			 * found in the segment afterwards
+			 */
+			long deletedOrderID = createOrder("DeletedBuyer");
+			Order deletedOrder = orderDAO.findById(deletedOrderID);
+			segment = orderArchive.append(Collections.singletonList(deletedOrder));
+			result = mockMvc.perform(MockMvcRequestBuilders.delete("/api/orders/" + deletedOrderID)).andReturn();
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+			TestCase.assertEquals(0, orderDAO.deleteArchived(segment.getName(),
+															 Collections.singletonList(deletedOrder)));
+			TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), findOrderByID(deletedOrderID).getResponse()
+																							 .getStatus());
+			result = mockMvc.perform(MockMvcRequestBuilders.delete("/api/orders/" + deletedOrderID)).andReturn();
+			TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), result.getResponse().getStatus());
+
+			// Tests that orders are not archived while another instance holds the lease, until it expires
+			jdbcTemplate.update("update order_archiver_lease set owner = 'OtherInstance', expires_at = ?",
+								Timestamp.from(Instant.now().plus(Duration.ofHours(1))));
+			TestCase.assertEquals(0, orderArchiver.archiveOldOrders());
+			TestCase.assertEquals(2, countOrdersInDatabase());
+
+			jdbcTemplate.update("update order_archiver_lease set expires_at = ?",
+								Timestamp.from(Instant.now().minus(Duration.ofSeconds(1))));
+			TestCase.assertEquals(2, orderArchiver.archiveOldOrders());
+			TestCase.assertEquals(0, countOrdersInDatabase());
+			result = findOrderByID(modifiedOrderID);
+			TestCase.assertEquals("RenamedBuyer", jsonMapper.readTree(result.getResponse().getContentAsString())
+															.get("purchaserName").asText());
+
+			/*
+			 * Tests that orders archived by another instance sharing the archive directory are found, and that
+			 * segment names never collide
+			 */
+			int segmentCount = orderArchive.getSegmentCount();
+			OrderArchive otherArchive = new OrderArchive(orderArchiveProperties);
+			List<Long> otherOrderIDs = new ArrayList<>();
+			for (int i = 0; i < 2; i++) {
+				Order otherOrder = orderDAO.findById(createOrder("OtherBuyer" + i));
+				otherOrderIDs.add(otherOrder.getId());
+				List<Order> otherBatch = Collections.singletonList(otherOrder);
+				TestCase.assertEquals(1, orderDAO.deleteArchived(otherArchive.append(otherBatch).getName(),
+																 otherBatch));
+			}
+
+			for (long otherOrderID : otherOrderIDs)
+				TestCase.assertEquals(HttpStatus.OK.value(), findOrderByID(otherOrderID).getResponse().getStatus());
+			TestCase.assertEquals(segmentCount + 2, orderArchive.getSegmentCount());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while testing the order archive");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+}
@@ -0,0 +1,341 @@
+package api.order;
+
+import api.DBHandler;
+import api.Main;
+import api.order.changes.OrderChangeFeed;
+import api.order.changes.OrderChangeType;
+import api.order.model.Order;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = Main.class
+)
+@AutoConfigureMockMvc
+@TestPropertySource(
+		locations = "classpath:application-test.properties",
+		properties = {
+				"orders.changes.capacity = " + OrderChangeFeedTest.FEED_CAPACITY,
+				"orders.changes.send-timeout-ms = " + OrderChangeFeedTest.SEND_TIMEOUT_MS
+		}
+)
+@DirtiesContext
+public class OrderChangeFeedTest {
+	/**
+	 * Number of changes kept by the feed, kept small so that overruns are easy to trigger.
+	 */
+	static final int FEED_CAPACITY = 8;
+
+	/**
+	 * Time after which subscribers still waiting for an event to be sent are dropped, in milliseconds.
+	 */
+	static final long SEND_TIMEOUT_MS = 200;
+
+	/**
+	 * Time left for sends to subscribers that stopped reading to block, in milliseconds.
+	 */
+	private final long STALL_MS = 1000;
+
+	/**
+	 * Number of subscribers that stop reading, more than the feed has sender threads, and size of the purchaser names
+	 * of the changes sent to them, large enough for a few changes to fill the socket buffers of their connections.
+	 */
+	private final int NUM_OF_STALLED_SUBSCRIBERS = 8, LARGE_NAME_LENGTH = 1 << 20;
+
+	/**
+	 * Time to wait for events to be streamed, in milliseconds.
+	 */
+	private final long EVENT_TIMEOUT_MS = 5000;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private OrderChangeFeed orderChangeFeed;
+
+	@LocalServerPort
+	private int port;
+
+	private ObjectMapper jsonMapper = new ObjectMapper();
+
+	/**
+	 * Subscribes to the order change feed.
+	 *
+	 * @param lastEventID ID of the last event received, or null to only receive new changes
+	 * @return MvcResult whose response receives the streamed events
+	 * @throws Exception
+	 */
+	private MvcResult subscribe(String lastEventID) throws Exception {
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get("/api/orders/changes")
+																	  .accept(MediaType.TEXT_EVENT_STREAM);
+		if (lastEventID != null)
+			request.header("Last-Event-ID", lastEventID);
+
+		MvcResult result = mockMvc.perform(request).andReturn();
+		TestCase.assertTrue(result.getRequest().isAsyncStarted());
+		return result;
+	}
+
+	/**
+	 * @param eventID ID of an event, made of the epoch of the feed and the sequence number of its change
+	 * @return Sequence number of the change of the event
+	 */
+	private long sequenceOf(String eventID) {
+		return Long.parseLong(eventID.substring(eventID.lastIndexOf('-') + 1));
+	}
+
+	/**
+	 * Parses the server-sent events streamed so far.
+	 *
+	 * @param stream Content of the event stream
+	 * @return Fields of each complete event, by name
+	 */
+	private List<Map<String, String>> parseEvents(String stream) {
+		List<Map<String, String>> events = new ArrayList<>();
+		for (String block : stream.split("\n\n")) {
+			if (!stream.contains(block + "\n\n"))
+				continue; // Event not fully streamed yet
+
+			Map<String, String> event = new HashMap<>();
+			for (String line : block.split("\n"))
+				if (line.indexOf(':') > 0)
+					event.put(line.substring(0, line.indexOf(':')), line.substring(line.indexOf(':') + 1));
+			events.add(event);
+		}
+		return events;
+	}
+
+	/**
+	 * Waits until a subscriber has received a number of events.
+	 *
+	 * @param subscription Subscription to the change feed
+	 * @param numOfEvents  Number of events to wait for
+	 * @return Events received, which may be fewer than expected if they did not arrive in time
+	 * @throws Exception
+	 */
+	private List<Map<String, String>> awaitEvents(MvcResult subscription, int numOfEvents) throws Exception {
+		long deadline = System.currentTimeMillis() + EVENT_TIMEOUT_MS;
+		List<Map<String, String>> events = parseEvents(subscription.getResponse().getContentAsString());
+		while (events.size() < numOfEvents && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			events = parseEvents(subscription.getResponse().getContentAsString());
+		}
+		return events;
+	}
+
+	/**
+	 * Subscribes to the order change feed over a connection whose client never reads the events streamed to it.
+	 *
+	 * @return Socket of the connection
+	 * @throws Exception
+	 */
+	private Socket subscribeWithoutReading() throws Exception {
+		Socket socket = new Socket();
+		socket.setReceiveBufferSize(4096); // Must be set before connecting to limit the window advertised to the server
+		socket.connect(new InetSocketAddress("localhost", port));
+
+		OutputStream out = socket.getOutputStream();
+		out.write(("GET /api/orders/changes HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n\r\n")
+						  .getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		return socket;
+	}
+
+	/**
+	 * Waits until the change feed has a number of subscribers.
+	 *
+	 * @param numOfSubscribers Number of subscribers to wait for
+	 * @throws InterruptedException
+	 */
+	private void awaitSubscriberCount(int numOfSubscribers) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + EVENT_TIMEOUT_MS;
+		while (orderChangeFeed.getSubscriberCount() != numOfSubscribers && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+	}
+
+	/**
+	 * Creates an order containing a single catalog item.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @param itemID        ID of the catalog item to order
+	 * @return ID assigned to the order by the server
+	 * @throws Exception
+	 */
+	private long createOrder(String purchaserName, long itemID) throws Exception {
+		MvcResult result = mockMvc.perform(
+				MockMvcRequestBuilders.post("/api/orders/")
+									  .content("{\"purchaserName\":\"" + purchaserName + "\",\"itemIDs\":[" +
+											   itemID + "],\"itemQuantities\":[1]}")
+									  .contentType(APPLICATION_JSON)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+		TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+		return jsonMapper.readTree(result.getResponse().getContentAsString()).get("id").asLong();
+	}
+
+	@Test
+	public void changeFeedTest() {
+		DBHandler.populateCatalogTable(1, jdbcTemplate);
+		long itemID = jdbcTemplate.queryForObject("select min(id) from catalog", Long.class);
+
+		try {
+			// Tests that creating, updating and deleting an order each stream an event, in order
+			MvcResult subscription = subscribe(null);
+
+			long orderID = createOrder("Buyer", itemID);
+			mockMvc.perform(
+					MockMvcRequestBuilders.put("/api/orders/" + orderID)
+										  .content("{\"purchaserName\":\"RenamedBuyer\",\"itemIDs\":[" + itemID +
+												   "],\"itemQuantities\":[2]}")
+										  .contentType(APPLICATION_JSON)
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			mockMvc.perform(MockMvcRequestBuilders.delete("/api/orders/" + orderID)).andReturn();
+
+			List<Map<String, String>> events = awaitEvents(subscription, 3);
+			TestCase.assertEquals(3, events.size());
+			String[] expectedTypes = {"created", "updated", "deleted"};
+			String firstEventID = events.get(0).get("id");
+			TestCase.assertTrue(firstEventID.startsWith(orderChangeFeed.getEpoch() + "-"));
+			for (int i = 0; i < events.size(); i++) {
+				TestCase.assertEquals(expectedTypes[i], events.get(i).get("event"));
+				TestCase.assertEquals(sequenceOf(firstEventID) + i, sequenceOf(events.get(i).get("id")));
+
+				JsonNode change = jsonMapper.readTree(events.get(i).get("data"));
+				TestCase.assertEquals(orderID, change.get("orderID").asLong());
+				TestCase.assertEquals(i < 2, change.has("order"));
+			}
+			TestCase.assertEquals("RenamedBuyer", jsonMapper.readTree(events.get(1).get("data")).get("order")
+															.get("purchaserName").asText());
+
+			// Tests that a client reconnecting with the ID of the last event it received gets the changes it missed
+			events = awaitEvents(subscribe(firstEventID), 2);
+			TestCase.assertEquals(2, events.size());
+			TestCase.assertEquals("updated", events.get(0).get("event"));
+			TestCase.assertEquals("deleted", events.get(1).get("event"));
+
+			/*
+			 * Tests that a client reconnecting after the changes it missed have been overwritten is told so, and
+			 * resumes from the oldest change still in the feed
+			 */
+			for (int i = 0; i < FEED_CAPACITY; i++)
+				createOrder("Buyer" + i, itemID);
+
+			events = awaitEvents(subscribe(firstEventID), FEED_CAPACITY + 1);
+			TestCase.assertEquals(FEED_CAPACITY + 1, events.size());
+			TestCase.assertEquals("overrun", events.get(0).get("event"));
+			for (int i = 1; i <= FEED_CAPACITY; i++)
+				TestCase.assertEquals("created", events.get(i).get("event"));
+
+			/*
+			 * Tests that a client reconnecting with the ID of an event sent before a restart, or by another instance,
+			 * is told that it may have missed changes, even if the sequence number is still in the feed, and that
+			 * reconnecting with the ID of the overrun event resumes without another overrun
+			 */
+			String otherEpochEventID = "0" + orderChangeFeed.getEpoch() + "-" + orderChangeFeed.getLastSequence();
+			for (String eventID : new String[]{otherEpochEventID, String.valueOf(orderChangeFeed.getLastSequence())}) {
+				events = awaitEvents(subscribe(eventID), FEED_CAPACITY + 1);
+				TestCase.assertEquals(FEED_CAPACITY + 1, events.size());
+				TestCase.assertEquals("overrun", events.get(0).get("event"));
+			}
+
+			events = awaitEvents(subscribe(events.get(0).get("id")), FEED_CAPACITY);
+			TestCase.assertEquals(FEED_CAPACITY, events.size());
+			TestCase.assertTrue(events.stream().noneMatch(event -> "overrun".equals(event.get("event"))));
+
+			// Tests that the first subscriber, which kept up, received every change without any overrun
+			events = awaitEvents(subscription, FEED_CAPACITY + 3);
+			TestCase.assertEquals(FEED_CAPACITY + 3, events.size());
+			TestCase.assertTrue(events.stream().noneMatch(event -> "overrun".equals(event.get("event"))));
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while testing the order change feed");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+
+	@Test
+	public void stalledSubscriberTest() {
+		List<Socket> stalledSockets = new ArrayList<>();
+		try {
+			int initialSubscriberCount = orderChangeFeed.getSubscriberCount();
+			for (int i = 0; i < NUM_OF_STALLED_SUBSCRIBERS; i++)
+				stalledSockets.add(subscribeWithoutReading());
+			awaitSubscriberCount(initialSubscriberCount + NUM_OF_STALLED_SUBSCRIBERS);
+			TestCase.assertEquals(initialSubscriberCount + NUM_OF_STALLED_SUBSCRIBERS,
+								  orderChangeFeed.getSubscriberCount());
+
+			// Publishes more large changes than the connections of the stalled subscribers can buffer
+			Order largeOrder = new Order();
+			largeOrder.setPurchaserName(String.join("", Collections.nCopies(LARGE_NAME_LENGTH, "x")));
+			largeOrder.setItemIDs(new Long[]{1L});
+			largeOrder.setItemQuantities(new Long[]{1L});
+			for (long orderID = 1; orderID <= 2 * FEED_CAPACITY; orderID++)
+				orderChangeFeed.publish(OrderChangeType.UPDATED, orderID, largeOrder);
+			Thread.sleep(STALL_MS);
+
+			MvcResult subscription = subscribe(null);
+			Order marker = new Order();
+			marker.setPurchaserName("MarkerBuyer");
+			marker.setItemIDs(new Long[]{1L});
+			marker.setItemQuantities(new Long[]{1L});
+			orderChangeFeed.publish(OrderChangeType.CREATED, 2L * FEED_CAPACITY + 1, marker);
+
+			// Tests that the subscriber that keeps up receives the last change, despite the stalled subscribers
+			long deadline = System.currentTimeMillis() + EVENT_TIMEOUT_MS;
+			while (!subscription.getResponse().getContentAsString().contains("MarkerBuyer") &&
+				   System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			TestCase.assertTrue(subscription.getResponse().getContentAsString().contains("MarkerBuyer"));
+
+			// Tests that the stalled subscribers were dropped
+			awaitSubscriberCount(initialSubscriberCount + 1);
+			TestCase.assertEquals(initialSubscriberCount + 1, orderChangeFeed.getSubscriberCount());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while testing stalled subscribers of the order change feed");
+		} finally {
+			for (Socket socket : stalledSockets) {
+				try {
+					socket.close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package api.order;
+
+import api.DBHandler;
+import api.Main;
+import api.catalog.dao.CatalogDAO;
+import api.order.dao.OrderDAO;
+import api.order.model.Order;
+import api.order.repository.OrderRepository;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contention benchmark, comparing two ways of applying concurrent read-modify-write updates to a small set of hot
+ * orders:
+ * <ul>
+ * <li>optimistic: the order is read, validated, and then replaced with a single conditional UPDATE on the version that
+ * was read, retrying from the read if another writer got there first, as clients sending 'If-Match' headers would</li>
+ * <li>locking: the order is read with a pessimistic write lock, validated, and then replaced, in a transaction that
+ * holds the row lock from the read until the commit</li>
+ * </ul>
+ * Both approaches issue the same validation query between the read and the write, and the optimistic one also reloads
+ * the updated order, as the order controller does. Every combination of writer threads and hot orders is measured, and
+ * checked for lost updates. Results are printed, and written to target/scalability/contention.csv.
+ * <p>
+ * Like the scalability suite, this takes too long for regular builds, and only runs in the 'scalability' Maven profile.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Main.class)
+@TestPropertySource(
+		locations = "classpath:application-test.properties",
+		properties = "spring.datasource.hikari.maximum-pool-size = 20"
+)
+@DirtiesContext
+public class OrderContentionTest {
+	/**
+	 * Numbers of concurrent writers, all below the connection pool size, so that writers only wait for each other.
+	 */
+	private final int[] NUM_OF_THREADS = {1, 4, 16};
+
+	/**
+	 * Numbers of orders the writers spread their updates over, from all writers updating the same order to writers
+	 * rarely colliding.
+	 */
+	private final int[] NUM_OF_HOT_ORDERS = {1, 16, 256};
+
+	/**
+	 * Number of updates measured per approach and combination, and number applied before measuring, so that
+	 * measurements are not skewed by class loading and JIT compilation.
+	 */
+	private final int NUM_OF_UPDATES = 5000, NUM_OF_WARMUP_UPDATES = 1000;
+
+	private final int NUM_OF_CATALOG_ENTRIES = 100, ITEMS_PER_ORDER = 10;
+
+	/**
+	 * Time H2 waits for a row lock before failing the statement, in milliseconds, raised from its 1 second default so
+	 * that locking writers queue instead of failing under contention.
+	 */
+	private final int LOCK_TIMEOUT_MS = 60000;
+
+	@Autowired
+	private OrderDAO orderDAO;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private CatalogDAO catalogDAO;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	/**
+	 * Applies an update to an order, as one of the compared approaches does.
+	 */
+	private interface Writer {
+		/**
+		 * @param id       ID of the order to update
+		 * @param newOrder New contents of the order
+		 * @return Number of times the update had to be retried
+		 */
+		int update(long id, Order newOrder);
+	}
+
+	/**
+	 * Throughput, latency percentiles and retries of the updates applied with one approach.
+	 */
+	private static class Measurement {
+		final long[] sortedLatenciesNanos;
+
+		final long elapsedNanos, retries;
+
+		Measurement(long[] latenciesNanos, long elapsedNanos, long retries) {
+			this.sortedLatenciesNanos = latenciesNanos.clone();
+			Arrays.sort(sortedLatenciesNanos);
+			this.elapsedNanos = elapsedNanos;
+			this.retries = retries;
+		}
+
+		double percentileMs(double percentile) {
+			int index = (int) Math.ceil(percentile / 100 * sortedLatenciesNanos.length) - 1;
+			return sortedLatenciesNanos[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		}
+
+		double updatesPerSecond() {
+			return sortedLatenciesNanos.length / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+		}
+	}
+
+	/**
+	 * Reads the order, validates its new contents, and replaces it only if it is still at the version that was read,
+	 * starting over otherwise.
+	 */
+	private int updateOptimistically(long id, Order newOrder) {
+		for (int retries = 0; ; retries++) {
+			Order order = orderRepository.findById(id).orElseThrow(IllegalStateException::new);
+			if (!catalogDAO.existAllById(newOrder.getItemIDs()))
+				throw new IllegalStateException("Order is invalid");
+			if (orderDAO.updateIfVersionMatches(id, Collections.singletonList(order.getVersion()), newOrder) != null)
+				return retries;
+		}
+	}
+
+	/**
+	 * Reads the order with a write lock, validates its new contents, and replaces it, holding the lock until the
+	 * transaction commits.
+	 */
+	private int updateWithLock(long id, Order newOrder) {
+		new TransactionTemplate(transactionManager).execute(status -> {
+			Order order = entityManager.find(Order.class, id, LockModeType.PESSIMISTIC_WRITE);
+			if (!catalogDAO.existAllById(newOrder.getItemIDs()))
+				throw new IllegalStateException("Order is invalid");
+			order.setPurchaserName(newOrder.getPurchaserName());
+			order.setItemIDs(newOrder.getItemIDs());
+			order.setItemQuantities(newOrder.getItemQuantities());
+			return null;
+		});
+		return 0;
+	}
+
+	/**
+	 * @param random Source of randomness of the current thread
+	 * @param update Sequence number of the update, made part of the purchaser name so that every update changes the
+	 *               order
+	 * @return New contents for an order
+	 */
+	private Order newOrder(Random random, int update) {
+		Long[] itemIDs = new Long[ITEMS_PER_ORDER], itemQuantities = new Long[ITEMS_PER_ORDER];
+		for (int i = 0; i < ITEMS_PER_ORDER; i++) {
+			itemIDs[i] = (long) random.nextInt(NUM_OF_CATALOG_ENTRIES) + 1;
+			itemQuantities[i] = (long) random.nextInt(10) + 1;
+		}
+
+		Order order = new Order();
+		order.setPurchaserName("ContentionBuyer" + update);
+		order.setItemIDs(itemIDs);
+		order.setItemQuantities(itemQuantities);
+		return order;
+	}
+
+	/**
+	 * @return Sum of the versions of all orders, which grows by exactly one for every update applied
+	 */
+	private long sumOfVersions() {
+		return jdbcTemplate.queryForObject("select coalesce(sum(version), 0) from orders", Long.class);
+	}
+
+	/**
+	 * Applies updates to randomly picked hot orders from concurrent writers.
+	 *
+	 * @param writer       Approach the updates are applied with
+	 * @param orderIDs     IDs of the hot orders
+	 * @param numOfThreads Number of concurrent writers
+	 * @param numOfUpdates Number of updates applied, shared between the writers
+	 * @return Measurement of the updates
+	 * @throws Exception If a writer fails
+	 */
+	private Measurement run(Writer writer, List<Long> orderIDs, int numOfThreads, int numOfUpdates)
+			throws Exception {
+		ExecutorService writers = Executors.newFixedThreadPool(numOfThreads);
+		AtomicInteger next = new AtomicInteger();
+		AtomicLong retries = new AtomicLong();
+		long[] latenciesNanos = new long[numOfUpdates];
+
+		try {
+			long start = System.nanoTime();
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < numOfThreads; i++) {
+				results.add(writers.submit(() -> {
+					Random random = ThreadLocalRandom.current();
+					for (int update; (update = next.getAndIncrement()) < numOfUpdates; ) {
+						long id = orderIDs.get(random.nextInt(orderIDs.size()));
+						Order newOrder = newOrder(random, update);
+
+						long updateStart = System.nanoTime();
+						retries.addAndGet(writer.update(id, newOrder));
+						latenciesNanos[update] = System.nanoTime() - updateStart;
+					}
+				}));
+			}
+			for (Future<?> result : results)
+				result.get();
+
+			return new Measurement(latenciesNanos, System.nanoTime() - start, retries.get());
+		} finally {
+			writers.shutdownNow();
+		}
+	}
+
+	@Test
+	public void contentionTest() {
+		Path resultsFile = Paths.get("target", "scalability", "contention.csv");
+
+		DBHandler.populateCatalogTable(NUM_OF_CATALOG_ENTRIES, jdbcTemplate);
+		jdbcTemplate.execute("set default_lock_timeout " + LOCK_TIMEOUT_MS);
+
+		Map<String, Writer> approaches = new LinkedHashMap<>();
+		approaches.put("optimistic", this::updateOptimistically);
+		approaches.put("locking", this::updateWithLock);
+
+		try {
+			Files.createDirectories(resultsFile.getParent());
+			try (PrintWriter results = new PrintWriter(Files.newBufferedWriter(resultsFile))) {
+				results.println("approach,threads,hot_orders,updates,retries,updates_per_s,p50_ms,p99_ms,max_ms");
+
+				Random random = new Random();
+				for (int numOfHotOrders : NUM_OF_HOT_ORDERS) {
+					List<Long> orderIDs = new ArrayList<>();
+					for (int i = 0; i < numOfHotOrders; i++)
+						orderIDs.add(orderDAO.save(newOrder(random, -1)).getId());
+
+					for (int numOfThreads : NUM_OF_THREADS) {
+						for (Map.Entry<String, Writer> approach : approaches.entrySet()) {
+							run(approach.getValue(), orderIDs, numOfThreads, NUM_OF_WARMUP_UPDATES);
+
+							// Tests that no update was lost, whichever approach applied it
+							long versionsBefore = sumOfVersions();
+							Measurement measurement = run(approach.getValue(), orderIDs, numOfThreads,
+														  NUM_OF_UPDATES);
+							TestCase.assertEquals(versionsBefore + NUM_OF_UPDATES, sumOfVersions());
+
+							String line = String.format(
+									Locale.ROOT, "%s,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f", approach.getKey(),
+									numOfThreads, numOfHotOrders, NUM_OF_UPDATES, measurement.retries,
+									measurement.updatesPerSecond(), measurement.percentileMs(50),
+									measurement.percentileMs(99), measurement.percentileMs(100)
+							);
+							results.println(line);
+							System.out.println(line);
+						}
+					}
+					results.flush();
+
+					DBHandler.clearOrdersTable(jdbcTemplate);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while writing contention results");
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while measuring contention");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+}
@@ -2,6 +2,14 @@ package api.order;
 
 import api.DBHandler;
 import api.Main;
+import api.WireFormats;
+import api.sql.StatementCount;
+import api.sql.StatementCounter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -9,6 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
@@ -17,6 +26,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.util.Locale;
 import java.util.Random;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON;
@@ -48,6 +58,18 @@ public class OrderIntegrationTest {
 	 */
 	private final int MAX_ITEMS_PER_ORDER = 100;
 
+	/**
+	 * Order sizes (in number of distinct items) used to compare the binary wire formats against JSON.
+	 */
+	private final int[] WIRE_FORMAT_ORDER_SIZES = {10, 100, 1000};
+
+	/**
+	 * Maximum number of SQL statements each order operation may issue, regardless of the number of items in the order.
+	 * Exceeding these fails the build, so that N+1 query patterns are caught as soon as they are introduced.
+	 */
+	private final int CREATE_STATEMENT_BUDGET = 2, READ_STATEMENT_BUDGET = 1, UPDATE_STATEMENT_BUDGET = 3,
+			DELETE_STATEMENT_BUDGET = 1;
+
 	private Random rand = new Random();
 
 	/**
@@ -104,6 +126,25 @@ public class OrderIntegrationTest {
 		return strBuilder.toString();
 	}
 
+	/**
+	 * Generates an order containing the first 'itemsInOrder' catalog items, each with a random quantity.
+	 *
+	 * @param orderID      ID of the order to be created (server will ignore it and assign its own)
+	 * @param itemsInOrder Number of distinct items the order will contain
+	 * @return Generated order, in JSON format
+	 */
+	private String genJSONOrderOfSize(int orderID, int itemsInOrder) {
+		StringBuilder itemIDs = new StringBuilder(), itemQuantities = new StringBuilder();
+
+		for (int i = 0; i < itemsInOrder; i++) {
+			itemIDs.append(i > 0 ? "," : "").append(i + 1);
+			itemQuantities.append(i > 0 ? "," : "").append(rand.nextInt(MAX_ITEMS_PER_ORDER) + 1);
+		}
+
+		return "{\"id\":" + orderID + ",\"purchaserName\":\"TestBuyer\",\"itemIDs\":[" + itemIDs +
+			   "],\"itemQuantities\":[" + itemQuantities + "]}";
+	}
+
 	/**
 	 * Generates as many random orders as CRUD operations are to be carried out, and returns them as an array of JSON
 	 * strings.
@@ -135,6 +176,20 @@ public class OrderIntegrationTest {
 		return new StringBuilder(orderJSON).delete(1, pos).toString();
 	}
 
+	/**
+	 * Tests that no statement issued while a count was open read the item columns of orders, as when only the fields
+	 * held by order summaries are selected.
+	 *
+	 * @param count Count of the statements issued
+	 */
+	private void assertNoItemColumns(StatementCount count) {
+		for (String statement : count.getStatements()) {
+			String sql = statement.toLowerCase(Locale.ROOT);
+			TestCase.assertFalse("Read items with " + statement, sql.contains("item_ids"));
+			TestCase.assertFalse("Read items with " + statement, sql.contains("item_quantities"));
+		}
+	}
+
 	/**
 	 * Submits an order to the server, for storage in the database.
 	 *
@@ -151,6 +206,23 @@ public class OrderIntegrationTest {
 		).andReturn();
 	}
 
+	/**
+	 * Submits an order encoded in the given wire format to the server, and requests the response in the same format.
+	 *
+	 * @param order     Order to be stored in the database, encoded in the given wire format
+	 * @param mediaType Wire format the order is encoded in
+	 * @return MvcResult containing the server response to the POST request
+	 * @throws Exception
+	 */
+	private MvcResult createOrder(byte[] order, MediaType mediaType) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.post("/api/orders/")
+									  .content(order)
+									  .contentType(mediaType)
+									  .accept(mediaType)
+		).andReturn();
+	}
+
 	/**
 	 * Attempts to retrieve an order with the specified ID from the server.
 	 *
@@ -165,6 +237,41 @@ public class OrderIntegrationTest {
 		).andReturn();
 	}
 
+	/**
+	 * Attempts to retrieve an order with the specified ID from the server, encoded in the given wire format.
+	 *
+	 * @param orderID   ID of the order to be retrieved
+	 * @param mediaType Wire format the order should be returned in
+	 * @return MvcResult containing the server response to the GET request
+	 * @throws Exception
+	 */
+	private MvcResult findOrderByID(int orderID, MediaType mediaType) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.get("/api/orders/" + orderID)
+									  .accept(mediaType)
+		).andReturn();
+	}
+
+	/**
+	 * Attempts to update (replace) an order with the specified ID, with a new order, only if it is still at the version
+	 * named by the given entity tag.
+	 *
+	 * @param orderID      ID of the order to be updated
+	 * @param newOrderJSON Order to replace the old order, in JSON format
+	 * @param ifMatch      Value of the 'If-Match' header
+	 * @return MvcResult containing the server response to the PUT request
+	 * @throws Exception
+	 */
+	private MvcResult updateOrder(int orderID, String newOrderJSON, String ifMatch) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.put("/api/orders/" + orderID)
+									  .header("If-Match", ifMatch)
+									  .content(newOrderJSON)
+									  .contentType(APPLICATION_JSON)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+	}
+
 	/**
 	 * Attempts to update (replace) an order with the specified ID, with a new order.
 	 *
@@ -380,4 +487,301 @@ public class OrderIntegrationTest {
 		// Clear catalog table for next tests to execute on a clean database
 		DBHandler.clearCatalogTable(jdbcTemplate);
 	}
+
+	@Test
+	@DirtiesContext
+	public void binaryWireFormatTest() {
+		DBHandler.populateCatalogTable(WIRE_FORMAT_ORDER_SIZES[WIRE_FORMAT_ORDER_SIZES.length - 1], jdbcTemplate);
+
+		ObjectMapper jsonMapper = new ObjectMapper();
+		ObjectMapper[] binaryMappers = {new ObjectMapper(new CBORFactory()), new ObjectMapper(new SmileFactory())};
+		MediaType[] binaryFormats = {WireFormats.APPLICATION_CBOR, WireFormats.APPLICATION_SMILE};
+
+		/*
+		 * Tests that orders of increasing size can be created and retrieved in each binary wire format, that the
+		 * encoded payloads are smaller than their JSON equivalents, and that the server returns the same order that
+		 * was submitted (minus the server assigned ID).
+		 */
+		int orderID = 0;
+		for (int orderSize : WIRE_FORMAT_ORDER_SIZES) {
+			for (int f = 0; f < binaryFormats.length; f++) {
+				orderID++;
+				try {
+					String orderJSON = genJSONOrderOfSize(orderID, orderSize);
+					ObjectNode order = (ObjectNode) jsonMapper.readTree(orderJSON);
+					byte[] payload = binaryMappers[f].writeValueAsBytes(order);
+					TestCase.assertTrue(payload.length < orderJSON.getBytes().length);
+
+					MvcResult result = createOrder(payload, binaryFormats[f]);
+					TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+					TestCase.assertTrue(binaryFormats[f].isCompatibleWith(
+							MediaType.valueOf(result.getResponse().getContentType())));
+
+					ObjectNode created = (ObjectNode) binaryMappers[f].readTree(
+							result.getResponse().getContentAsByteArray());
+					int createdID = created.get("id").asInt();
+					order.remove("id");
+					created.remove("id");
+					TestCase.assertEquals(order, created);
+
+					result = findOrderByID(createdID, binaryFormats[f]);
+					TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+					JsonNode retrieved = binaryMappers[f].readTree(result.getResponse().getContentAsByteArray());
+					TestCase.assertEquals(createdID, retrieved.get("id").asInt());
+				} catch (Exception e) {
+					e.printStackTrace();
+					TestCase.fail("Exception occurred while creating or reading order with " + orderSize +
+								  " items in " + binaryFormats[f] + " format");
+				}
+			}
+		}
+
+		// Clear catalog table for next tests to execute on a clean database
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+
+	@Test
+	@DirtiesContext
+	public void statementBudgetTest() {
+		DBHandler.populateCatalogTable(WIRE_FORMAT_ORDER_SIZES[WIRE_FORMAT_ORDER_SIZES.length - 1], jdbcTemplate);
+
+		ObjectMapper jsonMapper = new ObjectMapper();
+
+		/*
+		 * Tests that creating, reading, updating and deleting orders of increasing size stays within the statement
+		 * budget of each operation, so that the number of statements issued does not grow with the number of items.
+		 */
+		for (int orderSize : WIRE_FORMAT_ORDER_SIZES) {
+			try {
+				MvcResult result;
+				int orderID;
+
+				try (StatementCount count = StatementCounter.begin()) {
+					result = createOrder(genJSONOrderOfSize(0, orderSize));
+					TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+					TestCase.assertTrue("Create issued " + count, count.getTotal() <= CREATE_STATEMENT_BUDGET);
+					TestCase.assertEquals(1, count.getInserts());
+				}
+				orderID = jsonMapper.readTree(result.getResponse().getContentAsString()).get("id").asInt();
+
+				try (StatementCount count = StatementCounter.begin()) {
+					result = findOrderByID(orderID);
+					TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+					TestCase.assertTrue("Read issued " + count, count.getTotal() <= READ_STATEMENT_BUDGET);
+				}
+
+				try (StatementCount count = StatementCounter.begin()) {
+					result = updateOrder(orderID, genJSONOrderOfSize(orderID, orderSize));
+					TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+					TestCase.assertTrue("Update issued " + count, count.getTotal() <= UPDATE_STATEMENT_BUDGET);
+				}
+
+				try (StatementCount count = StatementCounter.begin()) {
+					result = deleteOrder(orderID);
+					TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+					TestCase.assertTrue("Delete issued " + count, count.getTotal() <= DELETE_STATEMENT_BUDGET);
+				}
+
+				// Deleting an order that no longer exists must not issue any additional statement either
+				try (StatementCount count = StatementCounter.begin()) {
+					result = deleteOrder(orderID);
+					TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), result.getResponse().getStatus());
+					TestCase.assertTrue("Delete issued " + count, count.getTotal() <= DELETE_STATEMENT_BUDGET);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				TestCase.fail("Exception occurred while checking statement budgets of order with " + orderSize +
+							  " items");
+			}
+		}
+
+		// Clear catalog table for next tests to execute on a clean database
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+
+	@Test
+	@DirtiesContext
+	public void sparseFieldsetTest() {
+		DBHandler.populateCatalogTable(WIRE_FORMAT_ORDER_SIZES[WIRE_FORMAT_ORDER_SIZES.length - 1], jdbcTemplate);
+
+		ObjectMapper jsonMapper = new ObjectMapper();
+
+		try {
+			MvcResult result = createOrder(genJSONOrderOfSize(0, WIRE_FORMAT_ORDER_SIZES[0]));
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			JsonNode order = jsonMapper.readTree(result.getResponse().getContentAsString());
+			long orderID = order.get("id").asLong();
+
+			// Tests that a summary only holds the selected fields, and is read without the items of the order
+			try (StatementCount count = StatementCounter.begin()) {
+				result = mockMvc.perform(
+						MockMvcRequestBuilders.get("/api/orders/" + orderID)
+											  .param("fields", "purchaserName,id")
+											  .accept(APPLICATION_JSON)
+				).andReturn();
+				TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+				TestCase.assertEquals("{\"id\":" + orderID + ",\"purchaserName\":\"TestBuyer\"}",
+									  result.getResponse().getContentAsString());
+				TestCase.assertTrue("Read issued " + count, count.getTotal() <= READ_STATEMENT_BUDGET);
+				assertNoItemColumns(count);
+			}
+
+			// Tests that selecting the items of an order returns them as stored
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/orders/" + orderID)
+										  .param("fields", "itemQuantities")
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			JsonNode fields = jsonMapper.readTree(result.getResponse().getContentAsString());
+			TestCase.assertEquals(1, fields.size());
+			TestCase.assertEquals(order.get("itemQuantities"), fields.get("itemQuantities"));
+
+			// Tests that summaries of all orders of a purchaser can be selected, also without their items
+			try (StatementCount count = StatementCounter.begin()) {
+				result = mockMvc.perform(
+						MockMvcRequestBuilders.get("/api/orders")
+											  .param("purchaserName", "TestBuyer")
+											  .param("fields", "id")
+											  .accept(APPLICATION_JSON)
+				).andReturn();
+				assertNoItemColumns(count);
+			}
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			JsonNode summaries = jsonMapper.readTree(result.getResponse().getContentAsString());
+			boolean found = false;
+			for (JsonNode summary : summaries) {
+				TestCase.assertEquals(1, summary.size());
+				found |= summary.get("id").asLong() == orderID;
+			}
+			TestCase.assertTrue(found);
+
+			// Tests that selecting a field that does not exist, or no field at all, is rejected
+			for (String fieldList : new String[]{"id,total", ","}) {
+				result = mockMvc.perform(
+						MockMvcRequestBuilders.get("/api/orders/" + orderID)
+											  .param("fields", fieldList)
+											  .accept(APPLICATION_JSON)
+				).andReturn();
+				TestCase.assertEquals(HttpStatus.BAD_REQUEST.value(), result.getResponse().getStatus());
+			}
+
+			// Tests that selecting fields of an order that does not exist returns 404 Not Found
+			TestCase.assertEquals(HttpStatus.OK.value(), deleteOrder((int) orderID).getResponse().getStatus());
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/orders/" + orderID)
+										  .param("fields", "id")
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), result.getResponse().getStatus());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while reading selected order fields");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+
+	@Test
+	@DirtiesContext
+	public void conditionalUpdateTest() {
+		DBHandler.populateCatalogTable(WIRE_FORMAT_ORDER_SIZES[0], jdbcTemplate);
+
+		ObjectMapper jsonMapper = new ObjectMapper();
+
+		try {
+			MvcResult result = createOrder(genJSONOrderOfSize(0, WIRE_FORMAT_ORDER_SIZES[0]));
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			int orderID = jsonMapper.readTree(result.getResponse().getContentAsString()).get("id").asInt();
+
+			// Tests that reads return the version of the order as its ETag, without exposing it in the body
+			result = findOrderByID(orderID);
+			String eTag = result.getResponse().getHeader("ETag");
+			TestCase.assertNotNull(eTag);
+			TestCase.assertFalse(result.getResponse().getContentAsString().contains("version"));
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/orders/" + orderID)
+										  .param("fields", "id")
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(eTag, result.getResponse().getHeader("ETag"));
+
+			// Tests that an update naming the current version is applied with a bounded number of statements
+			String newOrder = genJSONOrderOfSize(orderID, WIRE_FORMAT_ORDER_SIZES[0]);
+			String updatedETag;
+			try (StatementCount count = StatementCounter.begin()) {
+				result = updateOrder(orderID, newOrder, eTag);
+				TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+				TestCase.assertTrue("Update issued " + count, count.getTotal() <= UPDATE_STATEMENT_BUDGET);
+				TestCase.assertEquals(1, count.getUpdates());
+			}
+			TestCase.assertEquals(jsonMapper.readTree(newOrder),
+								  jsonMapper.readTree(result.getResponse().getContentAsString()));
+			updatedETag = result.getResponse().getHeader("ETag");
+			TestCase.assertFalse(eTag.equals(updatedETag));
+			TestCase.assertEquals(updatedETag, findOrderByID(orderID).getResponse().getHeader("ETag"));
+
+			// Tests that a stale update is rejected, and leaves the order untouched
+			result = updateOrder(orderID, genJSONOrderOfSize(orderID, WIRE_FORMAT_ORDER_SIZES[0]), eTag);
+			TestCase.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), result.getResponse().getStatus());
+			TestCase.assertEquals(jsonMapper.readTree(newOrder),
+								  jsonMapper.readTree(findOrderByID(orderID).getResponse().getContentAsString()));
+
+			// Tests that weak and unknown entity tags never match, while a list naming the current version does
+			result = updateOrder(orderID, newOrder, "W/" + updatedETag + ", \"unknown\"");
+			TestCase.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), result.getResponse().getStatus());
+			result = updateOrder(orderID, newOrder, eTag + ", " + updatedETag);
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			updatedETag = result.getResponse().getHeader("ETag");
+
+			// Tests that '*' matches any version, and that unconditional updates also return the new version
+			newOrder = genJSONOrderOfSize(orderID, WIRE_FORMAT_ORDER_SIZES[0] - 1);
+			result = updateOrder(orderID, newOrder, "*");
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			TestCase.assertFalse(updatedETag.equals(result.getResponse().getHeader("ETag")));
+			updatedETag = result.getResponse().getHeader("ETag");
+
+			// Tests that conditional updates are still validated, here with an item that is not in the catalog
+			result = updateOrder(orderID, genJSONOrderOfSize(orderID, WIRE_FORMAT_ORDER_SIZES[0] + 1), updatedETag);
+			TestCase.assertEquals(HttpStatus.UNPROCESSABLE_ENTITY.value(), result.getResponse().getStatus());
+
+			// Tests that a stale deletion is rejected, while a deletion naming the current version is applied
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.delete("/api/orders/" + orderID).header("If-Match", eTag)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), result.getResponse().getStatus());
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.delete("/api/orders/" + orderID).header("If-Match", updatedETag)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+			/*
+			 * Tests that entity tags, including '*', only match an order that exists, so modifying one that does not
+			 * fails the precondition, while unconditional modifications still return 404 Not Found
+			 */
+			result = updateOrder(orderID, newOrder, updatedETag);
+			TestCase.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), result.getResponse().getStatus());
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.delete("/api/orders/" + orderID).header("If-Match", updatedETag)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), result.getResponse().getStatus());
+			result = updateOrder(orderID, newOrder);
+			TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), result.getResponse().getStatus());
+			result = updateOrder(orderID, newOrder, "*");
+			TestCase.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), result.getResponse().getStatus());
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.delete("/api/orders/" + orderID).header("If-Match", "*")
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.PRECONDITION_FAILED.value(), result.getResponse().getStatus());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while updating orders conditionally");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
 }
@@ -0,0 +1,321 @@
+package api.order;
+
+import api.DBHandler;
+import api.Main;
+import api.order.repository.LogicalShardPlacementRepository;
+import api.order.sharding.OrderShardingProperties;
+import api.order.sharding.OrderShards;
+import api.order.sharding.ShardedOrderIds;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = Main.class
+)
+@AutoConfigureMockMvc
+@TestPropertySource(
+		locations = "classpath:application-test.properties",
+		properties = {
+				"orders.sharding.enabled = true",
+				"orders.sharding.ddl-auto = create-drop",
+				"orders.sharding.placement-refresh-ms = 600000",
+				"orders.sharding.shards[0].url = " + OrderShardingTest.SHARD_URL_PREFIX + "0",
+				"orders.sharding.shards[1].url = " + OrderShardingTest.SHARD_URL_PREFIX + "1",
+				"orders.sharding.shards[2].url = " + OrderShardingTest.SHARD_URL_PREFIX + "2"
+		}
+)
+@DirtiesContext
+public class OrderShardingTest {
+	static final String SHARD_URL_PREFIX = "jdbc:h2:mem:ordershard";
+
+	/**
+	 * Number of physical shards configured for this test.
+	 */
+	private final int NUM_OF_SHARDS = 3;
+
+	/**
+	 * Number of orders created, which is enough to use every logical shard at least once.
+	 */
+	private final int NUM_OF_ORDERS = ShardedOrderIds.LOGICAL_SHARDS + 44;
+
+	private final int NUM_OF_CATALOG_ITEMS = 10;
+
+	/**
+	 * Interval at which the instance started by this test reads the placement again, in milliseconds, which is also
+	 * how long its moves wait before deleting moved orders. The application is configured never to read it again on
+	 * its own during this test, so that it routes orders with an outdated placement once that instance moves a
+	 * logical shard.
+	 */
+	private final long OTHER_INSTANCE_REFRESH_MS = 100;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private OrderShards orderShards;
+
+	@Autowired
+	private EntityManagerFactoryBuilder factoryBuilder;
+
+	@Autowired
+	private LogicalShardPlacementRepository placementRepository;
+
+	private ObjectMapper jsonMapper = new ObjectMapper();
+
+	/**
+	 * Creates a JdbcTemplate connected directly to a physical shard, bypassing the application.
+	 *
+	 * @param physicalShard Index of the physical shard to connect to
+	 * @return JdbcTemplate issuing queries on the given physical shard
+	 */
+	private JdbcTemplate shardJdbcTemplate(int physicalShard) {
+		return new JdbcTemplate(new DriverManagerDataSource(SHARD_URL_PREFIX + physicalShard));
+	}
+
+	/**
+	 * Counts the orders stored in a physical shard with the given ID.
+	 *
+	 * @param physicalShard Index of the physical shard to search
+	 * @param orderID       ID of the order to count
+	 * @return 1 if the physical shard stores the order, 0 otherwise
+	 */
+	private int countOrderInShard(int physicalShard, long orderID) {
+		return shardJdbcTemplate(physicalShard).queryForObject(
+				"select count(*) from orders where id = ?", Integer.class, orderID
+		);
+	}
+
+	/**
+	 * Creates an order for the given purchaser, containing every catalog item once.
+	 *
+	 * @param purchaserName Name of the purchaser
+	 * @return ID assigned to the order by the server
+	 * @throws Exception
+	 */
+	private long createOrder(String purchaserName) throws Exception {
+		StringBuilder itemIDs = new StringBuilder(), itemQuantities = new StringBuilder();
+		for (int i = 1; i <= NUM_OF_CATALOG_ITEMS; i++) {
+			itemIDs.append(i > 1 ? "," : "").append(i);
+			itemQuantities.append(i > 1 ? "," : "").append(1);
+		}
+
+		MvcResult result = mockMvc.perform(
+				MockMvcRequestBuilders.post("/api/orders/")
+									  .content("{\"purchaserName\":\"" + purchaserName + "\",\"itemIDs\":[" +
+											   itemIDs + "],\"itemQuantities\":[" + itemQuantities + "]}")
+									  .contentType(APPLICATION_JSON)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+		TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+		return jsonMapper.readTree(result.getResponse().getContentAsString()).get("id").asLong();
+	}
+
+	/**
+	 * Attempts to retrieve an order with the specified ID from the server.
+	 *
+	 * @param orderID ID of the order to be retrieved
+	 * @return MvcResult containing the server response to the GET request
+	 * @throws Exception
+	 */
+	private MvcResult findOrderByID(long orderID) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.get("/api/orders/" + orderID)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+	}
+
+	/**
+	 * Starts another instance sharing the physical shards and the placement of the application, as another node of
+	 * the cluster would.
+	 *
+	 * @return Order shards of the other instance, which must be destroyed once no longer used
+	 */
+	private OrderShards startOtherInstance() {
+		OrderShardingProperties properties = new OrderShardingProperties();
+		properties.setEnabled(true);
+		properties.setNodeId(1);
+		properties.setDdlAuto("none");
+		properties.setPlacementRefreshMs(OTHER_INSTANCE_REFRESH_MS);
+		for (int shard = 0; shard < NUM_OF_SHARDS; shard++) {
+			OrderShardingProperties.Shard shardProperties = new OrderShardingProperties.Shard();
+			shardProperties.setUrl(SHARD_URL_PREFIX + shard);
+			properties.getShards().add(shardProperties);
+		}
+		return new OrderShards(properties, factoryBuilder, placementRepository);
+	}
+
+	/**
+	 * Attempts to rename the purchaser of an order.
+	 *
+	 * @param orderID       ID of the order to update
+	 * @param purchaserName New name of the purchaser
+	 * @return MvcResult containing the server response to the PUT request
+	 * @throws Exception
+	 */
+	private MvcResult renamePurchaser(long orderID, String purchaserName) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.put("/api/orders/" + orderID)
+									  .content("{\"purchaserName\":\"" + purchaserName + "\",\"itemIDs\":[1]," +
+											   "\"itemQuantities\":[5]}")
+									  .contentType(APPLICATION_JSON)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+	}
+
+	@Test
+	public void shardingTest() {
+		DBHandler.populateCatalogTable(NUM_OF_CATALOG_ITEMS, jdbcTemplate);
+
+		try {
+			/*
+			 * Tests that orders are spread over all physical shards, and that each order is stored in the physical
+			 * shard its logical shard (encoded in its ID) is placed on, and in no other.
+			 */
+			List<Long> orderIDs = new ArrayList<>();
+			for (int i = 0; i < NUM_OF_ORDERS; i++)
+				orderIDs.add(createOrder(i % 2 == 0 ? "EvenBuyer" : "OddBuyer"));
+
+			int[] placement = orderShards.getPlacement();
+			for (long orderID : orderIDs) {
+				int expectedShard = placement[ShardedOrderIds.logicalShardOf(orderID)];
+				for (int shard = 0; shard < NUM_OF_SHARDS; shard++)
+					TestCase.assertEquals(shard == expectedShard ? 1 : 0, countOrderInShard(shard, orderID));
+			}
+
+			// Tests that orders can be read and updated through their ID, wherever they are stored
+			for (long orderID : orderIDs) {
+				TestCase.assertEquals(HttpStatus.OK.value(), findOrderByID(orderID).getResponse().getStatus());
+			}
+
+			MvcResult result = renamePurchaser(orderIDs.get(0), "RenamedBuyer");
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			JsonNode updated = jsonMapper.readTree(findOrderByID(orderIDs.get(0)).getResponse().getContentAsString());
+			TestCase.assertEquals("RenamedBuyer", updated.get("purchaserName").asText());
+			TestCase.assertEquals(orderIDs.get(0).longValue(), updated.get("id").asLong());
+
+			// Tests that purchaser queries gather the orders of all physical shards
+			result = mockMvc.perform(
+					MockMvcRequestBuilders.get("/api/orders").param("purchaserName", "OddBuyer")
+										  .accept(APPLICATION_JSON)
+			).andReturn();
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+			JsonNode oddOrders = jsonMapper.readTree(result.getResponse().getContentAsString());
+			TestCase.assertEquals(NUM_OF_ORDERS / 2, oddOrders.size());
+			for (int i = 0; i < oddOrders.size(); i++)
+				TestCase.assertEquals(orderIDs.get(2 * i + 1).longValue(), oddOrders.get(i).get("id").asLong());
+
+			/*
+			 * Tests that moving a logical shard from another instance moves all of its orders to the target physical
+			 * shard, without changing their IDs, and that this instance, which still routes them with the outdated
+			 * placement, finds them there once they are deleted from the source physical shard, at the same version.
+			 */
+			long movedOrderID = orderIDs.get(1);
+			TestCase.assertEquals(HttpStatus.OK.value(),
+								  renamePurchaser(movedOrderID, "MovedBuyer").getResponse().getStatus());
+			String movedOrderETag = findOrderByID(movedOrderID).getResponse().getHeader(HttpHeaders.ETAG);
+			TestCase.assertEquals("\"1\"", movedOrderETag);
+			int logicalShard = ShardedOrderIds.logicalShardOf(movedOrderID);
+			int sourceShard = placement[logicalShard], targetShard = (sourceShard + 1) % NUM_OF_SHARDS;
+			long ordersInLogicalShard = orderIDs.stream()
+					.filter(id -> ShardedOrderIds.logicalShardOf(id) == logicalShard)
+					.count();
+
+			OrderShards otherInstance = startOtherInstance();
+			try {
+				TestCase.assertEquals(ordersInLogicalShard, otherInstance.moveLogicalShard(logicalShard, targetShard));
+				TestCase.assertEquals(targetShard, otherInstance.getPlacement()[logicalShard]);
+				TestCase.assertEquals(sourceShard, orderShards.getPlacement()[logicalShard]);
+				TestCase.assertEquals(0, countOrderInShard(sourceShard, movedOrderID));
+				TestCase.assertEquals(1, countOrderInShard(targetShard, movedOrderID));
+				result = findOrderByID(movedOrderID);
+				TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+				TestCase.assertEquals(movedOrderETag, result.getResponse().getHeader(HttpHeaders.ETAG));
+				TestCase.assertEquals(targetShard, orderShards.getPlacement()[logicalShard]);
+
+				// Tests that the placement is stored in the main data source, shared by all instances
+				TestCase.assertEquals(ShardedOrderIds.LOGICAL_SHARDS, jdbcTemplate.queryForObject(
+						"select count(*) from order_shard_placement", Integer.class
+				).intValue());
+				TestCase.assertEquals(targetShard, jdbcTemplate.queryForObject(
+						"select physical_shard from order_shard_placement where logical_shard = ?", Integer.class,
+						logicalShard
+				).intValue());
+
+				// Tests that writes to the orders of a logical shard being moved are rejected until the move completes
+				jdbcTemplate.update("update order_shard_placement set moving = true where logical_shard = ?",
+									logicalShard);
+				orderShards.refreshPlacement();
+				result = renamePurchaser(movedOrderID, "MovingBuyer");
+				TestCase.assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), result.getResponse().getStatus());
+				TestCase.assertNotNull(result.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+				TestCase.assertEquals(HttpStatus.OK.value(), findOrderByID(movedOrderID).getResponse().getStatus());
+				jdbcTemplate.update("update order_shard_placement set moving = false where logical_shard = ?",
+									logicalShard);
+				orderShards.refreshPlacement();
+
+				/*
+				 * Tests that writes routed by this instance with an outdated placement are rejected by the physical
+				 * shard the logical shard was moved away from, and rerouted, instead of being lost.
+				 */
+				long reroutedOrderID = orderIDs.get(2);
+				int reroutedLogicalShard = ShardedOrderIds.logicalShardOf(reroutedOrderID);
+				int reroutedSourceShard = placement[reroutedLogicalShard];
+				int reroutedTargetShard = (reroutedSourceShard + 1) % NUM_OF_SHARDS;
+
+				otherInstance.moveLogicalShard(reroutedLogicalShard, reroutedTargetShard);
+				TestCase.assertEquals(reroutedSourceShard, orderShards.getPlacement()[reroutedLogicalShard]);
+
+				result = renamePurchaser(reroutedOrderID, "ReroutedBuyer");
+				TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+				TestCase.assertEquals(reroutedTargetShard, orderShards.getPlacement()[reroutedLogicalShard]);
+				TestCase.assertEquals(0, countOrderInShard(reroutedSourceShard, reroutedOrderID));
+				TestCase.assertEquals("ReroutedBuyer", shardJdbcTemplate(reroutedTargetShard).queryForObject(
+						"select purchaser_name from orders where id = ?", String.class, reroutedOrderID
+				));
+			} finally {
+				otherInstance.destroy();
+			}
+
+			// Tests that orders can be deleted through their ID, wherever they are stored
+			for (long orderID : orderIDs) {
+				result = mockMvc.perform(MockMvcRequestBuilders.delete("/api/orders/" + orderID)).andReturn();
+				TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+				TestCase.assertEquals(HttpStatus.NOT_FOUND.value(), findOrderByID(orderID).getResponse().getStatus());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while testing sharded orders");
+		}
+
+		// Clear catalog table for next tests to execute on a clean database
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+}
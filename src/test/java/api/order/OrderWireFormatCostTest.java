@@ -0,0 +1,155 @@
+package api.order;
+
+import api.WireFormats;
+import api.order.model.Order;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding benchmark of the wire formats orders can be exchanged in, at the order sizes used by the binary
+ * wire format test of the order integration tests. For each format and number of items, orders are repeatedly encoded
+ * to bytes and decoded back into orders, as the message converters do for responses and requests, and the payload
+ * size and the median and p99 time per operation are recorded. Results are printed, and written to
+ * target/scalability/wire-formats.csv.
+ * <p>
+ * Like the scalability suite, this takes too long for regular builds, and only runs in the 'scalability' Maven profile.
+ */
+public class OrderWireFormatCostTest {
+	private static final long SEED = 42;
+
+	/**
+	 * Order sizes (in number of distinct items) compared, the same as in the binary wire format test.
+	 */
+	private final int[] ORDER_SIZES = {10, 100, 1000};
+
+	/**
+	 * Number of operations measured per format, order size and direction, and number run before measuring, so that
+	 * measurements are not skewed by class loading and JIT compilation.
+	 */
+	private final int NUM_OF_OPERATIONS = 20000, NUM_OF_WARMUP_OPERATIONS = 20000;
+
+	/**
+	 * Percentiles of the time taken by each operation.
+	 */
+	private static class Measurement {
+		final long[] sortedNanos;
+
+		Measurement(long[] nanos) {
+			this.sortedNanos = nanos.clone();
+			Arrays.sort(sortedNanos);
+		}
+
+		double percentileUs(double percentile) {
+			int index = (int) Math.ceil(percentile / 100 * sortedNanos.length) - 1;
+			return sortedNanos[Math.max(0, index)] / (double) TimeUnit.MICROSECONDS.toNanos(1);
+		}
+	}
+
+	/**
+	 * Operation whose cost is measured.
+	 */
+	private interface Operation {
+		void run() throws IOException;
+	}
+
+	/**
+	 * @param random     Source of randomness
+	 * @param numOfItems Number of distinct items in the order
+	 * @return Order as a client would submit it
+	 */
+	private Order newOrder(Random random, int numOfItems) {
+		Long[] itemIDs = new Long[numOfItems], itemQuantities = new Long[numOfItems];
+		for (int i = 0; i < numOfItems; i++) {
+			itemIDs[i] = (long) random.nextInt(1000000) + 1;
+			itemQuantities[i] = (long) random.nextInt(10) + 1;
+		}
+
+		Order order = new Order();
+		order.setPurchaserName("WireFormatBuyer");
+		order.setItemIDs(itemIDs);
+		order.setItemQuantities(itemQuantities);
+		return order;
+	}
+
+	/**
+	 * Runs an operation a number of times, first to warm it up, then measuring each run.
+	 *
+	 * @param operation Operation to measure
+	 * @return Time taken by each measured run
+	 * @throws IOException If the operation fails
+	 */
+	private Measurement measure(Operation operation) throws IOException {
+		for (int i = 0; i < NUM_OF_WARMUP_OPERATIONS; i++)
+			operation.run();
+
+		long[] nanos = new long[NUM_OF_OPERATIONS];
+		for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+			long start = System.nanoTime();
+			operation.run();
+			nanos[i] = System.nanoTime() - start;
+		}
+		return new Measurement(nanos);
+	}
+
+	@Test
+	public void wireFormatCostTest() {
+		Path resultsFile = Paths.get("target", "scalability", "wire-formats.csv");
+
+		Map<MediaType, ObjectMapper> mappers = new LinkedHashMap<>();
+		mappers.put(MediaType.APPLICATION_JSON, new ObjectMapper());
+		mappers.put(WireFormats.APPLICATION_CBOR, new ObjectMapper(new CBORFactory()));
+		mappers.put(WireFormats.APPLICATION_SMILE, new ObjectMapper(new SmileFactory()));
+
+		try {
+			Files.createDirectories(resultsFile.getParent());
+			try (PrintWriter results = new PrintWriter(Files.newBufferedWriter(resultsFile))) {
+				results.println("format,items,bytes,encode_p50_us,encode_p99_us,decode_p50_us,decode_p99_us");
+
+				Random random = new Random(SEED);
+				for (int orderSize : ORDER_SIZES) {
+					Order order = newOrder(random, orderSize);
+					int jsonBytes = mappers.get(MediaType.APPLICATION_JSON).writeValueAsBytes(order).length;
+
+					for (Map.Entry<MediaType, ObjectMapper> format : mappers.entrySet()) {
+						ObjectMapper mapper = format.getValue();
+						byte[] payload = mapper.writeValueAsBytes(order);
+
+						// Tests that the payload decodes back into the same order, and that binary formats are smaller
+						Order decoded = mapper.readValue(payload, Order.class);
+						TestCase.assertTrue(Arrays.equals(order.getItemIDs(), decoded.getItemIDs()));
+						TestCase.assertTrue(Arrays.equals(order.getItemQuantities(), decoded.getItemQuantities()));
+						if (!format.getKey().equals(MediaType.APPLICATION_JSON))
+							TestCase.assertTrue(payload.length < jsonBytes);
+
+						Measurement encode = measure(() -> mapper.writeValueAsBytes(order));
+						Measurement decode = measure(() -> mapper.readValue(payload, Order.class));
+
+						String line = String.format(
+								Locale.ROOT, "%s,%d,%d,%.3f,%.3f,%.3f,%.3f", format.getKey(), orderSize,
+								payload.length, encode.percentileUs(50), encode.percentileUs(99),
+								decode.percentileUs(50), decode.percentileUs(99)
+						);
+						results.println(line);
+						System.out.println(line);
+					}
+					results.flush();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while measuring wire format costs");
+		}
+	}
+}
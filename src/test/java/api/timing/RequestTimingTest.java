@@ -0,0 +1,154 @@
+package api.timing;
+
+import api.DBHandler;
+import api.Main;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = Main.class
+)
+@AutoConfigureMockMvc
+@TestPropertySource(
+		locations = "classpath:application-test.properties",
+		properties = {
+				"request-timing.server-timing-header = true",
+				"request-timing.slow-threshold-ms = 0",
+				"request-timing.slow-sample-rate = 1"
+		}
+)
+@DirtiesContext
+public class RequestTimingTest {
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private RequestTimingProperties properties;
+
+	/**
+	 * Checks that a 'Server-Timing' header value holds a metric.
+	 *
+	 * @param header Header value
+	 * @param metric Name of the metric
+	 */
+	private void assertHasMetric(String header, String metric) {
+		TestCase.assertTrue(header + " has no " + metric + " metric",
+							header.startsWith(metric + ";") || header.contains(", " + metric + ";"));
+	}
+
+	/**
+	 * Creates an order containing a single catalog item.
+	 *
+	 * @param itemID ID of the catalog item to order
+	 * @return MvcResult of the request
+	 * @throws Exception
+	 */
+	private MvcResult createOrder(long itemID) throws Exception {
+		return mockMvc.perform(
+				MockMvcRequestBuilders.post("/api/orders/")
+									  .content("{\"purchaserName\":\"Buyer\",\"itemIDs\":[" + itemID +
+											   "],\"itemQuantities\":[1]}")
+									  .contentType(APPLICATION_JSON)
+									  .accept(APPLICATION_JSON)
+		).andReturn();
+	}
+
+	@Test
+	public void requestTimingTest() {
+		DBHandler.populateCatalogTable(1, jdbcTemplate);
+		long itemID = jdbcTemplate.queryForObject("select min(id) from catalog", Long.class);
+
+		try {
+			// Tests that each phase a request went through before its body was written is reported
+			MvcResult result = createOrder(itemID);
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+			String header = result.getResponse().getHeader(RequestTimingFilter.SERVER_TIMING_HEADER);
+			TestCase.assertNotNull(header);
+			for (String metric : new String[]{"parse", "validate", "dao", "app"})
+				assertHasMetric(header, metric);
+			TestCase.assertTrue(header.matches(".*app;dur=\\d+\\.\\d{3}"));
+
+			// Tests that responses without a body are timed too
+			result = mockMvc.perform(MockMvcRequestBuilders.delete("/api/orders/" + Long.MAX_VALUE)).andReturn();
+			header = result.getResponse().getHeader(RequestTimingFilter.SERVER_TIMING_HEADER);
+			TestCase.assertNotNull(header);
+			assertHasMetric(header, "dao");
+			assertHasMetric(header, "app");
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while testing request timing");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+
+	@Test
+	public void slowRequestLogTest() {
+		DBHandler.populateCatalogTable(1, jdbcTemplate);
+		long itemID = jdbcTemplate.queryForObject("select min(id) from catalog", Long.class);
+
+		Logger slowRequestLogger = (Logger) LoggerFactory.getLogger("slow-requests");
+		ListAppender<ILoggingEvent> appender = new ListAppender<>();
+		appender.start();
+		slowRequestLogger.addAppender(appender);
+
+		try {
+			/*
+			 * Tests that a request slower than the threshold, here every request, is logged with the time spent in each
+			 * phase, including serialization of the response, and the statements it issued
+			 */
+			TestCase.assertEquals(HttpStatus.OK.value(), createOrder(itemID).getResponse().getStatus());
+			TestCase.assertEquals(1, appender.list.size());
+			String message = appender.list.get(0).getFormattedMessage();
+			TestCase.assertTrue(message, message.matches("POST /api/orders/ 200 in \\d+\\.\\d{3} ms \\(.*\\)"));
+			for (String phase : new String[]{"parse", "validate", "dao", ResponseBodyTimingAdvice.SERIALIZE_PHASE})
+				TestCase.assertTrue(message + " has no " + phase + " phase",
+									message.matches(".*[(, ]" + phase + " \\d+\\.\\d{3} ms.*"));
+			TestCase.assertTrue(message, message.matches(".*; \\d+ statements \\(\\d+ select, 1 insert, .*\\)\\)"));
+
+			// Tests that requests are not logged when they are faster than the threshold, or not sampled
+			properties.setSlowThresholdMs(60000);
+			TestCase.assertEquals(HttpStatus.OK.value(), createOrder(itemID).getResponse().getStatus());
+			properties.setSlowThresholdMs(0);
+			properties.setSlowSampleRate(0);
+			TestCase.assertEquals(HttpStatus.OK.value(), createOrder(itemID).getResponse().getStatus());
+			TestCase.assertEquals(1, appender.list.size());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while testing the slow request log");
+		} finally {
+			slowRequestLogger.detachAppender(appender);
+			properties.setSlowSampleRate(1);
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+		DBHandler.clearCatalogTable(jdbcTemplate);
+	}
+}
@@ -0,0 +1,299 @@
+package api.warmup;
+
+import api.Main;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how long a freshly started instance takes to reach its steady state latency, with and without warm-up.
+ * Since JIT compilation state cannot be reset, each run starts the application in its own JVM, with an in-memory
+ * database holding the catalog of data.sql, and sends it a mix of catalog reads, order creations and order reads as
+ * soon as it reports itself ready. Results are printed, and written to target/scalability/warmup.csv.
+ * <p>
+ * Like the scalability suite, this takes too long for regular builds, and only runs in the 'scalability' Maven profile.
+ */
+public class WarmupLatencyTest {
+	private static final long SEED = 42;
+
+	/**
+	 * Number of catalog entries inserted by data.sql.
+	 */
+	private static final int NUM_OF_CATALOG_ENTRIES = 50;
+
+	/**
+	 * Number of requests sent to each instance, and number of consecutive requests whose latency percentiles are
+	 * computed together.
+	 */
+	private final int NUM_OF_REQUESTS = 30000, WINDOW_SIZE = 500;
+
+	/**
+	 * Number of final windows whose median p99 is taken as the steady state p99.
+	 */
+	private final int NUM_OF_STEADY_WINDOWS = 10;
+
+	/**
+	 * Latency is considered steady once the median p99 of this many consecutive windows is within STEADY_STATE_TOLERANCE
+	 * of the steady state p99, so that a single garbage collection pause does not delay or hasten steady state.
+	 */
+	private final int NUM_OF_SMOOTHING_WINDOWS = 5;
+
+	private final double STEADY_STATE_TOLERANCE = 1.5;
+
+	private final long STARTUP_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+	private static final Pattern ORDER_ID_PATTERN = Pattern.compile("\"id\":(\\d+)");
+
+	/**
+	 * Status and body of a response.
+	 */
+	private static class Response {
+		final int status;
+
+		final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Latency of an instance over time, from the moment it reported itself ready.
+	 */
+	private static class Run {
+		final boolean warmup;
+
+		final long readyMs;
+
+		final double[] windowP99Ms;
+
+		final long[] windowEndMs;
+
+		Run(boolean warmup, long readyMs, double[] windowP99Ms, long[] windowEndMs) {
+			this.warmup = warmup;
+			this.readyMs = readyMs;
+			this.windowP99Ms = windowP99Ms;
+			this.windowEndMs = windowEndMs;
+		}
+
+		/**
+		 * @return Median p99 of the given windows
+		 */
+		double medianP99Ms(int fromWindow, int toWindow) {
+			double[] windows = Arrays.copyOfRange(windowP99Ms, fromWindow, toWindow);
+			Arrays.sort(windows);
+			return windows[windows.length / 2];
+		}
+
+		/**
+		 * @return Index of the last window of the first run of smoothing windows whose median p99 is steady
+		 */
+		int firstSteadyWindow(double steadyP99Ms, double tolerance, int numOfSmoothingWindows) {
+			for (int last = numOfSmoothingWindows - 1; last < windowP99Ms.length; last++)
+				if (medianP99Ms(last - numOfSmoothingWindows + 1, last + 1) <= steadyP99Ms * tolerance)
+					return last;
+			return windowP99Ms.length - 1;
+		}
+	}
+
+	private int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Starts the application in a new JVM, with the same class path as the tests. Devtools restarts are disabled, so
+	 * that the application classes are loaded as they would be in production.
+	 *
+	 * @param port    Port the application listens on
+	 * @param warmup  True to enable warm-up
+	 * @param logFile File the output of the application is written to
+	 * @return Application process
+	 * @throws IOException
+	 */
+	private Process startInstance(int port, boolean warmup, Path logFile) throws IOException {
+		return new ProcessBuilder(
+				Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+				"-Xmx1g", "-Dspring.datasource.password=", "-Dspring.devtools.restart.enabled=false",
+				"-cp", System.getProperty("java.class.path"), Main.class.getName(),
+				"--server.port=" + port,
+				"--spring.datasource.url=jdbc:h2:mem:warmup;DB_CLOSE_ON_EXIT=FALSE",
+				"--spring.datasource.username=sa",
+				"--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+				"--admission.enabled=false",
+				"--management.endpoints.web.exposure.include=readiness",
+				"--warmup.enabled=" + warmup
+		).redirectErrorStream(true).redirectOutput(logFile.toFile()).start();
+	}
+
+	/**
+	 * Sends a request to the application.
+	 *
+	 * @param url    URL to send the request to
+	 * @param method HTTP method
+	 * @param body   JSON body, or null to send none
+	 * @return Response of the application
+	 * @throws IOException If the application cannot be reached
+	 */
+	private Response send(String url, String method, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Accept", "application/json");
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+
+		int status = connection.getResponseCode();
+		try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; in != null && (read = in.read(buffer)) > 0; )
+				content.write(buffer, 0, read);
+			return new Response(status, new String(content.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Waits until the application reports itself ready.
+	 *
+	 * @param baseURL  Base URL of the application
+	 * @param instance Application process
+	 * @throws Exception If the application exits or does not become ready in time
+	 */
+	private void awaitReadiness(String baseURL, Process instance) throws Exception {
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+		while (System.currentTimeMillis() < deadline) {
+			if (!instance.isAlive())
+				throw new IllegalStateException("Application exited with code " + instance.exitValue());
+			try {
+				if (send(baseURL + "/actuator/readiness", "GET", null).status == 200)
+					return;
+			} catch (IOException e) {
+				// Not listening yet
+			}
+			Thread.sleep(100);
+		}
+		throw new IllegalStateException("Application did not become ready in time");
+	}
+
+	/**
+	 * Starts an instance, and measures the latency of the requests sent to it once it is ready.
+	 *
+	 * @param warmup True to enable warm-up
+	 * @return Latency of the instance over time
+	 * @throws Exception
+	 */
+	private Run measure(boolean warmup) throws Exception {
+		int port = freePort();
+		String baseURL = "http://localhost:" + port;
+		Path logFile = Paths.get("target", "scalability", "warmup-" + (warmup ? "enabled" : "disabled") + ".log");
+
+		long start = System.nanoTime();
+		Process instance = startInstance(port, warmup, logFile);
+		try {
+			awaitReadiness(baseURL, instance);
+			long ready = System.nanoTime();
+
+			Random random = new Random(SEED);
+			long lastOrderID = -1;
+			int numOfWindows = NUM_OF_REQUESTS / WINDOW_SIZE;
+			double[] windowP99Ms = new double[numOfWindows];
+			long[] windowEndMs = new long[numOfWindows], latenciesNanos = new long[WINDOW_SIZE];
+
+			for (int i = 0; i < numOfWindows * WINDOW_SIZE; i++) {
+				String url, method = "GET", body = null;
+				if (i % 3 == 0) {
+					url = baseURL + "/api/catalog/" + (random.nextInt(NUM_OF_CATALOG_ENTRIES) + 1);
+				} else if (i % 3 == 1 || lastOrderID < 0) {
+					url = baseURL + "/api/orders";
+					method = "POST";
+					body = "{\"purchaserName\":\"LatencyBuyer\",\"itemIDs\":[" +
+						   (random.nextInt(NUM_OF_CATALOG_ENTRIES) + 1) + "],\"itemQuantities\":[1]}";
+				} else {
+					url = baseURL + "/api/orders/" + lastOrderID;
+				}
+
+				long requestStart = System.nanoTime();
+				Response response = send(url, method, body);
+				latenciesNanos[i % WINDOW_SIZE] = System.nanoTime() - requestStart;
+
+				TestCase.assertEquals(method + " " + url + " failed: " + response.body, 200, response.status);
+				if (body != null) {
+					Matcher id = ORDER_ID_PATTERN.matcher(response.body);
+					TestCase.assertTrue(id.find());
+					lastOrderID = Long.parseLong(id.group(1));
+				}
+
+				if ((i + 1) % WINDOW_SIZE == 0) {
+					long[] sorted = latenciesNanos.clone();
+					Arrays.sort(sorted);
+					windowP99Ms[i / WINDOW_SIZE] = sorted[(int) Math.ceil(0.99 * sorted.length) - 1] /
+												   (double) TimeUnit.MILLISECONDS.toNanos(1);
+					windowEndMs[i / WINDOW_SIZE] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ready);
+				}
+			}
+
+			return new Run(warmup, TimeUnit.NANOSECONDS.toMillis(ready - start), windowP99Ms, windowEndMs);
+		} finally {
+			instance.destroy();
+			if (!instance.waitFor(30, TimeUnit.SECONDS))
+				instance.destroyForcibly();
+		}
+	}
+
+	@Test
+	public void timeToSteadyStateTest() {
+		Path resultsFile = Paths.get("target", "scalability", "warmup.csv");
+
+		try {
+			Files.createDirectories(resultsFile.getParent());
+			try (PrintWriter results = new PrintWriter(Files.newBufferedWriter(resultsFile))) {
+				results.println("warmup,ready_ms,first_window_p99_ms,steady_p99_ms,steady_after_requests," +
+								"steady_after_ms");
+
+				for (boolean warmup : new boolean[]{false, true}) {
+					Run run = measure(warmup);
+					int numOfWindows = run.windowP99Ms.length;
+					double steadyP99Ms = run.medianP99Ms(numOfWindows - NUM_OF_STEADY_WINDOWS, numOfWindows);
+					int steadyWindow = run.firstSteadyWindow(steadyP99Ms, STEADY_STATE_TOLERANCE,
+															 NUM_OF_SMOOTHING_WINDOWS);
+
+					String line = String.format(
+							Locale.ROOT, "%b,%d,%.3f,%.3f,%d,%d", run.warmup, run.readyMs, run.windowP99Ms[0],
+							steadyP99Ms, (steadyWindow + 1) * WINDOW_SIZE, run.windowEndMs[steadyWindow]
+					);
+					results.println(line);
+					System.out.println(line);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while writing warm-up results");
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while measuring time to steady state");
+		}
+	}
+}
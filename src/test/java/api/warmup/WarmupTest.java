@@ -0,0 +1,95 @@
+package api.warmup;
+
+import api.DBHandler;
+import api.Main;
+import api.order.changes.OrderChangeFeed;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = Main.class
+)
+@AutoConfigureMockMvc
+@TestPropertySource(
+		locations = "classpath:application-test.properties",
+		properties = {
+				"warmup.enabled = true",
+				"warmup.iterations = " + WarmupTest.WARMUP_ROUNDS,
+				"warmup.threads = 2",
+				"management.endpoints.web.exposure.include = readiness"
+		}
+)
+@DirtiesContext
+public class WarmupTest {
+	static final int WARMUP_ROUNDS = 200;
+
+	/**
+	 * Time to wait for warm-up to complete, in milliseconds.
+	 */
+	private final long WARMUP_TIMEOUT_MS = 60000;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private OrderChangeFeed orderChangeFeed;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	public void warmupTest() {
+		try {
+			// Tests that the instance reports itself ready once all warm-up rounds have been replayed
+			long deadline = System.currentTimeMillis() + WARMUP_TIMEOUT_MS;
+			MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/actuator/readiness")).andReturn();
+			while (result.getResponse().getStatus() != HttpStatus.OK.value() && System.currentTimeMillis() < deadline) {
+				TestCase.assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), result.getResponse().getStatus());
+				Thread.sleep(50);
+				result = mockMvc.perform(MockMvcRequestBuilders.get("/actuator/readiness")).andReturn();
+			}
+			TestCase.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+
+			JsonNode readiness = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+			TestCase.assertEquals("UP", readiness.get("status").asText());
+			TestCase.assertEquals(WARMUP_ROUNDS, readiness.get("warmupRounds").asInt());
+
+			// Tests that orders were written through the MVC stack, as client requests are
+			Timer posts = meterRegistry.find("http.server.requests").tags("method", "POST", "uri", "/api/orders")
+									   .timer();
+			TestCase.assertNotNull(posts);
+			TestCase.assertEquals(WARMUP_ROUNDS, posts.count());
+
+			// Tests that the orders written during warm-up were all rolled back, and never published
+			TestCase.assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from orders", Integer.class));
+			TestCase.assertEquals(0, orderChangeFeed.getLastSequence());
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestCase.fail("Exception occurred while warming up");
+		}
+
+		// Clear tables for next tests to execute on a clean database
+		DBHandler.clearOrdersTable(jdbcTemplate);
+	}
+}